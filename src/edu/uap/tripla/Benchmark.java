@@ -0,0 +1,424 @@
+package edu.uap.tripla;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.uap.tripla.compiler.RegisterCompiler;
+import edu.uap.tripla.compiler.TriplaCompiler;
+import edu.uap.tripla.jit.JitCompiler;
+import edu.uap.tripla.jit.JitProgram;
+import edu.uap.tripla.parser.AbstractSyntaxTree;
+import edu.uap.tripla.regvm.RegisterInstruction;
+import edu.uap.tripla.regvm.RegisterMachine;
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.MemoTable;
+import edu.uap.tripla.tram.Profiler;
+import edu.uap.tripla.tram.Superinstructions;
+
+/**
+ * Simple benchmarks for the TRIPLA tool chain. Each benchmark runs
+ * a workload repeatedly after a warm-up and prints the average
+ * wall-clock time per run to System.out.
+ *
+ * Usage: Benchmark [name...], where name is one of the benchmarks
+ * listed in main(). Without arguments, all benchmarks are run.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class Benchmark {
+
+    /** Naive recursion, lots of calls and arithmetic. */
+    static final String fibonacci =
+            "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(24)";
+    /** Deep, non-tail recursion. */
+    static final String sum =
+            "let sum(n) { if (n == 0) then 0 else n + sum(n - 1) } in sum(20000)";
+
+    /** Naive recursion, big enough to be split among cores. */
+    static final String bigFibonacci =
+            "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(27)";
+
+    /** Lazy variables, each forced once per frame. */
+    static final String lazySum =
+            "let lsum(n) { let lazy a = n * 2 lazy b = a + 1 in "
+            + "if (n == 0) then 0 else a + b + lsum(n - 1) } in lsum(5000)";
+    /** A lazy variable read from a deeper nesting level. */
+    static final String lazyDepth =
+            "let outer(n) { if (n == 0) then 0 else middle(n) + outer(n - 1) } "
+            + "middle(n) { let lazy x = n * n in "
+            + "let inner(i) { if (i == 0) then 0 else x + inner(i - 1) } in inner(100) } "
+            + "in outer(500)";
+
+    /** A short script, as run many times per second. */
+    static final String square =
+            "let square(x) { x * x } in square(7)";
+
+    private static final int warmups = 10;
+    private static final int runs = 20;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            args = new String[] { "dispatch", "superinstructions", "jit", "registers", "profile", "pool", "memo", "lazy", "fork", "compile" };
+        }
+        for (String name: args) {
+            if (name.equals("dispatch")) {
+                dispatch();
+            }
+            else if (name.equals("superinstructions")) {
+                superinstructions();
+            }
+            else if (name.equals("jit")) {
+                jit();
+            }
+            else if (name.equals("registers")) {
+                registers();
+            }
+            else if (name.equals("profile")) {
+                profile();
+            }
+            else if (name.equals("pool")) {
+                pool();
+            }
+            else if (name.equals("memo")) {
+                memo();
+            }
+            else if (name.equals("lazy")) {
+                lazy();
+            }
+            else if (name.equals("fork")) {
+                fork();
+            }
+            else if (name.equals("compile")) {
+                compile();
+            }
+            else {
+                System.out.println(String.format("Unknown benchmark %s.", name));
+            }
+        }
+    }
+
+    /**
+     * Compares switch-based and threaded dispatch of the
+     * abstract machine, cf. @see AbstractMachine.Dispatch.
+     */
+    static void dispatch() {
+        for (String source: new String[] { fibonacci, sum }) {
+            Instruction[] program = compile(source);
+            for (AbstractMachine.Dispatch dispatch: AbstractMachine.Dispatch.values()) {
+                AbstractMachine am = new AbstractMachine();
+                am.setDispatch(dispatch);
+                report(String.format("dispatch %-8s %s", dispatch, name(source)),
+                       () -> {
+                           am.load(program);
+                           am.run();
+                       });
+            }
+        }
+    }
+
+    /**
+     * Compares programs with and without superinstructions,
+     * cf. @see Superinstructions.
+     */
+    static void superinstructions() {
+        for (String source: new String[] { fibonacci, sum }) {
+            Instruction[] plain = TriplaCompiler.compile(Tripla.parse(source, false));
+            Instruction[] fused = new Superinstructions().apply(plain);
+            for (Instruction[] program: new Instruction[][] { plain, fused }) {
+                AbstractMachine am = new AbstractMachine();
+                report(String.format("%-17s %s",
+                                     program == plain ? "plain" : "superinstructions",
+                                     name(source)),
+                       () -> {
+                           am.load(program);
+                           am.run();
+                       });
+            }
+        }
+    }
+
+    /**
+     * Compares the abstract machine with programs compiled
+     * to JVM bytecode, cf. @see JitCompiler.
+     */
+    static void jit() {
+        for (String source: new String[] { fibonacci, sum }) {
+            Instruction[] program = compile(source);
+            AbstractMachine am = new AbstractMachine();
+            report(String.format("interpreter %s", name(source)),
+                   () -> {
+                       am.load(program);
+                       am.run();
+                   });
+            JitProgram compiled = JitCompiler.compile(program);
+            report(String.format("jit         %s", name(source)),
+                   () -> compiled.run());
+        }
+    }
+
+    /**
+     * Compares the stack-based abstract machine with the register
+     * machine, cf. @see RegisterMachine, by time and by the number
+     * of instructions executed.
+     */
+    static void registers() {
+        for (String source: new String[] { fibonacci, sum }) {
+            Instruction[] program = compile(source);
+            AbstractMachine am = new AbstractMachine();
+            report(String.format("stack    %s", name(source)),
+                   () -> {
+                       am.load(program);
+                       am.run();
+                   });
+            System.out.println(String.format("%-40s %10d instructions",
+                    "stack    " + name(source), am.getExecutedInstructions()));
+            RegisterInstruction[] registerProgram =
+                    RegisterCompiler.compile(Tripla.parse(source, false));
+            RegisterMachine rm = new RegisterMachine();
+            rm.load(registerProgram);
+            report(String.format("register %s", name(source)),
+                   () -> rm.run());
+            System.out.println(String.format("%-40s %10d instructions",
+                    "register " + name(source), rm.getExecutedInstructions()));
+        }
+    }
+
+    /**
+     * Measures the overhead of profiling, cf. @see Profiler.
+     */
+    static void profile() {
+        for (String source: new String[] { fibonacci, sum }) {
+            Instruction[] program = compile(source);
+            AbstractMachine am = new AbstractMachine();
+            report(String.format("unprofiled %s", name(source)),
+                   () -> {
+                       am.load(program);
+                       am.run();
+                   });
+            AbstractMachine profiled = new AbstractMachine(program);
+            Profiler profiler = new Profiler(program);
+            profiled.setTraceListener(profiler);
+            report(String.format("profiled   %s", name(source)),
+                   () -> {
+                       profiled.load(program);
+                       profiled.run();
+                   });
+        }
+    }
+
+    /**
+     * Compares a new machine per run with machines from a
+     * @see MachinePool, by time and by the bytes allocated per run.
+     */
+    static void pool() {
+        Instruction[] program = compile(square);
+        Runnable fresh = () -> new AbstractMachine(program).run();
+        MachinePool pool = new MachinePool(1);
+        Runnable pooled = () -> pool.run(program);
+        report("new machine per run", fresh);
+        allocation("new machine per run", fresh);
+        report("machine pool", pooled);
+        allocation("machine pool", pooled);
+    }
+
+    /**
+     * Compares runs with and without memoizing pure functions,
+     * cf. @see MemoTable.
+     */
+    static void memo() {
+        for (String source: new String[] { fibonacci, sum }) {
+            Set<Integer> pure = new HashSet<Integer>();
+            Instruction[] program = TriplaCompiler.compile(
+                    Tripla.parse(source, false), null, pure);
+            AbstractMachine am = new AbstractMachine();
+            report(String.format("plain    %s", name(source)),
+                   () -> {
+                       am.load(program);
+                       am.run();
+                   });
+            AbstractMachine memoizing = new AbstractMachine();
+            MemoTable memo = new MemoTable(pure, 1 << 12);
+            memoizing.setMemoTable(memo);
+            report(String.format("memoized %s", name(source)),
+                   () -> {
+                       // an empty table per run, not a single lookup.
+                       memo.clear();
+                       memoizing.load(program);
+                       memoizing.run();
+                   });
+            System.out.println(String.format("%-40s %s", "memoized " + name(source), memo));
+        }
+    }
+
+    /**
+     * Measures programs reading lazy variables, by time and by the
+     * stack cells used: as compiled, i.e. forcing via FORCE; with
+     * LOAD instead, which forces lazy variables, too, the way
+     * they were read before FORCE; and, for reference, the same
+     * programs with eager variables instead.
+     */
+    static void lazy() {
+        for (String source: new String[] { lazySum, lazyDepth }) {
+            Instruction[] forced = compile(source);
+            Instruction[] loaded = compile(source);
+            for (Instruction instruction: loaded) {
+                if (instruction.getOpcode() == Instruction.FORCE) {
+                    instruction.setOpcode(Instruction.LOAD);
+                }
+            }
+            Instruction[] eager = compile(source.replace("lazy ", "var "));
+            String[] labels = { "FORCE", "LOAD", "eager" };
+            Instruction[][] programs = { forced, loaded, eager };
+            for (int i = 0; i < programs.length; i++) {
+                String label = String.format("%-5s %s", labels[i], name(source));
+                Instruction[] program = programs[i];
+                AbstractMachine am = new AbstractMachine();
+                report(label,
+                       () -> {
+                           am.load(program);
+                           am.run();
+                       });
+                System.out.println(String.format("%-40s %10d cells", label,
+                                                 am.getStackHighWater() + 1));
+            }
+        }
+    }
+
+    /**
+     * Compares running all calls on one machine with forking calls
+     * of pure functions into the common fork/join pool, for several
+     * thresholds, cf. @see AbstractMachine.setForkJoinPool(ForkJoinPool, int).
+     */
+    static void fork() {
+        Instruction[] program = compile(bigFibonacci);
+        AbstractMachine am = new AbstractMachine();
+        report(String.format("sequential     %s", name(bigFibonacci)),
+               () -> {
+                   am.load(program);
+                   am.run();
+               });
+        for (int threshold: new int[] { 1, 2, 4, 8 }) {
+            AbstractMachine forking = new AbstractMachine();
+            forking.setForkJoinPool(ForkJoinPool.commonPool(), threshold);
+            report(String.format("threshold %-4d %s", threshold, name(bigFibonacci)),
+                   () -> {
+                       forking.load(program);
+                       forking.run();
+                   });
+        }
+        System.out.println(String.format("%-40s %10d", "parallelism",
+                                         ForkJoinPool.commonPool().getParallelism()));
+    }
+
+    /**
+     * Measures compiling generated programs of 10^3 to 10^6
+     * instructions, cf. @see generate(int) and @see generateFlat(int).
+     * The time per instruction should not grow with the program.
+     */
+    static void compile() {
+        for (int size = 1000; size <= 1000000; size *= 10) {
+            for (boolean flat: new boolean[] { false, true }) {
+                AbstractSyntaxTree ast = Tripla.parse(
+                        flat ? generateFlat(size) : generate(size), false);
+                int instructions = TriplaCompiler.compile(ast).length;
+                String label = String.format("compile %-6s %-8d",
+                                             flat ? "flat" : "square", instructions);
+                double ms = report(label, () -> TriplaCompiler.compile(ast));
+                System.out.println(String.format("%-40s %10.1f ns/instruction",
+                                                 label, ms * 1e6 / instructions));
+            }
+        }
+    }
+
+    /**
+     * Generates a program as a machine would, with as many
+     * functions as statements per function body. Each statement
+     * is a conditional calling the function declared before.
+     *
+     * @param size The approximate number of instructions.
+     * @return The program's source code.
+     */
+    static String generate(int size) {
+        int n = (int) Math.sqrt(size / 13.0);
+        StringBuilder code = new StringBuilder("let f0(n) { n } ");
+        for (int i = 1; i <= n; i++) {
+            code.append(String.format("f%d(n) { ", i));
+            for (int j = 0; j < n; j++) {
+                code.append(String.format("if (n < %d) then f%d(n + %d) else n * %d; ",
+                                          j, i - 1, j + 1, j));
+            }
+            code.append("n } ");
+        }
+        return code.append(String.format("in f%d(0)", n)).toString();
+    }
+
+    /**
+     * Generates a program of many small functions, each one
+     * calling the one declared before.
+     *
+     * @param size The approximate number of instructions.
+     * @return The program's source code.
+     */
+    static String generateFlat(int size) {
+        int n = size / 5;
+        StringBuilder code = new StringBuilder("let f0(n) { n } ");
+        for (int i = 1; i <= n; i++) {
+            code.append(String.format("f%d(n) { f%d(n) + 1 } ", i, i - 1));
+        }
+        return code.append(String.format("in f%d(0)", n)).toString();
+    }
+
+    /**
+     * Runs a workload repeatedly and prints the average number of
+     * bytes the current thread allocated per run.
+     *
+     * @param label Describes the workload.
+     * @param workload The workload.
+     */
+    static void allocation(String label, Runnable workload) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int n = 10000;
+        for (int i = 0; i < n; i++) {
+            workload.run();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < n; i++) {
+            workload.run();
+        }
+        long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+        System.out.println(String.format("%-40s %10d bytes/run", label, bytes / n));
+    }
+
+    /**
+     * Runs a workload repeatedly and prints the average time per run.
+     *
+     * @param label Describes the workload.
+     * @param workload The workload.
+     * @return The average time per run in milliseconds.
+     */
+    static double report(String label, Runnable workload) {
+        for (int i = 0; i < warmups; i++) {
+            workload.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            workload.run();
+        }
+        double ms = (System.nanoTime() - start) / 1e6 / runs;
+        System.out.println(String.format("%-40s %10.3f ms/run", label, ms));
+        return ms;
+    }
+
+    static Instruction[] compile(String source) {
+        return Tripla.compile(Tripla.parse(source, false), false);
+    }
+
+    /** Short name of a workload for the report, i.e. its first function. */
+    static String name(String source) {
+        return source.substring(4, source.indexOf('('));
+    }
+}
@@ -0,0 +1,164 @@
+package edu.uap.tripla;
+
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.CompiledProgram;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Result;
+import edu.uap.tripla.tram.TraceListener;
+
+/**
+ * A thread-safe pool of abstract machines, so a steady stream of
+ * short runs reuses machines instead of creating one per run.
+ * A reused machine only clears the stack cells its previous run
+ * used, and running the same program again reuses its packed form,
+ * cf. @see AbstractMachine.load(Instruction[]).
+ *
+ * Machines are borrowed via @see acquire() and given back via
+ * @see release(AbstractMachine), or both at once via
+ * @see run(Instruction[]). Idle machines beyond the pool's
+ * capacity are dropped.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class MachinePool {
+
+    private final int initialStackSize;
+    private final int maximumStackSize;
+    /** The idle machines, a stack from 0 to size - 1. */
+    private final AbstractMachine[] idle;
+    private int size;
+
+    /**
+     * Creates a pool of machines with the default stack sizes.
+     *
+     * @param capacity Maximal number of idle machines kept.
+     */
+    public MachinePool(int capacity) {
+        this(capacity,
+             AbstractMachine.DEFAULT_INITIAL_STACK_SIZE,
+             AbstractMachine.DEFAULT_MAXIMUM_STACK_SIZE);
+    }
+
+    /**
+     * @param capacity Maximal number of idle machines kept.
+     * @param initialStackSize cf. @see AbstractMachine(int, int).
+     * @param maximumStackSize cf. @see AbstractMachine(int, int).
+     */
+    public MachinePool(int capacity, int initialStackSize, int maximumStackSize) {
+        if (capacity < 0) {
+            throw new Error(String.format("Illegal capacity %d.", capacity));
+        }
+        this.idle = new AbstractMachine[capacity];
+        this.initialStackSize = initialStackSize;
+        this.maximumStackSize = maximumStackSize;
+    }
+
+    /**
+     * Borrows an idle machine, or creates one if there is none.
+     *
+     * @return A machine with default settings.
+     */
+    public AbstractMachine acquire() {
+        synchronized (this) {
+            if (size > 0) {
+                AbstractMachine machine = idle[--size];
+                idle[size] = null;
+                return machine;
+            }
+        }
+        return new AbstractMachine(initialStackSize, maximumStackSize);
+    }
+
+    /**
+     * Gives a borrowed machine back. Its settings, e.g. its fuel,
+     * memo table or fork/join pool, are set back to the defaults.
+     * The caller must not use the machine afterwards.
+     *
+     * @param machine The machine.
+     */
+    public void release(AbstractMachine machine) {
+        machine.setTraceListener(TraceListener.NONE);
+        machine.setFuel(AbstractMachine.UNLIMITED);
+        machine.setDispatch(AbstractMachine.Dispatch.SWITCH);
+        machine.setMemoTable(null);
+        machine.setForkJoinPool(null, 0);
+        synchronized (this) {
+            if (size < idle.length) {
+                idle[size++] = machine;
+            }
+        }
+    }
+
+    /**
+     * Runs a program on a machine of the pool.
+     *
+     * @param program The program.
+     * @return The program's result, cf. @see AbstractMachine.run().
+     */
+    public int run(Instruction[] program) {
+        AbstractMachine machine = acquire();
+        try {
+            machine.load(program);
+            return machine.run();
+        } finally {
+            release(machine);
+        }
+    }
+
+    /**
+     * Runs a program on a machine of the pool.
+     *
+     * @param program The program.
+     * @return The result, cf. @see AbstractMachine.evaluate().
+     */
+    public Result evaluate(Instruction[] program) {
+        AbstractMachine machine = acquire();
+        try {
+            machine.load(program);
+            return machine.evaluate();
+        } finally {
+            release(machine);
+        }
+    }
+
+    /**
+     * Runs a program on a machine of the pool. Other threads may
+     * run the same program at the same time.
+     *
+     * @param program The program.
+     * @return The program's result, cf. @see AbstractMachine.run().
+     */
+    public int run(CompiledProgram program) {
+        AbstractMachine machine = acquire();
+        try {
+            machine.load(program);
+            return machine.run();
+        } finally {
+            release(machine);
+        }
+    }
+
+    /**
+     * Runs a program on a machine of the pool. Other threads may
+     * run the same program at the same time.
+     *
+     * @param program The program.
+     * @return The result, cf. @see AbstractMachine.evaluate().
+     */
+    public Result evaluate(CompiledProgram program) {
+        AbstractMachine machine = acquire();
+        try {
+            machine.load(program);
+            return machine.evaluate();
+        } finally {
+            release(machine);
+        }
+    }
+
+    /**
+     * @return The number of idle machines.
+     */
+    public synchronized int getIdleMachines() {
+        return size;
+    }
+}
@@ -1,10 +1,28 @@
 package edu.uap.tripla;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.uap.tripla.compiler.RegisterCompiler;
 import edu.uap.tripla.compiler.TriplaCompiler;
+import edu.uap.tripla.jit.JitCompiler;
 import edu.uap.tripla.parser.AbstractSyntaxTree;
 import edu.uap.tripla.parser.TriplaParser;
+import edu.uap.tripla.regvm.RegisterMachine;
 import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.CompiledProgram;
 import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.PrintTracer;
+import edu.uap.tripla.tram.Profiler;
+import edu.uap.tripla.tram.Result;
+import edu.uap.tripla.tram.Superinstructions;
 
 
 /**
@@ -15,6 +33,10 @@ import edu.uap.tripla.tram.Instruction;
  */
 public class Tripla {
 
+    /** The machines running the programs. */
+    private static final MachinePool machines =
+            new MachinePool(Runtime.getRuntime().availableProcessors());
+
     /**
      * Runs a piece of TRIPLA-code. Debug mode turned off.
      * 
@@ -40,6 +62,112 @@ public class Tripla {
         return run(program, debug);
     }
 
+    /**
+     * Compiles a piece of TRIPLA-code once into a program which
+     * any number of threads may run at the same time.
+     * 
+     * @param sourcecode TRIPLA-code.
+     * @return The compiled program.
+     */
+    static CompiledProgram prepare(String sourcecode) {
+        return new CompiledProgram(compile(parse(sourcecode, false), false));
+    }
+    
+    /**
+     * Runs the given programs on a number of threads, each run on
+     * a machine of its own, and collects their results.
+     * 
+     * @param programs The programs; may contain a program many times.
+     * @param threads The number of threads.
+     * @return The results, in the order of the programs.
+     */
+    static List<Result> runConcurrently(List<CompiledProgram> programs, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>(programs.size());
+            for (CompiledProgram program: programs) {
+                futures.add(executor.submit(() -> machines.evaluate(program)));
+            }
+            List<Result> results = new ArrayList<Result>(programs.size());
+            for (Future<Result> future: futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw new Error("Error while running a program.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Error("Interrupted while running programs.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a piece of TRIPLA-code, running calls of pure functions
+     * at once in the common fork/join pool, cf.
+     * @see AbstractMachine.setForkJoinPool(ForkJoinPool, int).
+     * 
+     * @param sourcecode TRIPLA-code.
+     * @param threshold The depth up to which calls are forked.
+     * @return The result of the run code.
+     */
+    static int runParallel(String sourcecode, int threshold) {
+        Instruction[] program = compile(parse(sourcecode, false), false);
+        AbstractMachine am = machines.acquire();
+        try {
+            am.load(program);
+            am.setForkJoinPool(ForkJoinPool.commonPool(), threshold);
+            return am.run();
+        } finally {
+            machines.release(am);
+        }
+    }
+
+    /**
+     * Runs a piece of TRIPLA-code compiled to JVM bytecode,
+     * cf. @see JitCompiler.
+     * 
+     * @param sourcecode TRIPLA-code.
+     * @return The result of the run code.
+     */
+    static int runJit(String sourcecode) {
+        AbstractSyntaxTree ast = parse(sourcecode, false);
+        Instruction[] program = compile(ast, false);
+        return JitCompiler.compile(program).run();
+    }
+
+    /**
+     * Runs a piece of TRIPLA-code on the register machine,
+     * cf. @see RegisterMachine.
+     * 
+     * @param sourcecode TRIPLA-code.
+     * @return The result of the run code.
+     */
+    static int runRegister(String sourcecode) {
+        AbstractSyntaxTree ast = parse(sourcecode, false);
+        return new RegisterMachine(RegisterCompiler.compile(ast)).run();
+    }
+
+    /**
+     * Runs a piece of TRIPLA-code with a @see Profiler and returns
+     * its report, i.e. where the code spends its instructions.
+     * 
+     * @param sourcecode TRIPLA-code.
+     * @return The profiler's report.
+     */
+    static String profile(String sourcecode) {
+        AbstractSyntaxTree ast = parse(sourcecode, false);
+        Map<Integer, String> names = new HashMap<Integer, String>();
+        Instruction[] program =
+                new Superinstructions().apply(TriplaCompiler.compile(ast, names));
+        AbstractMachine am = new AbstractMachine(program);
+        Profiler profiler = new Profiler(am);
+        am.setTraceListener(profiler);
+        am.run();
+        return profiler.report(names);
+    }
+
     /**
      * Returns the abstract syntax tree for a given piece of TRIPLA-code.
      * 
@@ -65,14 +193,15 @@ public class Tripla {
     }
     
     /**
-     * Returns the machine instructions for a given abstract syntax tree.
+     * Returns the machine instructions for a given abstract syntax tree,
+     * with common instruction sequences fused into superinstructions.
      * 
      * @param ast The abstract syntax tree.
      * @param debug If true, the instructions are printed.
      * @return The machine instructions.
      */
     static Instruction[] compile(AbstractSyntaxTree ast, boolean debug) {
-        Instruction[] program = TriplaCompiler.compile(ast);
+        Instruction[] program = new Superinstructions().apply(TriplaCompiler.compile(ast));
         if (debug) {
             print(program);
         }
@@ -80,16 +209,25 @@ public class Tripla {
     }
     
     /**
-     * Runs the given machine instructions on the abstract machine TRAM.
+     * Runs the given machine instructions on the abstract machine TRAM,
+     * reusing machines across calls.
      * 
      * @param program The machine instructions.
      * @param debug If true, the abstract machine is run in debug mode.
      * @return The result.
      */
     static int run(Instruction[] program, boolean debug) {
-        AbstractMachine am = new AbstractMachine(program);
-        am.debug = debug;
-        return am.run();
+        if (!debug) {
+            return machines.run(program);
+        }
+        AbstractMachine am = machines.acquire();
+        try {
+            am.load(program);
+            am.setTraceListener(new PrintTracer(System.out));
+            return am.run();
+        } finally {
+            machines.release(am);
+        }
     }
     
     
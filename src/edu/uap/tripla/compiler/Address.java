@@ -13,6 +13,9 @@ class Address {
     public int location;
     /** The nesting level within the whole program. */
     public int nestingLevel;
+    /** Whether the identifier is a lazy variable, which is
+     *  loaded via FORCE. */
+    public boolean lazy;
     
     public Address(int location, int nestingLevel) {
         this.location = location;
@@ -1,7 +1,5 @@
 package edu.uap.tripla.compiler;
 
-import java.util.Hashtable;
-import java.util.Map;
 
 import edu.uap.tripla.parser.*;
 import edu.uap.tripla.tram.BuiltInFunction;
@@ -10,14 +8,29 @@ import edu.uap.tripla.tram.BuiltInFunction;
  * Provides the generation of address environments
  * and lookup of addresses within those.
  * 
+ * Environments form a chain of scopes: each one holds only the
+ * addresses declared in its own scope and refers to the enclosing
+ * environment for all others. Thus, entering a scope costs as much
+ * as its declarations, and a lookup at most one step per scope.
+ * Names are looked up by their symbols, cf. @see Symbols, in a
+ * hash table of primitive keys per scope.
+ * 
  * @author Richard Kiefer, s4rikief@uni-trier.de
  */
 class AddressEnvironment {
 
     /** The current level of nesting. */
     int nestingLevel = 0;
-    /** Association between functions or identifiers and their addresses. */
-    Map<String, Address> addresses = new Hashtable<String, Address>();
+    /** Symbols of functions or identifiers declared in this
+     *  scope, + 1, or 0 for empty entries. */
+    private int[] keys = new int[8];
+    /** The addresses, in the same entries as their keys. */
+    private Address[] addresses = new Address[8];
+    private int size;
+    /** The enclosing scope's environment, or null. */
+    final AddressEnvironment parent;
+    /** The symbols of the names, shared by all scopes. */
+    final Symbols symbols;
     /** Keeps track of the next free location within the stack frame for parameters. */
     int nextFreeLocation = 0;
     LabelProvider labelProvider;
@@ -37,36 +50,104 @@ class AddressEnvironment {
      */
     AddressEnvironment(LabelProvider lp) {
         labelProvider = lp;
+        parent = null;
+        symbols = new Symbols();
         
         // add definitions of built-in functions
         for (BuiltInFunction f: BuiltInFunction.getFunctionDefinitions()) {
-            addresses.put(String.format("%s/%d",
-                                        f.getName(),
-                                        f.getParameters()
-                                       ),
-                          new Address(f.getLabel(), 0));
+            put(symbols.signature(f.getName(), f.getParameters()),
+                new Address(f.getLabel(), 0));
         }
     }
 
     
     /**
-     * Creates a new address environment by copying
-     * the given one.
+     * Creates a new address environment within
+     * the given one, which is left unchanged.
      * 
      * Used for each new scope (i.e. when
      * entering a new let-in node or when entering a
      * function block). Addresses in the stack frame
      * are assigned starting from zero again.
      *  
-     * @param ae The address environment to copy from.
+     * @param ae The enclosing address environment.
      */
     AddressEnvironment(AddressEnvironment ae) {
         // nextFreeLocation gets reset to zero on purpose
         this.labelProvider = ae.labelProvider;
-        this.addresses.putAll(ae.addresses);
+        this.parent = ae;
+        this.symbols = ae.symbols;
         this.nestingLevel = ae.nestingLevel; 
     }
 
+    /**
+     * Looks an address up in this scope and the enclosing ones,
+     * innermost first.
+     * 
+     * @param symbol A function's signature or an identifier's name.
+     * @return The address, or null if there is none.
+     */
+    private Address lookup(int symbol) {
+        for (AddressEnvironment ae = this; ae != null; ae = ae.parent) {
+            Address a = ae.find(symbol);
+            if (a != null) {
+                return a;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param symbol A symbol.
+     * @return The address declared in this scope, or null.
+     */
+    private Address find(int symbol) {
+        int mask = keys.length - 1;
+        for (int i = hash(symbol) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == symbol + 1) {
+                return addresses[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Declares an address in this scope, replacing the one
+     * declared with the same symbol before, if any.
+     * 
+     * @param symbol A symbol.
+     * @param a The address.
+     */
+    private void put(int symbol, Address a) {
+        if (2 * (size + 1) > keys.length) {
+            int[] oldKeys = keys;
+            Address[] oldAddresses = addresses;
+            keys = new int[2 * oldKeys.length];
+            addresses = new Address[2 * oldKeys.length];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i] - 1, oldAddresses[i]);
+                }
+            }
+        }
+        int mask = keys.length - 1;
+        int i = hash(symbol) & mask;
+        while (keys[i] != 0 && keys[i] != symbol + 1) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == 0) {
+            keys[i] = symbol + 1;
+            size++;
+        }
+        addresses[i] = a;
+    }
+
+    private static int hash(int symbol) {
+        int hash = symbol * 0x9E3779B1;
+        return hash ^ (hash >>> 16);
+    }
+
     /**
      * Increases the nesting level.
      */
@@ -88,26 +169,33 @@ class AddressEnvironment {
      * @return The function's address.
      */
     public Address get(FunctionDeclaration fd) {
-        return addresses.get(fd.getSignature());
+        return lookup(symbols.signature(fd.getName(), fd.getParameters().length));
     }
     
     /**
      * Returns a function's address from the environment
      * for a given function call.
      * Throws an error if no address was assigned, i.e. the
-     * function has not been declared.
+     * function has not been declared, or a built-in function
+     * is called with the wrong number of parameters.
      * 
      * @param id The function call.
      * @return The function's address.
      */
     public Address get(FunctionCall fc) {
-        Address a = addresses.get(fc.getSignature());
+        Address a = lookup(symbols.signature(fc.getName(), fc.getArguments().length));
         if (a != null) {
             return a;
         }
-        else {
-            throw new Error(String.format("Function %s has not been declared.", fc.getSignature()));
+        // calls of built-in functions are checked here once, so the
+        // abstract machine passes their parameters unchecked.
+        BuiltInFunction f = BuiltInFunction.get(fc.getName());
+        if (f != null) {
+            throw new Error(String.format(
+                    "Built-in function %s/%d called as %s.",
+                    f.getName(), f.getParameters(), fc.getSignature()));
         }
+        throw new Error(String.format("Function %s has not been declared.", fc.getSignature()));
     }
     
     /**
@@ -120,7 +208,7 @@ class AddressEnvironment {
      * @return The parameter's address.
      */
     public Address get(Identifier id) {
-        Address a = addresses.get(id.getName());
+        Address a = lookup(symbols.name(id.getName()));
         if (a != null) {
             return a;
         }
@@ -139,7 +227,7 @@ class AddressEnvironment {
     private void put(FunctionDeclaration fd) {
         int label = labelProvider.getNewLabel();
         Address a = new Address(label, nestingLevel);
-        addresses.put(fd.getSignature(), a);
+        put(symbols.signature(fd.getName(), fd.getParameters().length), a);
     }
     
     /**
@@ -149,8 +237,20 @@ class AddressEnvironment {
      * @param id The identifier.
      */
     private void put(Identifier id) {
+        put(id, false);
+    }
+    
+    /**
+     * Assigns a new address to a parameter and adds
+     * it to the environment.
+     * 
+     * @param id The identifier.
+     * @param lazy Whether the parameter is a lazy variable.
+     */
+    private void put(Identifier id, boolean lazy) {
         Address a = new Address(nextFreeLocation++, nestingLevel);
-        addresses.put(id.getName(), a);
+        a.lazy = lazy;
+        put(symbols.name(id.getName()), a);
     }
     
 
@@ -168,7 +268,7 @@ class AddressEnvironment {
                 put(((VariableDeclaration)d).getVariable());
             }
             else if (d instanceof LazyVariableDeclaration) {
-                put(((LazyVariableDeclaration)d).getVariable());
+                put(((LazyVariableDeclaration)d).getVariable(), true);
             }
             else {
                 throw new Error("Illegal element encountered in declaration.");
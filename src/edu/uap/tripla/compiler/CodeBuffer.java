@@ -0,0 +1,140 @@
+package edu.uap.tripla.compiler;
+
+import java.util.Arrays;
+
+import edu.uap.tripla.tram.BuiltInFunction;
+import edu.uap.tripla.tram.Instruction;
+
+/**
+ * An append-only buffer the compiler emits all machine instructions
+ * into, in the order of the final program. Thus, no instruction is
+ * ever copied from one list into another.
+ *
+ * Operands referring to labels, cf. @see LabelProvider, are recorded
+ * as slots when emitted, and patched once all labels are placed, cf.
+ * @see toProgram(LabelProvider). Until then, instructions may still
+ * be dropped, e.g. when it turns out they are not needed.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+class CodeBuffer {
+
+    /** The instructions; dropped ones are null. */
+    private Instruction[] code = new Instruction[64];
+    private int size;
+    /** Positions of the instructions having a label as operand. */
+    private int[] slots = new int[16];
+    private int slotCount;
+    /** Per position in the buffer, the position in the program,
+     *  cf. @see toProgram(LabelProvider). */
+    private int[] positions;
+
+    /**
+     * @return The position the next instruction is emitted at.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param pc A position in the buffer.
+     * @return The instruction emitted at that position.
+     */
+    Instruction get(int pc) {
+        return code[pc];
+    }
+
+    /**
+     * Appends an instruction. Jumps, calls and LAZY are expected
+     * to refer to labels, which are patched later.
+     *
+     * @param instruction The instruction.
+     * @return Its position in the buffer.
+     */
+    int emit(Instruction instruction) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, 2 * code.length);
+        }
+        if (operand(instruction) > 0) {
+            if (slotCount == slots.length) {
+                slots = Arrays.copyOf(slots, 2 * slots.length);
+            }
+            slots[slotCount++] = size;
+        }
+        code[size] = instruction;
+        return size++;
+    }
+
+    /**
+     * Removes an instruction from the program. No label
+     * may be placed at it.
+     *
+     * @param pc The instruction's position in the buffer.
+     */
+    void drop(int pc) {
+        code[pc] = null;
+    }
+
+    /**
+     * @return The number of the instruction's operand holding a
+     *         label, or 0 if there is none. Built-in functions'
+     *         labels are no positions, so they are kept as they are.
+     */
+    private static int operand(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+        case Instruction.IFZERO:
+        case Instruction.GOTO:
+            return 1;
+        case Instruction.INVOKE:
+        case Instruction.TAILINVOKE:
+        case Instruction.FORK:
+            return BuiltInFunction.isBuiltIn(instruction.getArg2()) ? 0 : 2;
+        case Instruction.LAZY:
+            return 2;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Removes the dropped instructions and replaces all labels
+     * by the positions they were placed at.
+     *
+     * @param labels The labels used by the instructions.
+     * @return The program.
+     */
+    Instruction[] toProgram(LabelProvider labels) {
+        positions = new int[size + 1];
+        Instruction[] program = new Instruction[size];
+        int n = 0;
+        for (int pc = 0; pc < size; pc++) {
+            positions[pc] = n;
+            if (code[pc] != null) {
+                program[n++] = code[pc];
+            }
+        }
+        positions[size] = n;
+        for (int i = 0; i < slotCount; i++) {
+            Instruction instruction = code[slots[i]];
+            if (instruction == null) {
+                continue;
+            }
+            if (operand(instruction) == 1) {
+                instruction.setArg1(positions[labels.getPosition(instruction.getArg1())]);
+            }
+            else {
+                instruction.setArg2(positions[labels.getPosition(instruction.getArg2())]);
+            }
+        }
+        return n == size ? program : Arrays.copyOf(program, n);
+    }
+
+    /**
+     * @param pc A position in the buffer.
+     * @return The position in the program returned by
+     *         @see toProgram(LabelProvider).
+     */
+    int position(int pc) {
+        return positions[pc];
+    }
+}
@@ -1,20 +1,19 @@
 package edu.uap.tripla.compiler;
 
-import java.util.Hashtable;
-import java.util.List;
+import java.util.Arrays;
 
 import edu.uap.tripla.tram.BuiltInFunction;
-import edu.uap.tripla.tram.Instruction;
 
 /**
  * Provides functionality for labeling machine instructions.
  * 
  * A label can be requested and used as a location in a jump-instructions.
- * During the request or later, the label can be associated with any
- * machine instruction.
+ * During the request or later, the label is placed at a position in
+ * the @see CodeBuffer, i.e. at the instruction emitted next.
  * After finishing the generation of all machine instructions, the labels
  * can be resolved. That is, for each jump-instruction the label is replaced
- * by the final location of the label's associated machine instruction.
+ * by the final location of the label's position, cf.
+ * @see CodeBuffer.toProgram(LabelProvider).
  * 
  * Since labels are simple integers, using labels from more than
  * one LabelProvider causes mistakes. Firstly, the same label might be handed
@@ -28,11 +27,14 @@ import edu.uap.tripla.tram.Instruction;
  */
 class LabelProvider {
     
-    /** The next label to be given. */
+    /** The first label to be given. */
     // Consider labels of built-in functions; skip those!
-    int label = BuiltInFunction.getNextFreeLabel();
-    /** Association between labels and machine instructions. */
-    Hashtable<Integer, Instruction> associatedInstructions = new Hashtable<Integer,Instruction>();
+    private final int first = BuiltInFunction.getNextFreeLabel();
+    /** The next label to be given. */
+    int label = first;
+    /** Position of each label in the code buffer, by first - label;
+     *  -1 if not yet placed. */
+    private int[] positions = new int[64];
 
     /**
      * Request a new label.
@@ -40,62 +42,36 @@ class LabelProvider {
      * @return The new label. 
      */
     int getNewLabel() {
+        int index = first - label;
+        if (index == positions.length) {
+            positions = Arrays.copyOf(positions, 2 * positions.length);
+        }
+        positions[index] = -1;
         // negative labels are easier to distinguish from
         // proper (resolved) locations which are always positive.
         return label--;
     }
     
     /**
-     * Associates a label with a machine instruction.
+     * Places a label at a position in the code buffer.
      * 
      * @param label The label.
-     * @param instruction The machine instruction.
+     * @param pc The position.
      */
-    void registerInstruction(int label, Instruction instruction) {
-        associatedInstructions.put(label, instruction);
+    void place(int label, int pc) {
+        positions[first - label] = pc;
     }
     
     /**
-     * Requests a new label and associates it with a machine instruction.
-     *  
-     * @param instruction The machine instruction.
-     * @return The new and already associated label.
-     */
-    int getNewLabel(Instruction instruction) {
-        int label = getNewLabel();
-        registerInstruction(label, instruction);
-        return label;
-    }
-    
-    
-    /**
-     * Takes a program of machine instructions with labels and
-     * resolves those labels to proper locations.
-     * 
-     * @param program Machine instructions containing labels.
+     * @param label A label.
+     * @return The position the label was placed at.
      */
-    void resolveLabels(List<Instruction> program) {
-        // iterate over the whole program
-        for (Instruction i: program) {
-            int opcode = i.getOpcode();
-            // look for jump-instructions,
-            // and replace the label of those with the location of
-            // the associated machine instruction.
-            if (opcode == Instruction.IFZERO
-             || opcode == Instruction.GOTO) {
-                int label = i.getArg1();
-                Instruction ri = associatedInstructions.get(label);
-                int absolutePosition = program.indexOf(ri);
-                i.setArg1(absolutePosition);
-            }
-            else if (opcode == Instruction.INVOKE
-                  || opcode == Instruction.LAZY) {
-                int label = i.getArg2();
-                Instruction ri = associatedInstructions.get(label);
-                int absolutePosition = program.indexOf(ri);
-                i.setArg2(absolutePosition);
-            }
+    int getPosition(int label) {
+        int index = first - label;
+        if (index < 0 || index >= first - this.label || positions[index] < 0) {
+            throw new Error(String.format("Label %d was never placed.", label));
         }
+        return positions[index];
     }
     
 }
@@ -0,0 +1,121 @@
+package edu.uap.tripla.compiler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import edu.uap.tripla.tram.BuiltInFunction;
+
+/**
+ * Finds the pure functions of a program while it is compiled, i.e.
+ * the functions whose result depends on their arguments only, so
+ * calls of them may be memoized, cf. @see edu.uap.tripla.tram.MemoTable.
+ *
+ * A function is pure unless its body, including the functions and
+ * variables declared within, calls a built-in function, e.g. print,
+ * accesses a variable declared outside of it, or calls a function
+ * declared outside of it which is not pure. Reading a non-local
+ * variable is impure, too, as it may be assigned or differ between
+ * activations of the enclosing function.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+class Purity {
+
+    /** What is known about one function. */
+    private static class Function {
+        /** The nesting level of the function's frame. */
+        final int level;
+        boolean impure;
+        /** Labels of the functions declared outside which it calls. */
+        final Set<Integer> callees = new HashSet<Integer>();
+
+        Function(int level) {
+            this.level = level;
+        }
+    }
+
+    /** All functions by label. */
+    private final Map<Integer, Function> functions = new LinkedHashMap<Integer, Function>();
+    /** The functions whose body is being compiled, innermost first. */
+    private final Deque<Function> open = new ArrayDeque<Function>();
+
+    /**
+     * Starts compiling a function's body.
+     *
+     * @param label The function's label.
+     * @param level The nesting level of the function's frame.
+     */
+    void enter(int label, int level) {
+        Function function = new Function(level);
+        functions.put(label, function);
+        open.push(function);
+    }
+
+    /**
+     * Finishes compiling the innermost function's body.
+     */
+    void leave() {
+        open.pop();
+    }
+
+    /**
+     * Notes an access of a variable or parameter.
+     *
+     * @param level The nesting level the variable is declared at.
+     */
+    void access(int level) {
+        for (Function function: open) {
+            if (level < function.level) {
+                function.impure = true;
+            }
+        }
+    }
+
+    /**
+     * Notes a function call.
+     *
+     * @param label The callee's label.
+     * @param level The nesting level the callee is declared at.
+     */
+    void call(int label, int level) {
+        boolean builtIn = BuiltInFunction.isBuiltIn(label);
+        for (Function function: open) {
+            if (builtIn) {
+                function.impure = true;
+            }
+            else if (level < function.level) {
+                function.callees.add(label);
+            }
+        }
+    }
+
+    /**
+     * @return The labels of all pure functions.
+     */
+    Set<Integer> getPureFunctions() {
+        // assume all functions to be pure, then drop those
+        // calling impure ones until nothing changes.
+        Set<Integer> pure = new HashSet<Integer>();
+        for (Map.Entry<Integer, Function> entry: functions.entrySet()) {
+            if (!entry.getValue().impure) {
+                pure.add(entry.getKey());
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Integer, Function> entry: functions.entrySet()) {
+                if (pure.contains(entry.getKey())
+                        && !pure.containsAll(entry.getValue().callees)) {
+                    pure.remove(entry.getKey());
+                    changed = true;
+                }
+            }
+        }
+        return pure;
+    }
+}
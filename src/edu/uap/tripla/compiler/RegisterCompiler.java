@@ -0,0 +1,550 @@
+package edu.uap.tripla.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.uap.tripla.parser.*;
+import edu.uap.tripla.regvm.RegisterInstruction;
+import edu.uap.tripla.tram.BuiltInFunction;
+
+/**
+ * Compiler for the Trier Programming Language (TRIPLA) targeting
+ * the register machine, cf. @see edu.uap.tripla.regvm.RegisterMachine.
+ *
+ * In contrast to @see TriplaCompiler, a let-in node does not
+ * create a frame of its own: its variables are registers in the
+ * frame of the enclosing function. Expressions are evaluated into
+ * registers; local variables are used as operands in place.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class RegisterCompiler {
+
+    /** What a name in the environment refers to. */
+    private static class Binding {
+        static final int VARIABLE = 0;
+        static final int LAZY = 1;
+        static final int FUNCTION = 2;
+        static final int BUILTIN = 3;
+
+        final int kind;
+        /** Nesting level of the frame holding the variable, or
+         *  declaring the function. */
+        final int level;
+        /** A variable's register, or a function's label. */
+        final int location;
+
+        Binding(int kind, int level, int location) {
+            this.kind = kind;
+            this.level = level;
+            this.location = location;
+        }
+    }
+
+    /** A function or lazy variable whose code is yet to be generated. */
+    private static class Pending {
+        final AbstractSyntaxTree node;
+        final Map<String, Binding> environment;
+        /** Nesting level of the declaring frame. */
+        final int level;
+        final int label;
+        /** The lazy variable's register. */
+        final int register;
+
+        Pending(AbstractSyntaxTree node, Map<String, Binding> environment,
+                int level, int label, int register) {
+            this.node = node;
+            this.environment = environment;
+            this.level = level;
+            this.label = label;
+            this.register = register;
+        }
+    }
+
+    private final List<RegisterInstruction> code = new ArrayList<RegisterInstruction>();
+    /** Address of each label, or -1 if not yet placed. */
+    private final List<Integer> labels = new ArrayList<Integer>();
+    private final Deque<Pending> pending = new ArrayDeque<Pending>();
+
+    // the state of the function currently compiled.
+    private Map<String, Binding> environment;
+    /** Nesting level of the current frame. */
+    private int level;
+    /** The next free register. */
+    private int next;
+    /** The number of registers used so far. */
+    private int size;
+
+    private RegisterCompiler() {
+    }
+
+    /**
+     * Takes an abstract syntax tree and returns the
+     * corresponding register machine instructions.
+     *
+     * @param ast The abstract syntax tree.
+     * @return The program.
+     */
+    public static RegisterInstruction[] compile(AbstractSyntaxTree ast) {
+        RegisterCompiler compiler = new RegisterCompiler();
+        compiler.environment = new HashMap<String, Binding>();
+        for (BuiltInFunction f: BuiltInFunction.getFunctionDefinitions()) {
+            compiler.environment.put(
+                    String.format("%s/%d", f.getName(), f.getParameters()),
+                    new Binding(Binding.BUILTIN, 0, f.getLabel()));
+        }
+        compiler.main(ast);
+        while (!compiler.pending.isEmpty()) {
+            compiler.function(compiler.pending.poll());
+        }
+        return compiler.resolveLabels();
+    }
+
+    private void main(AbstractSyntaxTree ast) {
+        RegisterInstruction enter = emit(RegisterInstruction.ENTER, 0);
+        int result = allocate();
+        into(ast, result);
+        emit(RegisterInstruction.HALT, result);
+        enter.setA(size);
+    }
+
+    /**
+     * Generates the code of a function or lazy variable.
+     */
+    private void function(Pending p) {
+        place(p.label);
+        environment = new HashMap<String, Binding>(p.environment);
+        level = p.level + 1;
+        next = 0;
+        size = 0;
+        RegisterInstruction enter = emit(RegisterInstruction.ENTER, 0);
+        if (p.node instanceof FunctionDeclaration) {
+            FunctionDeclaration fd = (FunctionDeclaration) p.node;
+            for (Identifier parameter: fd.getParameters()) {
+                environment.put(parameter.getName(),
+                                new Binding(Binding.VARIABLE, level, allocate()));
+            }
+            int result = allocate();
+            into(fd.getBody(), result, true);
+            emit(RegisterInstruction.RET, result);
+        }
+        else {
+            // a lazy variable: evaluate, store into the
+            // declaring frame and return.
+            int result = allocate();
+            into(p.node, result);
+            emit(RegisterInstruction.SETUP, result, p.register, 1);
+            emit(RegisterInstruction.RET, result);
+        }
+        enter.setA(size);
+    }
+
+    /**
+     * Generates code evaluating an expression into a register.
+     *
+     * @param ast The expression.
+     * @param dest The register.
+     */
+    private void into(AbstractSyntaxTree ast, int dest) {
+        into(ast, dest, false);
+    }
+
+    /**
+     * Like @see into(AbstractSyntaxTree, int), where tail tells
+     * whether the expression is in tail position, i.e. its value
+     * is returned right away by the current function. Calls in
+     * tail position become TAILCALLs.
+     */
+    private void into(AbstractSyntaxTree ast, int dest, boolean tail) {
+        if (ast instanceof StatementSequence) {
+            AbstractSyntaxTree[] statements = ((StatementSequence) ast).getStatements();
+            for (int i = 0; i < statements.length; i++) {
+                into(statements[i], dest, tail && i == statements.length - 1);
+            }
+        }
+        else if (ast instanceof Constant) {
+            emit(RegisterInstruction.LOADK, dest, ((Constant) ast).getValue());
+        }
+        else if (ast instanceof Operation) {
+            into((Operation) ast, dest);
+        }
+        else if (ast instanceof Conditional) {
+            into((Conditional) ast, dest, tail);
+        }
+        else if (ast instanceof Program) {
+            into((Program) ast, dest, tail);
+        }
+        else if (ast instanceof FunctionCall) {
+            into((FunctionCall) ast, dest, tail);
+        }
+        else if (ast instanceof Identifier) {
+            into((Identifier) ast, dest);
+        }
+        else if (ast instanceof Assignment) {
+            into((Assignment) ast, dest);
+        }
+        else {
+            throw new Error("Wopa. Unrecognized AbstractSyntaxTree-element.");
+        }
+    }
+
+    /** @see into(AbstractSyntaxTree, int) */
+    private void into(Operation o, int dest) {
+        String op = o.getOperator();
+        int saved = next;
+        if ((op.equals("+") || op.equals("-"))
+                && o.getOperandRight() instanceof Constant) {
+            int left = operand(o.getOperandLeft(), true);
+            int k = ((Constant) o.getOperandRight()).getValue();
+            emit(op.equals("+") ? RegisterInstruction.ADDK : RegisterInstruction.SUBK,
+                 dest, left, k);
+            next = saved;
+            return;
+        }
+        int left = operand(o.getOperandLeft(), isPure(o.getOperandRight()));
+        int right = operand(o.getOperandRight(), true);
+        emit(opcode(op), dest, left, right);
+        next = saved;
+    }
+
+    private static int opcode(String op) {
+        if (op.equals("+")) {
+            return RegisterInstruction.ADD;
+        }
+        else if (op.equals("-")) {
+            return RegisterInstruction.SUB;
+        }
+        else if (op.equals("*")) {
+            return RegisterInstruction.MUL;
+        }
+        else if (op.equals("/")) {
+            return RegisterInstruction.DIV;
+        }
+        else if (op.equals("==")) {
+            return RegisterInstruction.EQ;
+        }
+        else if (op.equals("!=")) {
+            return RegisterInstruction.NEQ;
+        }
+        else if (op.equals("<")) {
+            return RegisterInstruction.LT;
+        }
+        else if (op.equals(">")) {
+            return RegisterInstruction.GT;
+        }
+        else {
+            throw new Error("Unrecognized operator.");
+        }
+    }
+
+    /** @see into(AbstractSyntaxTree, int) */
+    private void into(Conditional c, int dest, boolean tail) {
+        int labelAlternative = newLabel();
+        int labelEnd = newLabel();
+        branchUnless(c.getCondition(), labelAlternative);
+        into(c.getConsequent(), dest, tail);
+        emit(RegisterInstruction.JUMP, labelEnd);
+        place(labelAlternative);
+        into(c.getAlternative(), dest, tail);
+        place(labelEnd);
+    }
+
+    /**
+     * Generates code jumping to a label if the condition is zero.
+     * Comparisons are fused with the jump.
+     */
+    private void branchUnless(AbstractSyntaxTree condition, int label) {
+        int saved = next;
+        if (condition instanceof Operation) {
+            Operation o = (Operation) condition;
+            int opcode = -1;
+            String op = o.getOperator();
+            if (op.equals("<")) {
+                opcode = RegisterInstruction.JUMPGE;
+            }
+            else if (op.equals(">")) {
+                opcode = RegisterInstruction.JUMPLE;
+            }
+            else if (op.equals("==")) {
+                opcode = RegisterInstruction.JUMPNE;
+            }
+            else if (op.equals("!=")) {
+                opcode = RegisterInstruction.JUMPEQ;
+            }
+            if (opcode >= 0) {
+                int left = operand(o.getOperandLeft(), isPure(o.getOperandRight()));
+                int right = operand(o.getOperandRight(), true);
+                emit(opcode, left, right, label);
+                next = saved;
+                return;
+            }
+        }
+        emit(RegisterInstruction.JUMPZ, operand(condition, true), label);
+        next = saved;
+    }
+
+    /** @see into(AbstractSyntaxTree, int) */
+    private void into(Program p, int dest, boolean tail) {
+        Map<String, Binding> outer = environment;
+        int saved = next;
+        environment = new HashMap<String, Binding>(outer);
+        Map<AbstractSyntaxTree, Binding> functions = new IdentityHashMap<AbstractSyntaxTree, Binding>();
+        Set<String> lazyNames = new HashSet<String>();
+        for (AbstractSyntaxTree d: p.getDeclarations()) {
+            if (d instanceof FunctionDeclaration) {
+                Binding b = new Binding(Binding.FUNCTION, level, newLabel());
+                functions.put(d, b);
+                environment.put(((FunctionDeclaration) d).getSignature(), b);
+            }
+            else if (d instanceof VariableDeclaration) {
+                environment.put(((VariableDeclaration) d).getVariable().getName(),
+                                new Binding(Binding.VARIABLE, level, allocate()));
+            }
+            else if (d instanceof LazyVariableDeclaration) {
+                String name = ((LazyVariableDeclaration) d).getVariable().getName();
+                environment.put(name, new Binding(Binding.LAZY, level, allocate()));
+                lazyNames.add(name);
+            }
+            else {
+                throw new Error("Illegal element encountered in declaration.");
+            }
+        }
+        // a lazy variable masked by a variable of the same name is
+        // still stored into the latter's register, cf. LAZY below, so
+        // the register has to be forced when read, as on the abstract
+        // machine.
+        for (String name: lazyNames) {
+            Binding b = environment.get(name);
+            if (b.kind == Binding.VARIABLE) {
+                environment.put(name, new Binding(Binding.LAZY, b.level, b.location));
+            }
+        }
+        // variables are zero until declared, as on the abstract machine.
+        for (AbstractSyntaxTree d: p.getDeclarations()) {
+            if (d instanceof VariableDeclaration) {
+                Binding b = environment.get(((VariableDeclaration) d).getVariable().getName());
+                emit(RegisterInstruction.LOADK, b.location, 0);
+            }
+            else if (d instanceof LazyVariableDeclaration) {
+                Binding b = environment.get(((LazyVariableDeclaration) d).getVariable().getName());
+                emit(RegisterInstruction.CLEAR, b.location);
+            }
+        }
+        for (AbstractSyntaxTree d: p.getDeclarations()) {
+            if (d instanceof FunctionDeclaration) {
+                FunctionDeclaration fd = (FunctionDeclaration) d;
+                Binding b = functions.get(fd);
+                // functions masked by a later declaration are not generated.
+                if (environment.get(fd.getSignature()) == b) {
+                    pending.add(new Pending(fd, environment, level, b.location, 0));
+                }
+            }
+            else if (d instanceof VariableDeclaration) {
+                VariableDeclaration vd = (VariableDeclaration) d;
+                Binding b = environment.get(vd.getVariable().getName());
+                if (b.kind == Binding.LAZY) {
+                    // the register may hold a lazy variable's code,
+                    // which SETUP replaces.
+                    int t = allocate();
+                    into(vd.getExpression(), t);
+                    emit(RegisterInstruction.SETUP, t, b.location, 0);
+                    next = t;
+                }
+                else if (isPure(vd.getExpression())) {
+                    into(vd.getExpression(), b.location);
+                }
+                else {
+                    int t = allocate();
+                    into(vd.getExpression(), t);
+                    emit(RegisterInstruction.MOVE, b.location, t);
+                    next = t;
+                }
+            }
+            else {
+                LazyVariableDeclaration lvd = (LazyVariableDeclaration) d;
+                Binding b = environment.get(lvd.getVariable().getName());
+                int label = newLabel();
+                emit(RegisterInstruction.LAZY, b.location, label);
+                pending.add(new Pending(lvd.getExpression(), environment,
+                                        level, label, b.location));
+            }
+        }
+        into(p.getBody(), dest, tail);
+        environment = outer;
+        next = saved;
+    }
+
+    /** @see into(AbstractSyntaxTree, int) */
+    private void into(FunctionCall fc, int dest, boolean tail) {
+        Binding b = environment.get(fc.getSignature());
+        if (b == null) {
+            throw new Error(String.format("Function %s has not been declared.", fc.getSignature()));
+        }
+        int saved = next;
+        // the arguments are evaluated into consecutive registers,
+        // which become the callee's first registers.
+        int a = dest == next - 1 ? dest : next;
+        next = a;
+        AbstractSyntaxTree[] arguments = fc.getArguments();
+        for (AbstractSyntaxTree argument: arguments) {
+            into(argument, allocate());
+        }
+        if (b.kind == Binding.BUILTIN) {
+            emit(RegisterInstruction.BUILTIN, a, arguments.length, b.location);
+        }
+        else if (tail && level - b.level > 0) {
+            // the callee is not nested in the current frame,
+            // so it may replace it.
+            emit(RegisterInstruction.TAILCALL, a, b.location, level - b.level);
+        }
+        else {
+            emit(RegisterInstruction.CALL, a, b.location, level - b.level);
+        }
+        next = saved;
+        if (a != dest) {
+            emit(RegisterInstruction.MOVE, dest, a);
+        }
+    }
+
+    /** @see into(AbstractSyntaxTree, int) */
+    private void into(Identifier id, int dest) {
+        Binding b = variable(id);
+        int d = level - b.level;
+        if (b.kind == Binding.LAZY) {
+            emit(RegisterInstruction.FORCE, dest, b.location, d);
+        }
+        else if (d > 0) {
+            emit(RegisterInstruction.GETUP, dest, b.location, d);
+        }
+        else if (b.location != dest) {
+            emit(RegisterInstruction.MOVE, dest, b.location);
+        }
+    }
+
+    /** @see into(AbstractSyntaxTree, int) */
+    private void into(Assignment a, int dest) {
+        Binding b = variable(a.getVariable());
+        into(a.getExpression(), dest);
+        int d = level - b.level;
+        if (b.kind == Binding.VARIABLE && d == 0) {
+            if (b.location != dest) {
+                emit(RegisterInstruction.MOVE, b.location, dest);
+            }
+        }
+        else {
+            emit(RegisterInstruction.SETUP, dest, b.location, d);
+        }
+    }
+
+    private Binding variable(Identifier id) {
+        Binding b = environment.get(id.getName());
+        if (b == null) {
+            throw new Error(String.format("Identifier %s has not been declared.", id.getName()));
+        }
+        return b;
+    }
+
+    /**
+     * Returns a register holding the value of an expression. Local
+     * variables are used in place if safe, i.e. if the following
+     * code up to the use of the register cannot change them.
+     */
+    private int operand(AbstractSyntaxTree ast, boolean safe) {
+        if (safe && ast instanceof Identifier) {
+            Binding b = variable((Identifier) ast);
+            if (b.kind == Binding.VARIABLE && b.level == level) {
+                return b.location;
+            }
+        }
+        int t = allocate();
+        into(ast, t);
+        return t;
+    }
+
+    /**
+     * Checks whether an expression cannot change any variable,
+     * i.e. contains no assignments, calls and lazy variables.
+     */
+    private boolean isPure(AbstractSyntaxTree ast) {
+        if (ast instanceof Constant) {
+            return true;
+        }
+        else if (ast instanceof Identifier) {
+            return variable((Identifier) ast).kind == Binding.VARIABLE;
+        }
+        else if (ast instanceof Operation) {
+            Operation o = (Operation) ast;
+            return isPure(o.getOperandLeft()) && isPure(o.getOperandRight());
+        }
+        else if (ast instanceof Conditional) {
+            Conditional c = (Conditional) ast;
+            return isPure(c.getCondition())
+                && isPure(c.getConsequent())
+                && isPure(c.getAlternative());
+        }
+        return false;
+    }
+
+    private int allocate() {
+        next++;
+        size = Math.max(size, next);
+        return next - 1;
+    }
+
+    private RegisterInstruction emit(int opcode, int a, int b, int c) {
+        RegisterInstruction instruction = new RegisterInstruction(opcode, a, b, c);
+        code.add(instruction);
+        return instruction;
+    }
+
+    private RegisterInstruction emit(int opcode, int a, int b) {
+        return emit(opcode, a, b, 0);
+    }
+
+    private RegisterInstruction emit(int opcode, int a) {
+        return emit(opcode, a, 0, 0);
+    }
+
+    private int newLabel() {
+        labels.add(-1);
+        return labels.size() - 1;
+    }
+
+    private void place(int label) {
+        labels.set(label, code.size());
+    }
+
+    /**
+     * Replaces the labels in jump and call instructions by the
+     * addresses they were placed at.
+     */
+    private RegisterInstruction[] resolveLabels() {
+        for (RegisterInstruction i: code) {
+            switch (i.getOpcode()) {
+            case RegisterInstruction.JUMP:
+                i.setA(labels.get(i.getA()));
+                break;
+            case RegisterInstruction.JUMPZ:
+            case RegisterInstruction.CALL:
+            case RegisterInstruction.TAILCALL:
+            case RegisterInstruction.LAZY:
+                i.setB(labels.get(i.getB()));
+                break;
+            case RegisterInstruction.JUMPGE:
+            case RegisterInstruction.JUMPLE:
+            case RegisterInstruction.JUMPNE:
+            case RegisterInstruction.JUMPEQ:
+                i.setC(labels.get(i.getC()));
+                break;
+            }
+        }
+        return code.toArray(new RegisterInstruction[0]);
+    }
+}
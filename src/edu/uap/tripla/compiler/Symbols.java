@@ -0,0 +1,66 @@
+package edu.uap.tripla.compiler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns the names of a program and the pairs of a function's name
+ * and number of parameters, i.e. its signature, to small integers.
+ * Thus, the address environment looks names up by int keys instead of
+ * formatting and hashing strings on every lookup, cf.
+ * @see AddressEnvironment.
+ *
+ * Names and signatures are numbered in the same sequence, so a
+ * function never has the same symbol as a parameter or variable.
+ *
+ * A table belongs to one compilation at a time.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+class Symbols {
+
+    /** Symbol of each name. */
+    private final Map<String, Integer> names = new HashMap<String, Integer>();
+    /** Per name's symbol and number of parameters, the signature's
+     *  symbol + 1, or 0 if there is none yet. */
+    private int[][] signatures = new int[64][];
+    /** The next symbol to be given. */
+    private int next = 0;
+
+    /**
+     * @param name A name.
+     * @return The name's symbol.
+     */
+    int name(String name) {
+        Integer symbol = names.get(name);
+        if (symbol == null) {
+            symbol = next++;
+            names.put(name, symbol);
+        }
+        return symbol;
+    }
+
+    /**
+     * @param name A function's name.
+     * @param parameters The function's number of parameters.
+     * @return The signature's symbol.
+     */
+    int signature(String name, int parameters) {
+        int symbol = name(name);
+        if (symbol >= signatures.length) {
+            signatures = Arrays.copyOf(signatures, Math.max(symbol + 1, 2 * signatures.length));
+        }
+        int[] arities = signatures[symbol];
+        if (arities == null || parameters >= arities.length) {
+            arities = arities == null
+                      ? new int[parameters + 1]
+                      : Arrays.copyOf(arities, parameters + 1);
+            signatures[symbol] = arities;
+        }
+        if (arities[parameters] == 0) {
+            arities[parameters] = ++next;
+        }
+        return arities[parameters] - 1;
+    }
+}
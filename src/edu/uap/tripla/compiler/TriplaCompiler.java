@@ -1,8 +1,12 @@
 package edu.uap.tripla.compiler;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import edu.uap.tripla.tram.BuiltInFunction;
 import edu.uap.tripla.tram.Instruction;
 import edu.uap.tripla.parser.*;
 
@@ -15,12 +19,31 @@ public class TriplaCompiler {
 
     // the following variables are used as members in order to avoid
     // having them passed as arguments with every single code()-call.
+    // Each compilation has an instance of its own, so several
+    // threads may compile at once.
     /** Holds the current nesting level. */
-    static int nestingLevel;
-    /** Holds the current address environment. */
-    static AddressEnvironment rho;
+    private int nestingLevel;
     /** Holds one LabelProvider, necessary for jump-instructions. */
-    static LabelProvider labelProvider;
+    private final LabelProvider labelProvider = new LabelProvider();
+    /** Holds the current address environment. */
+    private AddressEnvironment rho = new AddressEnvironment(labelProvider);
+    /** Receives all machine instructions, in program order. */
+    private final CodeBuffer out = new CodeBuffer();
+    /** Holds the position of each function's first instruction
+     *  in the code buffer and its signature. */
+    private final Map<Integer, String> functionEntries = new HashMap<Integer, String>();
+    /** Holds the position of each function's first instruction
+     *  in the code buffer and its label. */
+    private final Map<Integer, Integer> functionLabels = new HashMap<Integer, Integer>();
+    /** Finds the pure functions. */
+    private final Purity purity = new Purity();
+    /** Per operation on two calls: the positions of the left call's
+     *  FORK, the right call's INVOKE and the JOIN in the code buffer,
+     *  cf. @see code(Operation). */
+    private final List<int[]> forks = new ArrayList<int[]>();
+    
+    private TriplaCompiler() {
+    }
     
     /**
      * Takes an abstract syntax tree and returns the
@@ -30,25 +53,83 @@ public class TriplaCompiler {
      * @return The program, i.e. machine instructions.
      */
     public static Instruction[] compile(AbstractSyntaxTree ast) {
-        nestingLevel = 0;
-        labelProvider = new LabelProvider();
-        rho = new AddressEnvironment(labelProvider);
-
-        List<Instruction> code = code(ast);
-        code.add(new Instruction(Instruction.HALT));
+        return compile(ast, null);
+    }
+    
+    /**
+     * Like @see compile(AbstractSyntaxTree), and additionally tells
+     * the functions' names, e.g. for a profiler's report.
+     * 
+     * @param ast The abstract syntax tree.
+     * @param functionNames If not null, receives each function's
+     *                      signature, e.g. "fib/1", by the
+     *                      address of its first instruction.
+     * @return The program, i.e. machine instructions.
+     */
+    public static Instruction[] compile(AbstractSyntaxTree ast,
+                                        Map<Integer, String> functionNames) {
+        return compile(ast, functionNames, null);
+    }
+    
+    /**
+     * Like @see compile(AbstractSyntaxTree, Map), and additionally
+     * tells the pure functions, i.e. those whose calls may be
+     * memoized, cf. @see edu.uap.tripla.tram.MemoTable.
+     * 
+     * @param ast The abstract syntax tree.
+     * @param functionNames If not null, receives each function's
+     *                      signature by its address.
+     * @param pureFunctions If not null, receives the address of
+     *                      each pure function, cf. @see Purity.
+     * @return The program, i.e. machine instructions.
+     */
+    public static Instruction[] compile(AbstractSyntaxTree ast,
+                                        Map<Integer, String> functionNames,
+                                        Set<Integer> pureFunctions) {
+        TriplaCompiler compiler = new TriplaCompiler();
+        compiler.code(ast);
+        return compiler.link(functionNames, pureFunctions);
+    }
+    
+    /**
+     * Finishes the code emitted so far, cf. @see compile(
+     * AbstractSyntaxTree, Map, Set).
+     */
+    private Instruction[] link(Map<Integer, String> functionNames,
+                               Set<Integer> pureFunctions) {
+        out.emit(new Instruction(Instruction.HALT));
         
-        labelProvider.resolveLabels(code);
-        // freeing objects
-        labelProvider = null;
-        rho = null;
+        // only calls of pure functions may run at once.
+        Set<Integer> pure = purity.getPureFunctions();
+        for (int[] fork: forks) {
+            if (!pure.contains(out.get(fork[0]).getArg2())
+                    || !pure.contains(out.get(fork[1]).getArg2())) {
+                out.get(fork[0]).setOpcode(Instruction.INVOKE);
+                out.drop(fork[2]);
+            }
+        }
         
-        return code.toArray(new Instruction[0]);
+        Instruction[] program = out.toProgram(labelProvider);
+        if (functionNames != null) {
+            for (Map.Entry<Integer, String> entry: functionEntries.entrySet()) {
+                functionNames.put(out.position(entry.getKey()), entry.getValue());
+            }
+        }
+        if (pureFunctions != null) {
+            for (Map.Entry<Integer, Integer> entry: functionLabels.entrySet()) {
+                if (pure.contains(entry.getValue())) {
+                    pureFunctions.add(out.position(entry.getKey()));
+                }
+            }
+        }
+        return program;
     }
     
     /**
-     * Takes an abstract syntax tree and returns the corresponding
-     * machine instructions, where jump-instructions have unresolved
-     * labels instead of real instruction locations.
+     * Takes an abstract syntax tree and emits the corresponding
+     * machine instructions into the code buffer, where
+     * jump-instructions have unresolved labels instead of real
+     * instruction locations.
      * 
      * Determines the given object's class at runtime, performs an
      * explicit cast and calls the specific code()-method.
@@ -57,261 +138,269 @@ public class TriplaCompiler {
      * node-type of the abstract syntax tree.
      * 
      * @param ast AbstractSyntaxTree-object or one of its descendants.
-     * @return
      */
-    private static List<Instruction> code(AbstractSyntaxTree ast) {
+    private void code(AbstractSyntaxTree ast) {
+        code(ast, false);
+    }
+    
+    /**
+     * Like @see code(AbstractSyntaxTree), where
+     * tail tells whether the expression is in tail position, i.e.
+     * its value is returned right away by the enclosing function.
+     * Function calls in tail position become TAILINVOKEs.
+     * 
+     * @param ast AbstractSyntaxTree-object or one of its descendants.
+     * @param tail Whether ast is in tail position.
+     */
+    private void code(AbstractSyntaxTree ast, boolean tail) {
         if (ast instanceof StatementSequence) {
-            return code((StatementSequence)ast);
+            code((StatementSequence)ast, tail);
         }
         else if (ast instanceof Constant) {
-            return code((Constant)ast);
+            code((Constant)ast);
         }
         else if (ast instanceof Operation) {
-            return code((Operation)ast);
+            code((Operation)ast);
         }
         else if (ast instanceof Conditional) {
-            return code((Conditional)ast);
+            code((Conditional)ast, tail);
         }
         else if (ast instanceof Program) {
-            return code((Program)ast);
+            code((Program)ast);
         }
         else if (ast instanceof FunctionDeclaration) {
-            return code((FunctionDeclaration)ast);
+            code((FunctionDeclaration)ast);
         }        
         else if (ast instanceof VariableDeclaration) {
-            return code((VariableDeclaration)ast);
+            code((VariableDeclaration)ast);
         }        
         else if (ast instanceof LazyVariableDeclaration) {
-            return code((LazyVariableDeclaration)ast);
+            code((LazyVariableDeclaration)ast);
         }        
         else if (ast instanceof FunctionCall) {
-            return code((FunctionCall)ast);
+            code((FunctionCall)ast, tail);
         }
         else if (ast instanceof Identifier) {
-            return code((Identifier)ast);
+            code((Identifier)ast);
         }
         else if (ast instanceof Assignment) {
-            return code((Assignment)ast);
+            code((Assignment)ast);
         }
         else {
             throw new Error("Wopa. Unrecognized AbstractSyntaxTree-element.");
         }
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(StatementSequence ss) {
-        List<Instruction> r = new LinkedList<Instruction>();
-        for (AbstractSyntaxTree statement: ss.getStatements()) {
-            r.addAll(code(statement));
+    /** @see code(AbstractSyntaxTree) */
+    private void code(StatementSequence ss, boolean tail) {
+        AbstractSyntaxTree[] statements = ss.getStatements();
+        for (int i = 0; i < statements.length; i++) {
+            // only the last statement's value is the sequence's value.
+            code(statements[i], tail && i == statements.length - 1);
         }
-        return r;
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(Constant c) {
-        List<Instruction> r = new LinkedList<Instruction>();
-        r.add(new Instruction(Instruction.CONST, c.getValue()));
-        return r;
+    /** @see code(AbstractSyntaxTree) */
+    private void code(Constant c) {
+        out.emit(new Instruction(Instruction.CONST, c.getValue()));
     }
 
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(Operation o) {
-        List<Instruction> r = new LinkedList<Instruction>();
-        r.addAll(code(o.getOperandLeft()));
-        r.addAll(code(o.getOperandRight()));
+    /** @see code(AbstractSyntaxTree) */
+    private void code(Operation o) {
+        code(o.getOperandLeft());
+        int leftCall = out.size() - 1;
+        code(o.getOperandRight());
+        int rightCall = out.size() - 1;
+        // the left call may run while the right operand is evaluated,
+        // cf. @see Instruction.FORK, if both callees turn out to be
+        // pure. Otherwise, compile() makes it an INVOKE again.
+        if (o.getOperandLeft() instanceof FunctionCall
+                && o.getOperandRight() instanceof FunctionCall
+                && !BuiltInFunction.isBuiltIn(out.get(leftCall).getArg2())
+                && !BuiltInFunction.isBuiltIn(out.get(rightCall).getArg2())) {
+            out.get(leftCall).setOpcode(Instruction.FORK);
+            int join = out.emit(new Instruction(Instruction.JOIN));
+            forks.add(new int[] { leftCall, rightCall, join });
+        }
         String op = o.getOperator();
         if (op.equals("+")) {
-            r.add(new Instruction(Instruction.ADD));
+            out.emit(new Instruction(Instruction.ADD));
         }
         else if (op.equals("-")) {
-            r.add(new Instruction(Instruction.SUB));            
+            out.emit(new Instruction(Instruction.SUB));            
         }
         else if (op.equals("*")) {
-            r.add(new Instruction(Instruction.MUL));            
+            out.emit(new Instruction(Instruction.MUL));            
         }
         else if (op.equals("/")) {
-            r.add(new Instruction(Instruction.DIV));            
+            out.emit(new Instruction(Instruction.DIV));            
         }
         else if (op.equals("==")) {
-            r.add(new Instruction(Instruction.EQ));            
+            out.emit(new Instruction(Instruction.EQ));            
         }
         else if (op.equals("!=")) {
-            r.add(new Instruction(Instruction.NEQ));            
+            out.emit(new Instruction(Instruction.NEQ));            
         }
         else if (op.equals("<")) {
-            r.add(new Instruction(Instruction.LT));            
+            out.emit(new Instruction(Instruction.LT));            
         }
         else if (op.equals(">")) {
-            r.add(new Instruction(Instruction.GT));            
+            out.emit(new Instruction(Instruction.GT));            
         }
         else {
             throw new Error("Unrecognized operator.");
         }
-        return r;
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(Conditional c) {
-        List<Instruction> r = new LinkedList<Instruction>();
-        List<Instruction> conditional = code(c.getCondition());
-        List<Instruction> consequent  = code(c.getConsequent());
-        List<Instruction> alternative = code(c.getAlternative());
-        Instruction nop = new Instruction(Instruction.NOP);
-        int label_alt = labelProvider.getNewLabel(alternative.get(0));
-        int label_nop = labelProvider.getNewLabel(nop);
-        
-        r.addAll(conditional);
-        r.add(new Instruction(Instruction.IFZERO, label_alt));
-        r.addAll(consequent);
-        r.add(new Instruction(Instruction.GOTO, label_nop));        
-        r.addAll(alternative);
-        r.add(nop);
+    /** @see code(AbstractSyntaxTree) */
+    private void code(Conditional c, boolean tail) {
+        int label_alt = labelProvider.getNewLabel();
+        int label_nop = labelProvider.getNewLabel();
         
-        return r;
+        code(c.getCondition());
+        out.emit(new Instruction(Instruction.IFZERO, label_alt));
+        code(c.getConsequent(), tail);
+        out.emit(new Instruction(Instruction.GOTO, label_nop));
+        labelProvider.place(label_alt, out.size());
+        code(c.getAlternative(), tail);
+        labelProvider.place(label_nop, out.emit(new Instruction(Instruction.NOP)));
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(Program p) {
+    /** @see code(AbstractSyntaxTree) */
+    private void code(Program p) {
         AddressEnvironment old_rho = rho;
         rho = new AddressEnvironment(old_rho);
         rho.increaseNestingLevel();
         rho.elab_def(p);
         nestingLevel++;
         
-        List<Instruction> r = new LinkedList<Instruction>();
-        List<Instruction> function_decl = new LinkedList<Instruction>();
-        List<Instruction> variable_decl = new LinkedList<Instruction>();
-        List<Instruction> variable_init = new LinkedList<Instruction>();
-
         int label1 = labelProvider.getNewLabel();
         int label2 = labelProvider.getNewLabel();
         
-        int numberOfVariables = 0;
-        variable_decl.add(new Instruction(Instruction.NOP));
-        variable_init.add(new Instruction(Instruction.NOP));
+        out.emit(new Instruction(Instruction.GOTO, label1));
+        // the functions first, then the variables, as in the program.
         for (AbstractSyntaxTree d: p.getDeclarations()) {
             if (d instanceof FunctionDeclaration) {
-                function_decl.addAll(code(d));
+                code(d);
             }
-            else { // should be declaration of a (lazy) variable
+        }
+        int numberOfVariables = 0;
+        int variable_decl = out.emit(new Instruction(Instruction.NOP));
+        labelProvider.place(label2, variable_decl);
+        functionEntries.put(variable_decl, "let");
+        for (AbstractSyntaxTree d: p.getDeclarations()) {
+            if (!(d instanceof FunctionDeclaration)) {
+                // should be declaration of a (lazy) variable
                 numberOfVariables++;
-                variable_decl.addAll(code(d));
-                variable_init.add(new Instruction(Instruction.CONST, 0));
+                code(d);
             }
         }
-        List<Instruction> body = code(p.getBody());
-        
-        r.add(new Instruction(Instruction.GOTO, label1));
-        r.addAll(function_decl);
-        r.addAll(variable_decl);
-        r.addAll(body);
-        r.add(new Instruction(Instruction.RETURN));
-        r.addAll(variable_init);        
-        r.add(new Instruction(Instruction.INVOKE, numberOfVariables, label2, 0));
-
-        labelProvider.registerInstruction(label1, variable_init.get(0));
-        labelProvider.registerInstruction(label2, variable_decl.get(0));
+        code(p.getBody(), true);
+        out.emit(new Instruction(Instruction.RETURN));
+        labelProvider.place(label1, out.emit(new Instruction(Instruction.NOP)));
+        for (int i = 0; i < numberOfVariables; i++) {
+            out.emit(new Instruction(Instruction.CONST, 0));
+        }
+        out.emit(new Instruction(Instruction.INVOKE, numberOfVariables, label2, 0));
 
         nestingLevel--;
         rho = old_rho;
-        return r;
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(FunctionDeclaration fd) {
+    /** @see code(AbstractSyntaxTree) */
+    private void code(FunctionDeclaration fd) {
         AddressEnvironment old_rho = rho;
         rho = new AddressEnvironment(old_rho);
         rho.increaseNestingLevel();
         rho.elab_def(fd);
         nestingLevel++;
+        int label = rho.get(fd).location;
+        purity.enter(label, nestingLevel);
         
-        List<Instruction> body = code(fd.getBody());
-        body.add(new Instruction(Instruction.RETURN));
-        labelProvider.registerInstruction(rho.get(fd).location, body.get(0));
+        int entry = out.size();
+        labelProvider.place(label, entry);
+        functionEntries.put(entry, fd.getSignature());
+        functionLabels.put(entry, label);
+        code(fd.getBody(), true);
+        out.emit(new Instruction(Instruction.RETURN));
         
+        purity.leave();
         nestingLevel--;
         rho = old_rho;
-        return body;        
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(VariableDeclaration vd) {
-        List<Instruction> r = code(vd.getExpression());
-        r.add(new Instruction(Instruction.STORE,
-                              rho.get(vd.getVariable()).location,
-                              0
-              ));
-        return r;        
+    /** @see code(AbstractSyntaxTree) */
+    private void code(VariableDeclaration vd) {
+        code(vd.getExpression());
+        out.emit(new Instruction(Instruction.STORE,
+                                 rho.get(vd.getVariable()).location,
+                                 0
+                 ));
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(LazyVariableDeclaration lvd) {
+    /** @see code(AbstractSyntaxTree) */
+    private void code(LazyVariableDeclaration lvd) {
         int label1 = labelProvider.getNewLabel();
         int label2 = labelProvider.getNewLabel();
         
-        List<Instruction> r = new LinkedList<Instruction>();
-        List<Instruction> code_e = code(lvd.getExpression());
-        Instruction code_lazy = new Instruction(
-                                    Instruction.LAZY,
-                                    rho.get(lvd.getVariable()).location,
-                                    label2
-                                );
-        
-        labelProvider.registerInstruction(label1, code_lazy);
-        labelProvider.registerInstruction(label2, code_e.get(0));
-        
-        r.add(new Instruction(Instruction.GOTO, label1));
-        r.addAll(code_e);
-        r.add(new Instruction(Instruction.LAZYRETURN));
-        r.add(code_lazy);
-        
-        return r;        
+        out.emit(new Instruction(Instruction.GOTO, label1));
+        labelProvider.place(label2, out.size());
+        code(lvd.getExpression());
+        out.emit(new Instruction(Instruction.LAZYRETURN));
+        labelProvider.place(label1, out.emit(new Instruction(
+                                                 Instruction.LAZY,
+                                                 rho.get(lvd.getVariable()).location,
+                                                 label2
+                                             )));
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(FunctionCall fc) {
-        List<Instruction> r = new LinkedList<Instruction>();
+    /** @see code(AbstractSyntaxTree) */
+    private void code(FunctionCall fc, boolean tail) {
         AbstractSyntaxTree[] arguments = fc.getArguments();
         for (AbstractSyntaxTree argument: arguments) {
-            r.addAll(code(argument));
+            code(argument);
         }
         Address a = rho.get(fc);
-        r.add(new Instruction(
-                Instruction.INVOKE,
+        purity.call(a.location, a.nestingLevel);
+        // the current frame can be replaced unless the callee is
+        // a built-in function or nested in it, i.e. needs it as
+        // its static parent.
+        boolean replace = tail
+                          && !BuiltInFunction.isBuiltIn(a.location)
+                          && nestingLevel - a.nestingLevel > 0;
+        out.emit(new Instruction(
+                replace ? Instruction.TAILINVOKE : Instruction.INVOKE,
                 arguments.length,
                 a.location,
                 nestingLevel - a.nestingLevel
               ));
-        return r;
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(Identifier id) {
-        List<Instruction> r = new LinkedList<Instruction>();
+    /** @see code(AbstractSyntaxTree) */
+    private void code(Identifier id) {
         Address a = rho.get(id);
-        r.add(new Instruction(
-                Instruction.LOAD,
+        purity.access(a.nestingLevel);
+        out.emit(new Instruction(
+                a.lazy ? Instruction.FORCE : Instruction.LOAD,
                 a.location,
                 nestingLevel - a.nestingLevel
               ));
-        return r;
     }
     
-    /** @see List<Instruction> code(AbstractSyntaxTree) */
-    private static List<Instruction> code(Assignment a) {
+    /** @see code(AbstractSyntaxTree) */
+    private void code(Assignment a) {
         Address var_address = rho.get(a.getVariable()); 
-        List<Instruction> r;
-        r = code(a.getExpression());
-        r.add(new Instruction(
+        purity.access(var_address.nestingLevel);
+        code(a.getExpression());
+        out.emit(new Instruction(
                 Instruction.STORE,
                 var_address.location,
                 nestingLevel - var_address.nestingLevel
               ));
-        r.add(new Instruction(
+        out.emit(new Instruction(
                 Instruction.LOAD,
                 var_address.location,
                 nestingLevel - var_address.nestingLevel
               ));
-        return r;
     }
 }
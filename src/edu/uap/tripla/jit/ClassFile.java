@@ -0,0 +1,351 @@
+package edu.uap.tripla.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for JVM class files, just covering what the
+ * @see JitCompiler needs: a final class with static methods whose
+ * code consists of int arithmetic, branches, field accesses and
+ * method invocations.
+ *
+ * Class files are written in version 49 (Java 5). Hence, the
+ * JVM infers the types of stack and local variables itself and
+ * no stack map frames have to be computed.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+class ClassFile {
+
+    // the opcodes used.
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int IALOAD = 0x2e;
+    static final int ISTORE = 0x36;
+    static final int ASTORE = 0x3a;
+    static final int IASTORE = 0x4f;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int IMUL = 0x68;
+    static final int IDIV = 0x6c;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPLT = 0xa1;
+    static final int IF_ICMPGE = 0xa2;
+    static final int IF_ICMPGT = 0xa3;
+    static final int IF_ICMPLE = 0xa4;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEWARRAY = 0xbc;
+    static final int ATHROW = 0xbf;
+    /** Type operand of NEWARRAY for int[]. */
+    static final int T_INT = 10;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    /** The constant pool's entries, serialized. */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    /** Index of the next constant pool entry. */
+    private int poolSize = 1;
+    /** Deduplicates constant pool entries by a key describing them. */
+    private final Map<String, Integer> constants = new HashMap<String, Integer>();
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> methods = new ArrayList<byte[]>();
+
+    /**
+     * @param name The class' internal name, e.g. "a/b/C".
+     */
+    ClassFile(String name) {
+        thisClass = classRef(name);
+        superClass = classRef("java/lang/Object");
+    }
+
+    /**
+     * A static method under construction. Branch targets are
+     * referenced by labels, which are resolved in @see end().
+     */
+    class Method {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Integer> labels = new ArrayList<Integer>();
+        /** Pairs of (position of the branch opcode, label). */
+        private final List<int[]> branches = new ArrayList<int[]>();
+        private final int maxStack;
+        private final int maxLocals;
+
+        private Method(int access, String name, String descriptor,
+                       int maxStack, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        /** @return A new, not yet placed label. */
+        int newLabel() {
+            labels.add(-1);
+            return labels.size() - 1;
+        }
+
+        /** Places a label at the current position. */
+        void place(int label) {
+            labels.set(label, code.size());
+        }
+
+        void op(int opcode) {
+            code.write(opcode);
+        }
+
+        /** An instruction with a local variable index. */
+        void local(int opcode, int index) {
+            if (index > 255) {
+                throw new Error(String.format(
+                        "Too many local variables: %d.", index));
+            }
+            code.write(opcode);
+            code.write(index);
+        }
+
+        /** Pushes an int constant. */
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                code.write(ICONST_0 + value);
+            }
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(value);
+            }
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(SIPUSH);
+                u2(value);
+            }
+            else {
+                code.write(LDC_W);
+                u2(integer(value));
+            }
+        }
+
+        /** A conditional or unconditional branch to a label. */
+        void branch(int opcode, int label) {
+            branches.add(new int[] { code.size(), label });
+            code.write(opcode);
+            u2(0);
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            code.write(opcode);
+            u2(member(9, owner, name, descriptor));
+        }
+
+        void invokestatic(String owner, String name, String descriptor) {
+            code.write(INVOKESTATIC);
+            u2(member(10, owner, name, descriptor));
+        }
+
+        void newarray(int type) {
+            code.write(NEWARRAY);
+            code.write(type);
+        }
+
+        private void u2(int value) {
+            code.write(value >>> 8);
+            code.write(value);
+        }
+
+        /** Resolves the labels and adds the method to the class. */
+        void end() {
+            byte[] bytes = code.toByteArray();
+            for (int[] branch: branches) {
+                int target = labels.get(branch[1]);
+                if (target < 0) {
+                    throw new Error(String.format(
+                            "Label %d was never placed in %s.", branch[1], name));
+                }
+                int offset = target - branch[0];
+                if (offset != (short) offset) {
+                    throw new Error(String.format(
+                            "Method %s is too large.", name));
+                }
+                bytes[branch[0] + 1] = (byte) (offset >>> 8);
+                bytes[branch[0] + 2] = (byte) offset;
+            }
+            ByteArrayOutputStream method = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(method);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);              // attributes: Code
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + bytes.length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeShort(0);              // exception table
+                out.writeShort(0);              // attributes
+            } catch (IOException e) {
+                throw new Error(e);
+            }
+            methods.add(method.toByteArray());
+        }
+    }
+
+    /**
+     * Starts a new static method.
+     *
+     * @param name The method's name.
+     * @param descriptor The method's descriptor, e.g. "(I)I".
+     * @param maxStack Upper bound of the operand stack's size.
+     * @param maxLocals Number of local variables, including parameters.
+     * @return The method.
+     */
+    Method method(String name, String descriptor, int maxStack, int maxLocals) {
+        return new Method(ACC_PUBLIC | ACC_STATIC, name, descriptor,
+                          maxStack, maxLocals);
+    }
+
+    /** @return The class file's bytes. */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);                  // minor version
+            out.writeShort(49);                 // major version
+            out.writeShort(poolSize);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);                  // interfaces
+            out.writeShort(0);                  // fields
+            out.writeShort(methods.size());
+            for (byte[] method: methods) {
+                out.write(method);
+            }
+            out.writeShort(0);                  // attributes
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private int utf8(String value) {
+        String key = "U" + value;
+        Integer index = constants.get(key);
+        if (index == null) {
+            index = add(key);
+            write(1);
+            try {
+                poolOut.writeUTF(value);
+            } catch (IOException e) {
+                throw new Error(e);
+            }
+        }
+        return index;
+    }
+
+    private int integer(int value) {
+        String key = "I" + value;
+        Integer index = constants.get(key);
+        if (index == null) {
+            index = add(key);
+            write(3);
+            writeInt(value);
+        }
+        return index;
+    }
+
+    private int classRef(String name) {
+        String key = "C" + name;
+        Integer index = constants.get(key);
+        if (index == null) {
+            int utf8 = utf8(name);
+            index = add(key);
+            write(7);
+            writeShort(utf8);
+        }
+        return index;
+    }
+
+    /**
+     * @param tag 9 for fields, 10 for methods.
+     * @return The index of a field or method reference.
+     */
+    private int member(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + descriptor;
+        Integer index = constants.get(key);
+        if (index == null) {
+            int ownerRef = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            index = add(key);
+            write(tag);
+            writeShort(ownerRef);
+            writeShort(nameAndType);
+        }
+        return index;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + " " + descriptor;
+        Integer index = constants.get(key);
+        if (index == null) {
+            int nameRef = utf8(name);
+            int descriptorRef = utf8(descriptor);
+            index = add(key);
+            write(12);
+            writeShort(nameRef);
+            writeShort(descriptorRef);
+        }
+        return index;
+    }
+
+    private int add(String key) {
+        if (poolSize == 0xffff) {
+            throw new Error("Too many constants.");
+        }
+        constants.put(key, poolSize);
+        return poolSize++;
+    }
+
+    private void write(int tag) {
+        pool.write(tag);
+    }
+
+    private void writeShort(int value) {
+        pool.write(value >>> 8);
+        pool.write(value);
+    }
+
+    private void writeInt(int value) {
+        writeShort(value >>> 16);
+        writeShort(value & 0xffff);
+    }
+}
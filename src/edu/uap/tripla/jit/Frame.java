@@ -0,0 +1,63 @@
+package edu.uap.tripla.jit;
+
+/**
+ * The cells of one activation of compiled TRIPLA code, i.e. the
+ * parameters of a function or the variables of a let-block.
+ *
+ * Compiled code only materializes a frame if nested functions or
+ * lazy variables may access its cells, otherwise the cells are
+ * kept in local variables of the generated method.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+final class Frame {
+    /** The cells' values. */
+    final int[] cells;
+    /** Per cell, the label of its unevaluated lazy variable's
+     *  code plus one, or zero. Null if the frame has no lazy
+     *  variables. */
+    final int[] thunks;
+    /** The frame of the statically enclosing function. */
+    final Frame parent;
+
+    private Frame(int[] cells, int[] thunks, Frame parent) {
+        this.cells = cells;
+        this.thunks = thunks;
+        this.parent = parent;
+    }
+
+    /**
+     * Called by compiled code to create a function's frame.
+     *
+     * @param size The number of cells.
+     * @param lazy Whether the frame holds lazy variables.
+     * @param parent The statically enclosing frame.
+     * @return The frame.
+     */
+    static Frame create(int size, boolean lazy, Frame parent) {
+        return new Frame(new int[size], lazy ? new int[size] : null, parent);
+    }
+
+    /**
+     * @param cells The cells below the first instruction's stack, cf.
+     *              @see edu.uap.tripla.tram.AbstractMachine.setTop(int).
+     * @return The frame of the main program.
+     */
+    static Frame root(int[] cells) {
+        return new Frame(cells, new int[cells.length], null);
+    }
+
+    /**
+     * Called by compiled code halting the main program with an
+     * empty stack, cf. @see edu.uap.tripla.tram.Instruction.program1.
+     *
+     * @param root The frame of the main program.
+     * @return The upmost cell, or 0 if there is none.
+     */
+    static int top(Frame root) {
+        if (root.cells.length == 0) {
+            return 0;
+        }
+        return root.cells[root.cells.length - 1];
+    }
+}
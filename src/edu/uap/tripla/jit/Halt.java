@@ -0,0 +1,29 @@
+package edu.uap.tripla.jit;
+
+/**
+ * Thrown by compiled code executing HALT outside of the main
+ * program, in order to unwind all generated methods at once.
+ * Caught by @see JitProgram.run(int[]).
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+@SuppressWarnings("serial")
+final class Halt extends RuntimeException {
+    /** The value of the topmost stack cell. */
+    final int value;
+
+    private Halt(int value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+
+    /**
+     * Called by compiled code, which throws the returned exception.
+     *
+     * @param value The value of the topmost stack cell.
+     * @return The exception.
+     */
+    static RuntimeException halt(int value) {
+        return new Halt(value);
+    }
+}
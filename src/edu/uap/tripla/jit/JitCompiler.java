@@ -0,0 +1,761 @@
+package edu.uap.tripla.jit;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.uap.tripla.tram.Instruction;
+
+/**
+ * Compiles TRAM programs to JVM bytecode, which is loaded as a
+ * hidden class. HotSpot can then compile it just like any Java code.
+ *
+ * The program is split into regions, each being compiled into one
+ * static method: the main program, one method per function (i.e.
+ * per INVOKE-target), and one per lazy variable (i.e. per
+ * LAZY-target). The abstract machine's stack is not modelled,
+ * instead
+ * <ul>
+ * <li>intermediate results live on the JVM's operand stack,</li>
+ * <li>a function's parameters are passed as int arguments and
+ *     kept in local variables, unless nested functions or lazy
+ *     variables may access them; then they are copied into a
+ *     @see Frame, which is passed to nested functions as their
+ *     static parent,</li>
+ * <li>INVOKE becomes a static call, RETURN a return, and HALT
+ *     within a function unwinds via an exception. FORK is
+ *     compiled like INVOKE, JOIN to nothing.</li>
+ * <li>TAILINVOKE becomes a static call and a return, or a jump
+ *     back to the method's start if a function invokes itself.</li>
+ * </ul>
+ * This requires the stack height to be known at each instruction,
+ * which holds for all code generated by the TRIPLA compiler.
+ * Programs violating this, or others which cannot be compiled,
+ * are rejected with an error.
+ *
+ * Superinstructions are compiled like the instruction they
+ * replaced; their sequence is still in place.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class JitCompiler {
+
+    private static final String CLASS = "edu/uap/tripla/jit/Program";
+    private static final String FRAME = "edu/uap/tripla/jit/Frame";
+    private static final String FRAME_TYPE = "L" + FRAME + ";";
+
+    /** Slack on top of a region's stack height for the code of
+     *  a single instruction, e.g. array, index and value of a store. */
+    private static final int EXTRA_STACK = 6;
+
+    /** The kinds of regions. */
+    private enum Kind { MAIN, FUNCTION, THUNK }
+
+    /**
+     * A part of the program compiled into one method.
+     */
+    private static class Region {
+        final Kind kind;
+        /** Address of the first instruction. */
+        final int entry;
+        /** Number of parameters (functions only). */
+        final int arity;
+        /** The statically enclosing region (functions only),
+         *  or null if it is not unique. */
+        Region parent;
+        /** The region whose frame the code runs in,
+         *  i.e. the declaring region for thunks, else itself. */
+        final Region owner;
+        /** Stack height before each reachable instruction. */
+        final Map<Integer, Integer> heights = new TreeMap<Integer, Integer>();
+        /** Addresses jumped to within the region. */
+        final List<Integer> targets = new ArrayList<Integer>();
+        int maxHeight;
+        int maxBuiltInArity;
+        /** Whether the region's cells live in a @see Frame. */
+        boolean frame;
+        /** Per cell which may hold a lazy variable, the labels
+         *  of the lazy variables' code. */
+        final Map<Integer, List<Integer>> lazyCells = new TreeMap<Integer, List<Integer>>();
+
+        Region(Kind kind, int entry, int arity, Region parent, Region owner) {
+            this.kind = kind;
+            this.entry = entry;
+            this.arity = arity;
+            this.parent = parent;
+            this.owner = owner == null ? this : owner;
+            this.frame = kind == Kind.MAIN;
+        }
+
+        String name() {
+            switch (kind) {
+            case MAIN:
+                return "main";
+            case FUNCTION:
+                return "f" + entry;
+            default:
+                return "t" + entry;
+            }
+        }
+
+        String descriptor() {
+            if (kind != Kind.FUNCTION) {
+                return "(" + FRAME_TYPE + ")I";
+            }
+            StringBuilder d = new StringBuilder("(");
+            for (int i = 0; i < arity; i++) {
+                d.append('I');
+            }
+            return d.append(FRAME_TYPE).append(")I").toString();
+        }
+    }
+
+    private final Instruction[] text;
+    private final Map<Integer, Region> functions = new LinkedHashMap<Integer, Region>();
+    private final Map<Integer, Region> thunks = new LinkedHashMap<Integer, Region>();
+    private final Deque<Region> worklist = new ArrayDeque<Region>();
+
+    private JitCompiler(Instruction[] text) {
+        this.text = text;
+    }
+
+    /**
+     * Compiles a program and loads it into the JVM.
+     *
+     * @param text The program, e.g. as returned by the TRIPLA compiler.
+     * @return The compiled program.
+     */
+    public static JitProgram compile(Instruction[] text) {
+        JitCompiler compiler = new JitCompiler(text);
+        Region main = new Region(Kind.MAIN, 0, 0, null, null);
+        compiler.worklist.add(main);
+        while (!compiler.worklist.isEmpty()) {
+            compiler.analyze(compiler.worklist.poll());
+        }
+        byte[] bytes = compiler.generate(main);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClass(bytes, true);
+            return new JitProgram(lookup.findStatic(
+                    lookup.lookupClass(),
+                    main.name(),
+                    MethodType.methodType(int.class, Frame.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * Returns the opcode an instruction is compiled as, i.e. the
+     * first instruction of a superinstruction's sequence.
+     */
+    private static int opcode(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+        case Instruction.LOAD_LOAD_MUL:
+            return Instruction.LOAD;
+        case Instruction.CONST_ADD:
+        case Instruction.CONST_SUB:
+            return Instruction.CONST;
+        case Instruction.LT_IFZERO:
+            return Instruction.LT;
+        case Instruction.GT_IFZERO:
+            return Instruction.GT;
+        case Instruction.EQ_IFZERO:
+            return Instruction.EQ;
+        case Instruction.NEQ_IFZERO:
+            return Instruction.NEQ;
+        case Instruction.STORE_LOAD:
+            return Instruction.STORE;
+        default:
+            return instruction.getOpcode();
+        }
+    }
+
+    /**
+     * @return The region whose frame is at static distance d.
+     */
+    private Region ancestor(Region region, int d) {
+        Region r = region.owner;
+        for (int i = 0; i < d && r != null; i++) {
+            r = r.parent;
+        }
+        if (r == null) {
+            throw new Error(String.format(
+                    "Static distance %d exceeds the known nesting of %s.",
+                    d, region.name()));
+        }
+        return r;
+    }
+
+    /**
+     * Determines the reachable instructions of a region and the
+     * stack height before each of them; registers the called
+     * functions and the lazy variables' code as further regions.
+     */
+    private void analyze(Region region) {
+        region.heights.clear();
+        region.targets.clear();
+        Deque<Integer> pending = new ArrayDeque<Integer>();
+        reach(region, region.entry, 0, pending);
+        while (!pending.isEmpty()) {
+            int pc = pending.poll();
+            int h = region.heights.get(pc);
+            Instruction instruction = text[pc];
+            switch (opcode(instruction)) {
+            case Instruction.CONST:
+            case Instruction.LOAD:
+            case Instruction.FORCE:
+                reach(region, pc + 1, h + 1, pending);
+                break;
+            case Instruction.STORE:
+                need(region, pc, h, 1);
+                reach(region, pc + 1, h - 1, pending);
+                break;
+            case Instruction.ADD:
+            case Instruction.SUB:
+            case Instruction.MUL:
+            case Instruction.DIV:
+            case Instruction.LT:
+            case Instruction.GT:
+            case Instruction.EQ:
+            case Instruction.NEQ:
+                need(region, pc, h, 2);
+                reach(region, pc + 1, h - 1, pending);
+                break;
+            case Instruction.IFZERO:
+                need(region, pc, h, 1);
+                jump(region, instruction.getArg1(), h - 1, pending);
+                reach(region, pc + 1, h - 1, pending);
+                break;
+            case Instruction.GOTO:
+                jump(region, instruction.getArg1(), h, pending);
+                break;
+            case Instruction.NOP:
+            case Instruction.JOIN:
+                reach(region, pc + 1, h, pending);
+                break;
+            case Instruction.HALT:
+                if (h == 0 && region.kind != Kind.MAIN) {
+                    reject(region, pc, "halts with an empty stack");
+                }
+                break;
+            case Instruction.RETURN:
+                if (region.kind != Kind.FUNCTION) {
+                    reject(region, pc, "returns outside of a function");
+                }
+                need(region, pc, h, 1);
+                break;
+            case Instruction.LAZYRETURN:
+                if (region.kind != Kind.THUNK) {
+                    reject(region, pc, "returns outside of a lazy variable");
+                }
+                need(region, pc, h, 1);
+                break;
+            case Instruction.INVOKE:
+            case Instruction.FORK: {
+                int n = instruction.getArg1();
+                int p = instruction.getArg2();
+                int d = instruction.getArg3();
+                need(region, pc, h, n);
+                if (p < 0) {
+                    region.maxBuiltInArity = Math.max(region.maxBuiltInArity, n);
+                }
+                else {
+                    function(p, n, ancestor(region, d));
+                    if (d == 0) {
+                        region.owner.frame = true;
+                    }
+                }
+                reach(region, pc + 1, h - n + 1, pending);
+                break;
+            }
+            case Instruction.TAILINVOKE: {
+                int n = instruction.getArg1();
+                int p = instruction.getArg2();
+                int d = instruction.getArg3();
+                if (region.kind != Kind.FUNCTION) {
+                    reject(region, pc, "returns outside of a function");
+                }
+                need(region, pc, h, n);
+                if (p < 0) {
+                    region.maxBuiltInArity = Math.max(region.maxBuiltInArity, n);
+                }
+                else {
+                    function(p, n, ancestor(region, d));
+                    if (d == 0) {
+                        region.owner.frame = true;
+                    }
+                }
+                break;
+            }
+            case Instruction.LAZY: {
+                int k = instruction.getArg1();
+                int p = instruction.getArg2();
+                region.owner.frame = true;
+                List<Integer> labels = region.owner.lazyCells.get(k);
+                if (labels == null) {
+                    labels = new ArrayList<Integer>();
+                    region.owner.lazyCells.put(k, labels);
+                }
+                if (!labels.contains(p)) {
+                    labels.add(p);
+                }
+                if (!thunks.containsKey(p)) {
+                    Region thunk = new Region(Kind.THUNK, p, 0, null, region.owner);
+                    thunks.put(p, thunk);
+                    worklist.add(thunk);
+                }
+                else if (thunks.get(p).owner != region.owner) {
+                    reject(region, pc, "shares a lazy variable's code with another frame");
+                }
+                reach(region, pc + 1, h, pending);
+                break;
+            }
+            default:
+                reject(region, pc, "has an unknown opcode");
+            }
+        }
+    }
+
+    private void function(int p, int arity, Region parent) {
+        Region function = functions.get(p);
+        if (function == null) {
+            function = new Region(Kind.FUNCTION, p, arity, parent, null);
+            functions.put(p, function);
+            worklist.add(function);
+        }
+        else if (function.arity != arity) {
+            throw new Error(String.format(
+                    "Function %d is invoked with %d and %d arguments.",
+                    p, function.arity, arity));
+        }
+        else if (function.parent != parent && function.parent != null) {
+            // e.g. a function invoking itself at distance 0. Fine as
+            // long as it does not access its static parent; analyze
+            // it again, without one.
+            function.parent = null;
+            if (!worklist.contains(function)) {
+                worklist.add(function);
+            }
+        }
+    }
+
+    private void jump(Region region, int pc, int h, Deque<Integer> pending) {
+        if (!region.targets.contains(pc)) {
+            region.targets.add(pc);
+        }
+        reach(region, pc, h, pending);
+    }
+
+    private void reach(Region region, int pc, int h, Deque<Integer> pending) {
+        if (pc < 0 || pc >= text.length) {
+            throw new Error(String.format(
+                    "Region %s runs out of the program at %d.", region.name(), pc));
+        }
+        Integer known = region.heights.get(pc);
+        if (known == null) {
+            region.heights.put(pc, h);
+            region.maxHeight = Math.max(region.maxHeight, h);
+            pending.add(pc);
+        }
+        else if (known != h) {
+            reject(region, pc, "is reached with different stack heights");
+        }
+    }
+
+    private void need(Region region, int pc, int h, int n) {
+        if (h < n) {
+            reject(region, pc, "takes operands from below its stack");
+        }
+    }
+
+    private static void reject(Region region, int pc, String reason) {
+        throw new Error(String.format(
+                "Cannot compile instruction %d of %s: it %s.", pc, region.name(), reason));
+    }
+
+    /**
+     * Generates the class with one method per region, and one
+     * method per cell which may hold a lazy variable.
+     */
+    private byte[] generate(Region main) {
+        ClassFile file = new ClassFile(CLASS);
+        List<Region> regions = new ArrayList<Region>();
+        regions.add(main);
+        regions.addAll(functions.values());
+        regions.addAll(thunks.values());
+        for (Region region: regions) {
+            new MethodGenerator(file, region).generate();
+            for (Map.Entry<Integer, List<Integer>> cell: region.lazyCells.entrySet()) {
+                generateForce(file, region, cell.getKey(), cell.getValue());
+            }
+        }
+        return file.toByteArray();
+    }
+
+    /** @return The name of the method loading a cell which may
+     *          hold a lazy variable. */
+    private static String force(Region owner, int k) {
+        return "load_" + owner.name() + "_" + k;
+    }
+
+    /**
+     * Generates the method loading cell k of a frame, which may
+     * hold a lazy variable. If so, its code is run and the cell
+     * is overwritten by the result, like the abstract machine
+     * does for FORCE and LAZYRETURN.
+     */
+    private void generateForce(ClassFile file, Region owner, int k, List<Integer> labels) {
+        ClassFile.Method m = file.method(force(owner, k), "(" + FRAME_TYPE + ")I", 4, 3);
+        int lazy = m.newLabel();
+        int store = m.newLabel();
+        m.local(ClassFile.ALOAD, 0);
+        m.field(ClassFile.GETFIELD, FRAME, "thunks", "[I");
+        m.push(k);
+        m.op(ClassFile.IALOAD);
+        m.local(ClassFile.ISTORE, 1);
+        m.local(ClassFile.ILOAD, 1);
+        m.branch(ClassFile.IFNE, lazy);
+        m.local(ClassFile.ALOAD, 0);
+        m.field(ClassFile.GETFIELD, FRAME, "cells", "[I");
+        m.push(k);
+        m.op(ClassFile.IALOAD);
+        m.op(ClassFile.IRETURN);
+        m.place(lazy);
+        for (int label: labels) {
+            int next = m.newLabel();
+            m.local(ClassFile.ILOAD, 1);
+            m.push(label + 1);
+            m.branch(ClassFile.IF_ICMPNE, next);
+            m.local(ClassFile.ALOAD, 0);
+            m.invokestatic(CLASS, thunks.get(label).name(), "(" + FRAME_TYPE + ")I");
+            m.local(ClassFile.ISTORE, 2);
+            m.branch(ClassFile.GOTO, store);
+            m.place(next);
+        }
+        // all labels of lazy variables in this cell are known.
+        m.push(0);
+        m.local(ClassFile.ISTORE, 2);
+        m.place(store);
+        m.local(ClassFile.ALOAD, 0);
+        m.field(ClassFile.GETFIELD, FRAME, "cells", "[I");
+        m.push(k);
+        m.local(ClassFile.ILOAD, 2);
+        m.op(ClassFile.IASTORE);
+        m.local(ClassFile.ALOAD, 0);
+        m.field(ClassFile.GETFIELD, FRAME, "thunks", "[I");
+        m.push(k);
+        m.push(0);
+        m.op(ClassFile.IASTORE);
+        m.local(ClassFile.ILOAD, 2);
+        m.op(ClassFile.IRETURN);
+        m.end();
+    }
+
+    /**
+     * Generates the method of one region.
+     */
+    private class MethodGenerator {
+        private final Region region;
+        private final ClassFile.Method m;
+        /** Local variable holding the statically enclosing frame,
+         *  or -1 if reached via the own frame. */
+        private final int parentLocal;
+        /** Local variable holding the own frame, or -1. */
+        private final int frameLocal;
+        /** First local variable for temporary values. */
+        private final int scratch;
+        /** Label of the method's first instruction. */
+        private int start;
+        private final Map<Integer, Integer> labels = new HashMap<Integer, Integer>();
+
+        MethodGenerator(ClassFile file, Region region) {
+            this.region = region;
+            if (region.kind == Kind.FUNCTION) {
+                parentLocal = region.arity;
+                frameLocal = region.frame ? region.arity + 1 : -1;
+                scratch = region.arity + 2;
+            }
+            else {
+                parentLocal = -1;
+                frameLocal = 0;
+                scratch = 1;
+            }
+            m = file.method(region.name(), region.descriptor(),
+                            region.maxHeight + EXTRA_STACK,
+                            scratch + Math.max(1, region.maxBuiltInArity));
+        }
+
+        private int label(int pc) {
+            Integer label = labels.get(pc);
+            if (label == null) {
+                label = m.newLabel();
+                labels.put(pc, label);
+            }
+            return label;
+        }
+
+        void generate() {
+            start = m.newLabel();
+            m.place(start);
+            if (region.kind == Kind.FUNCTION && region.frame) {
+                m.push(region.arity);
+                m.push(region.lazyCells.isEmpty() ? 0 : 1);
+                m.local(ClassFile.ALOAD, parentLocal);
+                m.invokestatic(FRAME, "create", "(IZ" + FRAME_TYPE + ")" + FRAME_TYPE);
+                m.local(ClassFile.ASTORE, frameLocal);
+                for (int k = 0; k < region.arity; k++) {
+                    m.local(ClassFile.ALOAD, frameLocal);
+                    m.field(ClassFile.GETFIELD, FRAME, "cells", "[I");
+                    m.push(k);
+                    m.local(ClassFile.ILOAD, k);
+                    m.op(ClassFile.IASTORE);
+                }
+            }
+            if (region.entry != region.heights.keySet().iterator().next()) {
+                // the region starts with a backward jump target.
+                m.branch(ClassFile.GOTO, label(region.entry));
+            }
+            boolean skip = false;
+            for (Map.Entry<Integer, Integer> reachable: region.heights.entrySet()) {
+                int pc = reachable.getKey();
+                if (skip) {
+                    skip = false;
+                    continue;
+                }
+                m.place(label(pc));
+                skip = instruction(pc, reachable.getValue());
+            }
+            m.end();
+        }
+
+        /**
+         * Generates the code for one instruction.
+         *
+         * @return Whether the following instruction was compiled, too.
+         */
+        private boolean instruction(int pc, int h) {
+            Instruction instruction = text[pc];
+            switch (opcode(instruction)) {
+            case Instruction.CONST:
+                m.push(instruction.getArg1());
+                break;
+            case Instruction.LOAD:
+            case Instruction.FORCE:
+                load(instruction.getArg1(), instruction.getArg2());
+                break;
+            case Instruction.STORE:
+                store(instruction.getArg1(), instruction.getArg2());
+                break;
+            case Instruction.ADD:
+                m.op(ClassFile.IADD);
+                break;
+            case Instruction.SUB:
+                m.op(ClassFile.ISUB);
+                break;
+            case Instruction.MUL:
+                m.op(ClassFile.IMUL);
+                break;
+            case Instruction.DIV:
+                m.op(ClassFile.IDIV);
+                break;
+            case Instruction.LT:
+                return compare(pc, ClassFile.IF_ICMPGE);
+            case Instruction.GT:
+                return compare(pc, ClassFile.IF_ICMPLE);
+            case Instruction.EQ:
+                return compare(pc, ClassFile.IF_ICMPNE);
+            case Instruction.NEQ:
+                return compare(pc, ClassFile.IF_ICMPEQ);
+            case Instruction.IFZERO:
+                m.branch(ClassFile.IFEQ, label(instruction.getArg1()));
+                break;
+            case Instruction.GOTO:
+                m.branch(ClassFile.GOTO, label(instruction.getArg1()));
+                break;
+            case Instruction.NOP:
+            case Instruction.JOIN:
+                break;
+            case Instruction.HALT:
+                if (region.kind != Kind.MAIN) {
+                    m.invokestatic("edu/uap/tripla/jit/Halt", "halt",
+                                   "(I)Ljava/lang/RuntimeException;");
+                    m.op(ClassFile.ATHROW);
+                }
+                else if (h == 0) {
+                    m.local(ClassFile.ALOAD, frameLocal);
+                    m.invokestatic(FRAME, "top", "(" + FRAME_TYPE + ")I");
+                    m.op(ClassFile.IRETURN);
+                }
+                else {
+                    m.op(ClassFile.IRETURN);
+                }
+                break;
+            case Instruction.RETURN:
+            case Instruction.LAZYRETURN:
+                m.op(ClassFile.IRETURN);
+                break;
+            case Instruction.INVOKE:
+            case Instruction.FORK:
+                invoke(instruction.getArg1(), instruction.getArg2(), instruction.getArg3());
+                break;
+            case Instruction.TAILINVOKE:
+                tailInvoke(h, instruction.getArg1(), instruction.getArg2(), instruction.getArg3());
+                break;
+            case Instruction.LAZY:
+                m.local(ClassFile.ALOAD, frameLocal);
+                m.field(ClassFile.GETFIELD, FRAME, "thunks", "[I");
+                m.push(instruction.getArg1());
+                m.push(instruction.getArg2() + 1);
+                m.op(ClassFile.IASTORE);
+                break;
+            }
+            return false;
+        }
+
+        /**
+         * Pushes the frame at static distance d.
+         */
+        private void frame(int d) {
+            if (parentLocal >= 0 && d > 0) {
+                m.local(ClassFile.ALOAD, parentLocal);
+                d--;
+            }
+            else {
+                m.local(ClassFile.ALOAD, frameLocal);
+            }
+            for (int i = 0; i < d; i++) {
+                m.field(ClassFile.GETFIELD, FRAME, "parent", FRAME_TYPE);
+            }
+        }
+
+        private void load(int k, int d) {
+            if (d == 0 && frameLocal < 0) {
+                m.local(ClassFile.ILOAD, k);
+                return;
+            }
+            Region target = ancestor(region, d);
+            frame(d);
+            if (target.lazyCells.containsKey(k)) {
+                m.invokestatic(CLASS, force(target, k), "(" + FRAME_TYPE + ")I");
+            }
+            else {
+                m.field(ClassFile.GETFIELD, FRAME, "cells", "[I");
+                m.push(k);
+                m.op(ClassFile.IALOAD);
+            }
+        }
+
+        private void store(int k, int d) {
+            if (d == 0 && frameLocal < 0) {
+                m.local(ClassFile.ISTORE, k);
+                return;
+            }
+            m.local(ClassFile.ISTORE, scratch);
+            frame(d);
+            m.field(ClassFile.GETFIELD, FRAME, "cells", "[I");
+            m.push(k);
+            m.local(ClassFile.ILOAD, scratch);
+            m.op(ClassFile.IASTORE);
+            if (ancestor(region, d).lazyCells.containsKey(k)) {
+                // the cell now holds a value, no lazy variable.
+                frame(d);
+                m.field(ClassFile.GETFIELD, FRAME, "thunks", "[I");
+                m.push(k);
+                m.push(0);
+                m.op(ClassFile.IASTORE);
+            }
+        }
+
+        /**
+         * Compiles a comparison. If it is directly followed by
+         * IFZERO, which is no jump target, both are compiled
+         * into a single conditional branch.
+         *
+         * @param inverse The branch taken if the comparison fails.
+         * @return Whether the following IFZERO was compiled, too.
+         */
+        private boolean compare(int pc, int inverse) {
+            int next = pc + 1;
+            if (region.heights.containsKey(next)
+                    && opcode(text[next]) == Instruction.IFZERO
+                    && !region.targets.contains(next)) {
+                int p = text[next].getArg1();
+                m.branch(inverse, label(p));
+                return true;
+            }
+            int no = m.newLabel();
+            int end = m.newLabel();
+            m.branch(inverse, no);
+            m.push(1);
+            m.branch(ClassFile.GOTO, end);
+            m.place(no);
+            m.push(0);
+            m.place(end);
+            return false;
+        }
+
+        private void invoke(int n, int p, int d) {
+            if (p >= 0) {
+                frame(d);
+                m.invokestatic(CLASS, functions.get(p).name(), functions.get(p).descriptor());
+                return;
+            }
+            // built-in functions take up to three parameters
+            // directly, more as an array.
+            for (int i = n - 1; i >= 0; i--) {
+                m.local(ClassFile.ISTORE, scratch + i);
+            }
+            m.push(p);
+            if (n <= 3) {
+                for (int i = 0; i < n; i++) {
+                    m.local(ClassFile.ILOAD, scratch + i);
+                }
+                m.invokestatic("edu/uap/tripla/tram/BuiltInFunction", "execute",
+                               "(I" + "IIII".substring(0, n) + ")I");
+                return;
+            }
+            m.push(n);
+            m.newarray(ClassFile.T_INT);
+            for (int i = 0; i < n; i++) {
+                m.op(ClassFile.DUP);
+                m.push(i);
+                m.local(ClassFile.ILOAD, scratch + i);
+                m.op(ClassFile.IASTORE);
+            }
+            m.invokestatic("edu/uap/tripla/tram/BuiltInFunction", "execute", "(I[I)I");
+        }
+
+        /**
+         * Compiles a tail call. If the function invokes itself,
+         * the arguments replace the parameters and the method
+         * starts over, so tail recursion needs no JVM stack.
+         *
+         * @param h The stack height before the instruction.
+         */
+        private void tailInvoke(int h, int n, int p, int d) {
+            if (p != region.entry || d == 0) {
+                invoke(n, p, d);
+                m.op(ClassFile.IRETURN);
+                return;
+            }
+            frame(d);
+            m.local(ClassFile.ASTORE, parentLocal);
+            for (int k = n - 1; k >= 0; k--) {
+                m.local(ClassFile.ISTORE, k);
+            }
+            // values left over by earlier statements of a sequence.
+            for (int i = n; i < h; i++) {
+                m.op(ClassFile.POP);
+            }
+            m.branch(ClassFile.GOTO, start);
+        }
+    }
+}
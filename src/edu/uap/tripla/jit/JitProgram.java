@@ -0,0 +1,89 @@
+package edu.uap.tripla.jit;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * A TRAM program compiled to JVM bytecode by @see JitCompiler.
+ * Running it yields the same results and output as running the
+ * program on the abstract machine.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public final class JitProgram {
+    /** Default stack size of the thread running the program. */
+    public static final long DEFAULT_STACK_SIZE = 256L << 20;
+
+    /** The generated class' main method, taking the root frame. */
+    private final MethodHandle main;
+    /** Stack size in bytes of the thread running the program. */
+    private long stackSize = DEFAULT_STACK_SIZE;
+
+    JitProgram(MethodHandle main) {
+        this.main = main;
+    }
+
+    /**
+     * Sets the stack size of the thread running the program. As
+     * each TRIPLA function call is a JVM call, it limits the depth
+     * of recursion like the abstract machine's maximum stack size.
+     *
+     * @param stackSize The stack size in bytes.
+     */
+    public void setStackSize(long stackSize) {
+        this.stackSize = stackSize;
+    }
+
+    /**
+     * Runs the program with an empty stack.
+     *
+     * @return The result, i.e. the topmost stack cell on HALT.
+     */
+    public int run() {
+        return run(new int[0]);
+    }
+
+    /**
+     * Runs the program, where the given cells are the stack cells
+     * below the program's first instruction, i.e. the main
+     * program's variables. The cells are updated by the program.
+     *
+     * The program runs in a thread of its own, cf.
+     * @see setStackSize(long); the calling thread waits for it.
+     *
+     * @param cells The main program's variables.
+     * @return The result, i.e. the topmost stack cell on HALT.
+     */
+    public int run(int[] cells) {
+        final int[] result = new int[1];
+        final Throwable[] thrown = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                result[0] = (int) main.invokeExact(Frame.root(cells));
+            } catch (Halt h) {
+                result[0] = h.value;
+            } catch (StackOverflowError e) {
+                thrown[0] = new Error("Stack overflow.");
+            } catch (Throwable t) {
+                thrown[0] = t;
+            }
+        }, "tripla", stackSize);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new Error("Interrupted while running.", e);
+        }
+        if (thrown[0] instanceof RuntimeException) {
+            throw (RuntimeException) thrown[0];
+        }
+        if (thrown[0] instanceof Error) {
+            throw (Error) thrown[0];
+        }
+        if (thrown[0] != null) {
+            throw new Error(thrown[0]);
+        }
+        return result[0];
+    }
+}
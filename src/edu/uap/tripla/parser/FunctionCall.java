@@ -16,6 +16,10 @@ public class FunctionCall extends AbstractSyntaxTree {
         this.arguments = arguments;
     }
     
+    public String getName() {
+        return name.getName();
+    }
+    
     public AbstractSyntaxTree[] getArguments() {
         return arguments;
     }
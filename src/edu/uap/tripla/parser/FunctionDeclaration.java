@@ -18,6 +18,10 @@ public class FunctionDeclaration extends AbstractSyntaxTree {
         body = e;
     }
     
+    public String getName() {
+        return name.getName();
+    }
+    
     public String getSignature() {
         return String.format("%s/%d", name.getName(), parameters.length);
     }
@@ -0,0 +1,183 @@
+package edu.uap.tripla.regvm;
+
+/**
+ * Instructions for the register machine, cf. @see RegisterMachine.
+ *
+ * Each instruction has an opcode and up to three int operands
+ * a, b and c. R[x] denotes register x of the current frame,
+ * U(d)[x] register x of the frame at static distance d.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class RegisterInstruction {
+
+    /** LOADK a k: R[a] = k */
+    public static final int LOADK = 1;
+    /** MOVE a b: R[a] = R[b] */
+    public static final int MOVE = 2;
+    /** ADD a b c: R[a] = R[b] + R[c] */
+    public static final int ADD = 3;
+    /** SUB a b c: R[a] = R[b] - R[c] */
+    public static final int SUB = 4;
+    /** MUL a b c: R[a] = R[b] * R[c] */
+    public static final int MUL = 5;
+    /** DIV a b c: R[a] = R[b] / R[c] */
+    public static final int DIV = 6;
+    /** ADDK a b k: R[a] = R[b] + k */
+    public static final int ADDK = 7;
+    /** SUBK a b k: R[a] = R[b] - k */
+    public static final int SUBK = 8;
+    /** LT a b c: R[a] = R[b] &lt; R[c] ? 1 : 0 */
+    public static final int LT = 9;
+    /** GT a b c: R[a] = R[b] &gt; R[c] ? 1 : 0 */
+    public static final int GT = 10;
+    /** EQ a b c: R[a] = R[b] == R[c] ? 1 : 0 */
+    public static final int EQ = 11;
+    /** NEQ a b c: R[a] = R[b] != R[c] ? 1 : 0 */
+    public static final int NEQ = 12;
+    /** JUMP p: continue at p */
+    public static final int JUMP = 13;
+    /** JUMPZ a p: continue at p if R[a] == 0 */
+    public static final int JUMPZ = 14;
+    /** JUMPGE a b p: continue at p if R[a] &gt;= R[b] */
+    public static final int JUMPGE = 15;
+    /** JUMPLE a b p: continue at p if R[a] &lt;= R[b] */
+    public static final int JUMPLE = 16;
+    /** JUMPNE a b p: continue at p if R[a] != R[b] */
+    public static final int JUMPNE = 17;
+    /** JUMPEQ a b p: continue at p if R[a] == R[b] */
+    public static final int JUMPEQ = 18;
+    /** GETUP a k d: R[a] = U(d)[k] */
+    public static final int GETUP = 19;
+    /** SETUP a k d: U(d)[k] = R[a], which is no lazy variable anymore */
+    public static final int SETUP = 20;
+    /** FORCE a k d: R[a] = U(d)[k], evaluating the lazy variable
+     *  U(d)[k] first if necessary */
+    public static final int FORCE = 21;
+    /** LAZY a p: R[a] becomes a lazy variable evaluated by the code at p */
+    public static final int LAZY = 22;
+    /** CLEAR a: R[a] = 0, which is no lazy variable */
+    public static final int CLEAR = 23;
+    /** CALL a p d: calls the function at p, whose frame starts at
+     *  R[a] holding the arguments, and whose static parent is the
+     *  frame at distance d. The result is stored in R[a]. */
+    public static final int CALL = 24;
+    /** BUILTIN a n l: R[a] = the built-in function with label l,
+     *  applied to R[a] to R[a+n-1] */
+    public static final int BUILTIN = 25;
+    /** ENTER n: the current frame has n registers; first
+     *  instruction of each function */
+    public static final int ENTER = 26;
+    /** RET a: returns R[a] to the caller */
+    public static final int RET = 27;
+    /** HALT a: stops the machine with result R[a] */
+    public static final int HALT = 28;
+    /** TAILCALL a p d: like CALL a p d followed by RET a, but the
+     *  callee reuses the current frame; requires d &gt; 0 */
+    public static final int TAILCALL = 29;
+
+    /** Upper bound of all opcodes. */
+    public static final int OPCODES = 30;
+
+    private static final String[] names = {
+        "ERROR", "LOADK", "MOVE", "ADD", "SUB", "MUL", "DIV", "ADDK", "SUBK",
+        "LT", "GT", "EQ", "NEQ", "JUMP", "JUMPZ", "JUMPGE", "JUMPLE",
+        "JUMPNE", "JUMPEQ", "GETUP", "SETUP", "FORCE", "LAZY", "CLEAR",
+        "CALL", "BUILTIN", "ENTER", "RET", "HALT", "TAILCALL"
+    };
+
+    private int opcode;
+    private int a;
+    private int b;
+    private int c;
+
+    public RegisterInstruction(int opcode, int a, int b, int c) {
+        this.opcode = opcode;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+    }
+
+    public RegisterInstruction(int opcode, int a, int b) {
+        this(opcode, a, b, 0);
+    }
+
+    public RegisterInstruction(int opcode, int a) {
+        this(opcode, a, 0, 0);
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public int getA() {
+        return a;
+    }
+
+    public int getB() {
+        return b;
+    }
+
+    public int getC() {
+        return c;
+    }
+
+    public void setA(int a) {
+        this.a = a;
+    }
+
+    public void setB(int b) {
+        this.b = b;
+    }
+
+    public void setC(int c) {
+        this.c = c;
+    }
+
+    /**
+     * Returns the mnemonic of an opcode, e.g. "LOADK".
+     *
+     * @param opcode The opcode.
+     * @return The mnemonic, or "ERROR" for unknown opcodes.
+     */
+    public static String getName(int opcode) {
+        if (opcode < 0 || opcode >= names.length) {
+            return names[0];
+        }
+        return names[opcode];
+    }
+
+    /**
+     * @return The number of operands of an opcode.
+     */
+    public static int getOperands(int opcode) {
+        switch (opcode) {
+        case JUMP:
+        case ENTER:
+        case RET:
+        case HALT:
+        case CLEAR:
+            return 1;
+        case LOADK:
+        case MOVE:
+        case JUMPZ:
+        case LAZY:
+            return 2;
+        default:
+            return 3;
+        }
+    }
+
+    @Override
+    public String toString() {
+        String s = getName(opcode) + " " + a;
+        int n = getOperands(opcode);
+        if (n > 1) {
+            s += " " + b;
+        }
+        if (n > 2) {
+            s += " " + c;
+        }
+        return s;
+    }
+}
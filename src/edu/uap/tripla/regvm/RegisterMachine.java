@@ -0,0 +1,337 @@
+package edu.uap.tripla.regvm;
+
+import java.util.Arrays;
+
+import edu.uap.tripla.tram.BuiltInFunction;
+
+/**
+ * Register-based virtual machine for TRIPLA, an alternative to the
+ * stack-based @see edu.uap.tripla.tram.AbstractMachine. Programs are
+ * produced by @see edu.uap.tripla.compiler.RegisterCompiler.
+ *
+ * Each function activation has a frame of numbered registers, which
+ * is a window into one register file. A callee's window starts at
+ * the caller's register holding the first argument, so arguments
+ * are passed without being copied, and the result is returned into
+ * that very register. Per frame, a record holds the window's base,
+ * the static parent frame, the return address and the window's size.
+ *
+ * A register may hold a lazy variable, i.e. the label of the code
+ * evaluating it. FORCE then runs that code in a frame of its own,
+ * which stores the value into the register and returns to FORCE.
+ *
+ * Instructions are stored packed into an int[] of WIDTH ints each,
+ * like @see edu.uap.tripla.tram.Bytecode.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class RegisterMachine {
+
+    /** Number of ints per instruction. */
+    public static final int WIDTH = 4;
+    /** Number of registers the register file may grow to at most. */
+    public static final int DEFAULT_MAXIMUM_REGISTERS = 1 << 22;
+
+    // the fields of a frame record.
+    private static final int BASE = 0;
+    private static final int PARENT = 1;
+    private static final int RETURN = 2;
+    private static final int SIZE = 3;
+    private static final int RECORD = 4;
+
+    /** The instructions, packed. */
+    private int[] code;
+    /** The register file. */
+    private int[] registers = new int[256];
+    /** Whether a register holds a lazy variable. */
+    private boolean[] lazy = new boolean[256];
+    /** The frame records. */
+    private int[] frames = new int[64 * RECORD];
+    private final int maximumRegisters;
+
+    /** Program Counter. */
+    private int PC;
+    /** Index of the current frame record. */
+    private int F;
+    /** Base of the current frame's register window. */
+    private int base;
+    /** Number of instructions executed in the last run. */
+    private long executed;
+
+    public RegisterMachine() {
+        this(DEFAULT_MAXIMUM_REGISTERS);
+    }
+
+    /**
+     * @param maximumRegisters Maximal size of the register file.
+     */
+    public RegisterMachine(int maximumRegisters) {
+        this.maximumRegisters = maximumRegisters;
+    }
+
+    public RegisterMachine(RegisterInstruction[] text) {
+        this();
+        load(text);
+    }
+
+    /**
+     * Loads a program.
+     *
+     * @param text The program.
+     */
+    public void load(RegisterInstruction[] text) {
+        code = new int[text.length * WIDTH];
+        for (int pc = 0; pc < text.length; pc++) {
+            RegisterInstruction instruction = text[pc];
+            code[pc * WIDTH] = instruction.getOpcode();
+            code[pc * WIDTH + 1] = instruction.getA();
+            code[pc * WIDTH + 2] = instruction.getB();
+            code[pc * WIDTH + 3] = instruction.getC();
+        }
+    }
+
+    /**
+     * Runs the loaded program until HALT.
+     *
+     * @return The result.
+     */
+    public int run() {
+        PC = 0;
+        F = 0;
+        base = 0;
+        executed = 0;
+        frames[BASE] = 0;
+        frames[PARENT] = -1;
+        frames[RETURN] = -1;
+        frames[SIZE] = 0;
+        Arrays.fill(lazy, false);
+
+        final int[] code = this.code;
+        int[] r = registers;
+        long executed = 0;
+        while (true) {
+            int i = PC * WIDTH;
+            int a = code[i + 1];
+            int b = code[i + 2];
+            int c = code[i + 3];
+            executed++;
+            switch (code[i]) {
+            case RegisterInstruction.LOADK:
+                r[base + a] = b;
+                PC++;
+                break;
+            case RegisterInstruction.MOVE:
+                r[base + a] = r[base + b];
+                PC++;
+                break;
+            case RegisterInstruction.ADD:
+                r[base + a] = r[base + b] + r[base + c];
+                PC++;
+                break;
+            case RegisterInstruction.SUB:
+                r[base + a] = r[base + b] - r[base + c];
+                PC++;
+                break;
+            case RegisterInstruction.MUL:
+                r[base + a] = r[base + b] * r[base + c];
+                PC++;
+                break;
+            case RegisterInstruction.DIV:
+                r[base + a] = r[base + b] / r[base + c];
+                PC++;
+                break;
+            case RegisterInstruction.ADDK:
+                r[base + a] = r[base + b] + c;
+                PC++;
+                break;
+            case RegisterInstruction.SUBK:
+                r[base + a] = r[base + b] - c;
+                PC++;
+                break;
+            case RegisterInstruction.LT:
+                r[base + a] = r[base + b] < r[base + c] ? 1 : 0;
+                PC++;
+                break;
+            case RegisterInstruction.GT:
+                r[base + a] = r[base + b] > r[base + c] ? 1 : 0;
+                PC++;
+                break;
+            case RegisterInstruction.EQ:
+                r[base + a] = r[base + b] == r[base + c] ? 1 : 0;
+                PC++;
+                break;
+            case RegisterInstruction.NEQ:
+                r[base + a] = r[base + b] != r[base + c] ? 1 : 0;
+                PC++;
+                break;
+            case RegisterInstruction.JUMP:
+                PC = a;
+                break;
+            case RegisterInstruction.JUMPZ:
+                PC = r[base + a] == 0 ? b : PC + 1;
+                break;
+            case RegisterInstruction.JUMPGE:
+                PC = r[base + a] >= r[base + b] ? c : PC + 1;
+                break;
+            case RegisterInstruction.JUMPLE:
+                PC = r[base + a] <= r[base + b] ? c : PC + 1;
+                break;
+            case RegisterInstruction.JUMPNE:
+                PC = r[base + a] != r[base + b] ? c : PC + 1;
+                break;
+            case RegisterInstruction.JUMPEQ:
+                PC = r[base + a] == r[base + b] ? c : PC + 1;
+                break;
+            case RegisterInstruction.GETUP:
+                r[base + a] = r[frames[frame(c) * RECORD + BASE] + b];
+                PC++;
+                break;
+            case RegisterInstruction.SETUP: {
+                int cell = frames[frame(c) * RECORD + BASE] + b;
+                r[cell] = r[base + a];
+                lazy[cell] = false;
+                PC++;
+                break;
+            }
+            case RegisterInstruction.FORCE: {
+                int parent = frame(c);
+                int cell = frames[parent * RECORD + BASE] + b;
+                if (lazy[cell]) {
+                    // evaluate in a new frame above the current one,
+                    // then execute this instruction again.
+                    push(base + frames[F * RECORD + SIZE], parent, PC);
+                    PC = r[cell];
+                }
+                else {
+                    r[base + a] = r[cell];
+                    PC++;
+                }
+                break;
+            }
+            case RegisterInstruction.LAZY:
+                r[base + a] = b;
+                lazy[base + a] = true;
+                PC++;
+                break;
+            case RegisterInstruction.CLEAR:
+                r[base + a] = 0;
+                lazy[base + a] = false;
+                PC++;
+                break;
+            case RegisterInstruction.CALL:
+                push(base + a, frame(c), PC + 1);
+                PC = b;
+                break;
+            case RegisterInstruction.TAILCALL: {
+                // the arguments, and whatever follows them, become
+                // the first registers of the current frame.
+                int parent = frame(c);
+                System.arraycopy(r, base + a, r, base,
+                                 frames[F * RECORD + SIZE] - a);
+                frames[F * RECORD + PARENT] = parent;
+                PC = b;
+                break;
+            }
+            case RegisterInstruction.BUILTIN:
+                r[base + a] = builtin(c, b, base + a);
+                PC++;
+                break;
+            case RegisterInstruction.ENTER:
+                frames[F * RECORD + SIZE] = a;
+                if (base + a > r.length) {
+                    grow(base + a);
+                    r = registers;
+                }
+                PC++;
+                break;
+            case RegisterInstruction.RET:
+                r[base] = r[base + a];
+                PC = frames[F * RECORD + RETURN];
+                F--;
+                base = frames[F * RECORD + BASE];
+                break;
+            case RegisterInstruction.HALT:
+                this.executed = executed;
+                return r[base + a];
+            default:
+                throw new Error(String.format(
+                        "Unknown opcode %d at %d.", code[i], PC));
+            }
+        }
+    }
+
+    /**
+     * Executes a built-in function, passing up to three parameters
+     * without an array.
+     *
+     * @param label The function's label.
+     * @param n The number of parameters.
+     * @param first The register holding the first parameter.
+     * @return The result.
+     */
+    private int builtin(int label, int n, int first) {
+        final int[] r = registers;
+        switch (n) {
+        case 0:
+            return BuiltInFunction.execute(label);
+        case 1:
+            return BuiltInFunction.execute(label, r[first]);
+        case 2:
+            return BuiltInFunction.execute(label, r[first], r[first + 1]);
+        case 3:
+            return BuiltInFunction.execute(label, r[first], r[first + 1], r[first + 2]);
+        default:
+            return BuiltInFunction.execute(label, Arrays.copyOfRange(r, first, first + n));
+        }
+    }
+
+    /**
+     * @return The index of the frame record at static distance d.
+     */
+    private int frame(int d) {
+        int f = F;
+        for (; d > 0; d--) {
+            f = frames[f * RECORD + PARENT];
+        }
+        return f;
+    }
+
+    /**
+     * Pushes a frame record and makes it the current frame.
+     */
+    private void push(int newBase, int parent, int returnAddress) {
+        F++;
+        if (F >= maximumRegisters) {
+            throw new Error("Stack overflow.");
+        }
+        if ((F + 1) * RECORD > frames.length) {
+            frames = Arrays.copyOf(frames, 2 * frames.length);
+        }
+        frames[F * RECORD + BASE] = newBase;
+        frames[F * RECORD + PARENT] = parent;
+        frames[F * RECORD + RETURN] = returnAddress;
+        frames[F * RECORD + SIZE] = 0;
+        base = newBase;
+    }
+
+    /**
+     * Grows the register file to hold at least the given
+     * number of registers.
+     */
+    private void grow(int size) {
+        if (size > maximumRegisters) {
+            throw new Error("Stack overflow.");
+        }
+        int length = (int) Math.min(maximumRegisters,
+                                    Math.max(size, 2L * registers.length));
+        registers = Arrays.copyOf(registers, length);
+        lazy = Arrays.copyOf(lazy, length);
+    }
+
+    /**
+     * @return The number of instructions executed by the last run.
+     */
+    public long getExecutedInstructions() {
+        return executed;
+    }
+}
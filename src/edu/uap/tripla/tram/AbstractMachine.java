@@ -1,5 +1,20 @@
 package edu.uap.tripla.tram;
 
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * Trier Abstract Machine (TRAM) is a virtual machine for the functional
  * Trier Programming Language (TRIPLA).
@@ -8,17 +23,77 @@ package edu.uap.tripla.tram;
  * purposes in the course "compilation and analysis of programs",
  * summer term 2014.
  * 
+ * The stack is stored as two parallel primitive arrays, one holding
+ * the cells' values and one holding their tags (cf. @see Tag). Thus,
+ * stepping the machine does not allocate any objects, except for
+ * another stack segment when the stack runs full.
+ * 
+ * Non-local variables and functions are found via a display, i.e.
+ * an array holding the parameter pointer of the innermost active
+ * frame per static nesting level. Hence, accessing a variable at
+ * static distance d takes constant time instead of walking d static
+ * links. A frame's link cells, starting at FP, hold
+ * [old PP, old FP, saved display entry, saved LEVEL, return address].
+ * 
+ * A lazy variable's cell holds the address of the variable's code
+ * until it is forced, cf. @see Instruction.FORCE; from then on it
+ * holds the value like any other variable.
+ * 
+ * Given a fork/join pool, the machine runs the calls of FORK on
+ * machines of their own, i.e. on stacks of their own, while it
+ * goes on with the next operand, cf. @see Instruction.FORK.
+ * 
+ * Programs are verified when loaded, cf. @see Verifier. Instructions
+ * proven to get integer operands then skip the runtime tag checks.
+ * 
  * @author Richard Kiefer, s4rikief@uni-trier.de
  *
  */
 public class AbstractMachine {
-    public boolean debug = true;
     
-    private static final int stackSize = 512;
+    /** Number of stack cells available right after construction. */
+    public static final int DEFAULT_INITIAL_STACK_SIZE = 512;
+    /** Number of stack cells the stack may grow to at most. */
+    public static final int DEFAULT_MAXIMUM_STACK_SIZE = 1 << 20;
+    /** Fuel of runs not limited in the number of instructions. */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    /** Number of instructions executed between checks for
+     *  cancellation and fuel. */
+    private static final int CHECK_INTERVAL = 1 << 12;
+    /** First int of a snapshot, "TRAM", and the snapshots' version. */
+    private static final int SNAPSHOT_MAGIC = 0x5452414D;
+    private static final int SNAPSHOT_VERSION = 2;
     
     /** The set of instructions to be executed. */
     private Instruction[] text;
-    private StackElement[] stack = new StackElement[stackSize];
+    /** The same instructions in their compact form, @see Bytecode. */
+    private int[] code;
+    /** Whether the program passed the @see Verifier. */
+    private boolean verified;
+    /** Whether the program passed the @see Verifier when loaded. */
+    private boolean verifiable;
+    /** The program shared with other machines, if loaded as such. */
+    private CompiledProgram program;
+    // The stack is split into segments of equal size, each segment
+    // consisting of a values- and a tags-array. Whenever the stack
+    // runs full, another segment is added; the live cells are never
+    // copied. Cell i lives in segment (i >>> segmentBits) at
+    // position (i & segmentMask).
+    /** The stack cells' values, one array per segment. */
+    private final int[][] valueSegments;
+    /** The stack cells' tags, one array per segment, @see Tag. */
+    private final byte[][] tagSegments;
+    private final int segmentBits;
+    private final int segmentMask;
+    /** Number of segments allocated so far. */
+    private int segments;
+    /** Maximum number of stack cells. */
+    private final int maximumStackSize;
+    /** The upmost stack cell available without adding a segment. */
+    private int limit;
+    /** The upmost stack cell reserved since the last reset; the
+     *  cells above it are still clear. */
+    private int highWater;
     /** Program Counter. Points to the current instruction in 'text'. */
     private int PC;
     /** Parameter Pointer. Points to the first parameter. */
@@ -27,53 +102,607 @@ public class AbstractMachine {
     private int FP;
     /** Points to the upmost used stack cell. */ 
     private int TOP;
+    /** Static nesting level of the code currently executed. */
+    private int LEVEL;
+    /** Parameter pointer of the innermost active frame per static
+     *  nesting level, from 0 up to LEVEL. */
+    private int[] display = new int[16];
+    /** Deepest nesting level whose display entry was set since the
+     *  machine was reset. Entries above LEVEL may still be needed
+     *  when returning to a deeper frame. */
+    private int displayHighWater;
+    
+    /** The ways the machine can dispatch instructions. */
+    public enum Dispatch {
+        /** Switches on each instruction's opcode when executing it. */
+        SWITCH,
+        /** Decodes the whole program once into handlers with
+         *  pre-resolved operands; running only calls those. */
+        THREADED
+    }
+    private Dispatch dispatch = Dispatch.SWITCH;
+    
+    /** An instruction decoded for @see Dispatch.THREADED. */
+    interface Handler {
+        void execute(AbstractMachine m);
+    }
+    /** One handler per instruction, decoded on demand. */
+    private Handler[] handlers;
+    
+    /** Observes the machine while running, @see TraceListener. */
+    private TraceListener tracer = TraceListener.NONE;
+    
+    /** Number of instructions dispatched since the program was loaded. */
+    private long executed;
+    /** Number of instructions each run may execute at most. */
+    private long fuel = UNLIMITED;
+    /** Caches the results of pure functions, if set. */
+    private MemoTable memo;
+    /** Whether the current run is to be stopped, @see cancel(). */
+    private volatile boolean cancelled;
+    /** How often each superinstruction executed its whole sequence. */
+    private final long[] fired = new long[Instruction.OPCODES];
+    
+    /** Runs the calls of FORK, if set. */
+    private ForkJoinPool forkJoinPool;
+    /** Calls are forked only if nested in less forked calls. */
+    private int forkThreshold;
+    /** Number of forked calls this machine's call is nested in,
+     *  not counting the ones pending on this machine. */
+    private int forkDepth;
+    // the forked calls not joined yet, the innermost last: per call
+    // the stack cell receiving its result, and the call itself.
+    private int[] forkCells = new int[8];
+    private Fork[] forks = new Fork[8];
+    private int pendingForks;
+    /** The machine which forked this machine's call, or null. */
+    private AbstractMachine parent;
+    
+    /**
+     * A call of FORK, run on a machine of its own.
+     */
+    @SuppressWarnings("serial")
+    private static class Fork extends RecursiveTask<Integer> {
+        private final AbstractMachine machine;
+        private final int p;
+        private final int level;
+        private final int[] arguments;
+        
+        Fork(AbstractMachine machine, int p, int level, int[] arguments) {
+            this.machine = machine;
+            this.p = p;
+            this.level = level;
+            this.arguments = arguments;
+        }
+        
+        /** @return The result, or null if the call was cancelled. */
+        @Override
+        protected Integer compute() {
+            return machine.call(p, level, arguments);
+        }
+    }
+    
+    /**
+     * Thrown when the stack would exceed its maximum size. Caught
+     * by @see evaluate() and turned into a result; it never leaves
+     * the machine.
+     */
+    @SuppressWarnings("serial")
+    private static class StackOverflow extends RuntimeException {
+        StackOverflow() {
+            super("Stack overflow.", null, false, false);
+        }
+    }
+    private static final StackOverflow stackOverflow = new StackOverflow();
+    
+    /**
+     * Thrown by JOIN when the run is cancelled while the forked call
+     * to be joined is, too. Caught by @see proceed(), which stops the
+     * run, so JOIN is executed again when the run is resumed.
+     */
+    @SuppressWarnings("serial")
+    private static class Cancellation extends RuntimeException {
+        Cancellation() {
+            super("Cancelled.", null, false, false);
+        }
+    }
+    private static final Cancellation cancellation = new Cancellation();
     
 
     public AbstractMachine() {
+        this(DEFAULT_INITIAL_STACK_SIZE, DEFAULT_MAXIMUM_STACK_SIZE);
+    }
+    
+    /**
+     * Creates a machine whose stack starts with at least
+     * initialStackSize cells and grows on demand up to
+     * maximumStackSize cells. A program which needs more
+     * cells is stopped with @see Result.Status.STACK_OVERFLOW.
+     * 
+     * @param initialStackSize Minimal number of cells allocated upfront.
+     * @param maximumStackSize Maximal number of cells.
+     */
+    public AbstractMachine(int initialStackSize, int maximumStackSize) {
+        if (initialStackSize < 1 || maximumStackSize < initialStackSize) {
+            throw new Error(String.format(
+                    "Illegal stack sizes: initially %d, at most %d.",
+                    initialStackSize,
+                    maximumStackSize));
+        }
+        // segments have the size of the smallest power of two
+        // not less than the initial stack size.
+        segmentBits = 32 - Integer.numberOfLeadingZeros(initialStackSize - 1);
+        segmentMask = (1 << segmentBits) - 1;
+        this.maximumStackSize = maximumStackSize;
+        int maximumSegments = (int)(((long)maximumStackSize + segmentMask) >>> segmentBits);
+        valueSegments = new int[maximumSegments][];
+        tagSegments = new byte[maximumSegments][];
+        addSegment();
+        highWater = limit;
         reset();
     }
     
     public AbstractMachine(Instruction[] text) {
+        this();
         load(text);
     }
     
+    /**
+     * Creates a machine for a call forked by the given machine,
+     * sharing its program and its settings for forking.
+     * 
+     * @param parent The forking machine.
+     * @param depth The number of forked calls the call is nested in.
+     */
+    private AbstractMachine(AbstractMachine parent, int depth) {
+        this(parent.segmentMask + 1, parent.maximumStackSize);
+        this.program = parent.program;
+        this.text = parent.text;
+        this.code = parent.code;
+        this.verified = parent.verified;
+        this.verifiable = parent.verifiable;
+        this.dispatch = parent.dispatch;
+        this.handlers = parent.handlers;
+        this.forkJoinPool = parent.forkJoinPool;
+        this.forkThreshold = parent.forkThreshold;
+        this.forkDepth = depth;
+        this.parent = parent;
+    }
+    
+    /**
+     * Loads a program and resets the machine. Loading the very program
+     * loaded before, i.e. the same array, reuses its packed and decoded
+     * form, so a machine running one program repeatedly does not
+     * allocate anything. Hence, a loaded program must not be modified.
+     * 
+     * The machine keeps the given instructions next to their packed
+     * form, cf. @see Bytecode, for @see getProgram(),
+     * @see getInstruction(int), error messages and snapshots. Only
+     * running the program uses the packed form. So a loaded program
+     * takes the memory of the instructions plus 4 ints per
+     * instruction, i.e. more than the instructions alone, not less.
+     * 
+     * @param text The program.
+     */
     public void load(Instruction[] text) {
        reset();
+       if (program == null && text == this.text && verified == verifiable) {
+           return;
+       }
+       this.program = null;
        this.text = text;
+       this.code = Verifier.pack(text);
+       this.verified = code != null;
+       this.verifiable = verified;
+       if (!verified) {
+           this.code = Bytecode.pack(text);
+       }
+       this.handlers = null;
     }
     
+    /**
+     * Loads a program which other machines may run at the same
+     * time, and resets the machine.
+     * 
+     * @param program The program.
+     */
+    public void load(CompiledProgram program) {
+       reset();
+       if (program == this.program && verified == verifiable) {
+           return;
+       }
+       this.program = program;
+       this.text = program.text();
+       this.code = program.code();
+       this.verified = program.isVerified();
+       this.verifiable = verified;
+       this.handlers = null;
+    }
+    
+    /**
+     * Runs the loaded program and returns its result.
+     * Throws an error if the program does not halt regularly,
+     * cf. @see evaluate().
+     * 
+     * @return The value of the topmost stack cell.
+     */
     public int run() {
-        while (PC >= 0) {
-            debug();
-            execute(text[PC]);
+        Result.Status status = proceed();
+        if (status != Result.Status.HALTED) {
+            throw new Error(String.format(
+                    "The run did not halt regularly: %s.", status));
         }
-        debug();
-
-        return stack[TOP].value; // may throw an array-out-of-bounce error
+        return value(TOP); // may throw an array-out-of-bounce error
     }
     
+    /**
+     * Runs the loaded program until it halts or until the
+     * machine has to stop it.
+     * 
+     * A run which ran out of fuel or was cancelled can be resumed
+     * by evaluating again, cf. @see setFuel(long) and @see cancel().
+     * 
+     * @return The result.
+     */
+    public Result evaluate() {
+        Result.Status status = proceed();
+        if (status != Result.Status.HALTED) {
+            return Result.stopped(status);
+        }
+        return Result.halted(value(TOP)); // may throw an array-out-of-bounce error
+    }
+    
+    /**
+     * Runs the loaded program, cf. @see evaluate(), without
+     * allocating a result.
+     * 
+     * @return How the run ended.
+     */
+    private Result.Status proceed() {
+        if (tracer != TraceListener.NONE) {
+            return proceedTraced();
+        }
+        // the checks run every CHECK_INTERVAL instructions, so the
+        // loops dispatching the instructions only count down a local.
+        final long end = fuel == UNLIMITED ? UNLIMITED : executed + fuel;
+        try {
+            if (dispatch == Dispatch.THREADED) {
+                if (handlers == null) {
+                    handlers = program != null && code == program.code()
+                             ? program.handlers()
+                             : decode(code);
+                }
+                final Handler[] handlers = this.handlers;
+                while (PC >= 0) {
+                    final int n = (int) Math.min(CHECK_INTERVAL, end - executed);
+                    int left = n;
+                    try {
+                        while (PC >= 0 && left > 0) {
+                            left--;
+                            handlers[PC].execute(this);
+                        }
+                    } finally {
+                        executed += n - left;
+                    }
+                    if (PC >= 0 && (isCancelled() || executed == end)) {
+                        return interrupted();
+                    }
+                }
+            } else {
+                while (PC >= 0) {
+                    final int n = (int) Math.min(CHECK_INTERVAL, end - executed);
+                    int left = n;
+                    try {
+                        while (PC >= 0 && left > 0) {
+                            left--;
+                            execute(PC);
+                        }
+                    } finally {
+                        executed += n - left;
+                    }
+                    if (PC >= 0 && (isCancelled() || executed == end)) {
+                        return interrupted();
+                    }
+                }
+            }
+        } catch (StackOverflow e) {
+            cancelForks();
+            return Result.Status.STACK_OVERFLOW;
+        } catch (Cancellation e) {
+            return interrupted();
+        }
+        return Result.Status.HALTED;
+    }
+    
+    /**
+     * Like @see proceed(), but reports each step to the trace listener.
+     * 
+     * @return How the run ended.
+     */
+    private Result.Status proceedTraced() {
+        final TraceListener tracer = this.tracer;
+        final long end = fuel == UNLIMITED ? UNLIMITED : executed + fuel;
+        try {
+            if (dispatch == Dispatch.THREADED) {
+                if (handlers == null) {
+                    handlers = program != null && code == program.code()
+                             ? program.handlers()
+                             : decode(code);
+                }
+                final Handler[] handlers = this.handlers;
+                while (PC >= 0) {
+                    if (isCancelled() || executed == end) {
+                        // the run may be resumed, so it did not stop.
+                        return interrupted();
+                    }
+                    tracer.step(this);
+                    executed++;
+                    handlers[PC].execute(this);
+                }
+            } else {
+                while (PC >= 0) {
+                    if (isCancelled() || executed == end) {
+                        // the run may be resumed, so it did not stop.
+                        return interrupted();
+                    }
+                    tracer.step(this);
+                    executed++;
+                    execute(PC);
+                }
+            }
+        } catch (StackOverflow e) {
+            cancelForks();
+            tracer.stopped(this);
+            return Result.Status.STACK_OVERFLOW;
+        } catch (Cancellation e) {
+            return interrupted();
+        }
+        tracer.stopped(this);
+        return Result.Status.HALTED;
+    }
+    
+    /**
+     * @return How a run stopped before it halted,
+     *         consuming a cancellation.
+     */
+    private Result.Status interrupted() {
+        if (isCancelled()) {
+            // no forked call is left running in the pool.
+            cancelForks();
+            cancelled = false;
+            return Result.Status.CANCELLED;
+        }
+        return Result.Status.OUT_OF_FUEL;
+    }
+    
+    /**
+     * @return Whether this machine's run, or the run of a machine
+     *         which forked it, is cancelled.
+     */
+    private boolean isCancelled() {
+        for (AbstractMachine machine = this; machine != null; machine = machine.parent) {
+            if (machine.cancelled) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Cancels the pending forked calls and waits until they stopped.
+     * They stay pending, so a resumed run joins them.
+     */
+    private void cancelForks() {
+        for (int i = 0; i < pendingForks; i++) {
+            forks[i].machine.cancel();
+        }
+        for (int i = 0; i < pendingForks; i++) {
+            forks[i].quietlyJoin();
+        }
+    }
+    
+    /**
+     * Limits the number of instructions each call of @see evaluate()
+     * may execute. A run exceeding it is stopped with
+     * @see Result.Status.OUT_OF_FUEL.
+     * 
+     * @param fuel The number of instructions, or @see UNLIMITED.
+     */
+    public void setFuel(long fuel) {
+        if (fuel < 1) {
+            throw new Error(String.format("Illegal fuel %d.", fuel));
+        }
+        this.fuel = fuel;
+    }
+    
+    public long getFuel() {
+        return fuel;
+    }
+    
+    /**
+     * Memoizes calls of pure functions of the loaded program from now
+     * on, cf. @see MemoTable, or stops memoizing.
+     * 
+     * @param memo The table for the loaded program, or null.
+     */
+    public void setMemoTable(MemoTable memo) {
+        if (memo != null) {
+            memo.abandon();
+        }
+        this.memo = memo;
+    }
+    
+    public MemoTable getMemoTable() {
+        return memo;
+    }
+    
+    /**
+     * Lets the machine run the calls of FORK in a fork/join pool from
+     * now on, each on a machine of its own, or stops doing so. Calls
+     * are forked only if the machine neither traces, nor limits fuel,
+     * nor memoizes calls; otherwise FORK is just INVOKE.
+     * 
+     * Calls within a forked call, or within the right operand next
+     * to one, may fork again, so the number of tasks may double per
+     * level of nesting. Calls nested in threshold forked calls run on
+     * the machine at hand instead, which keeps each task big enough
+     * to pay off; at most 2^threshold calls run at once.
+     * 
+     * Cancelling the run, cf. @see cancel(), cancels the forked calls,
+     * too; the run stops once they have stopped, so no task is left
+     * running in the pool. When the run is resumed, a cancelled
+     * forked call is resumed on this machine once joined. Likewise,
+     * a run overflowing the stack, or a reset of the machine, stops
+     * the pending forked calls.
+     * 
+     * @param pool The pool, or null to run all calls on this machine.
+     * @param threshold The depth up to which calls are forked.
+     */
+    public void setForkJoinPool(ForkJoinPool pool, int threshold) {
+        if (threshold < 0) {
+            throw new Error(String.format("Illegal threshold %d.", threshold));
+        }
+        this.forkJoinPool = pool;
+        this.forkThreshold = threshold;
+    }
+    
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+    
+    /**
+     * Asks the machine to stop the current run, which then ends with
+     * @see Result.Status.CANCELLED. May be called from any thread.
+     * The machine checks for it every few thousand instructions; if
+     * no run is active, the next run is stopped right away. Forked
+     * calls are cancelled, too, cf. @see setForkJoinPool(ForkJoinPool, int).
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    /**
+     * Sets the listener observing the machine while it runs,
+     * e.g. a @see PrintTracer.
+     * 
+     * @param tracer The listener, or null for none.
+     */
+    public void setTraceListener(TraceListener tracer) {
+        this.tracer = tracer == null ? TraceListener.NONE : tracer;
+    }
+    
+    public TraceListener getTraceListener() {
+        return tracer;
+    }
+    
+    /**
+     * Selects how instructions are dispatched, cf. @see Dispatch.
+     * Both ways yield the same results.
+     * 
+     * @param dispatch The kind of dispatch.
+     */
+    public void setDispatch(Dispatch dispatch) {
+        this.dispatch = dispatch;
+    }
+    
+    public Dispatch getDispatch() {
+        return dispatch;
+    }
+    
+    /**
+     * @return Whether the loaded program passed the @see Verifier,
+     *         i.e. runs without some of the runtime tag checks.
+     */
+    public boolean isVerified() {
+        return verified;
+    }
+    
+    /**
+     * Resets the registers and clears the stack cells used since
+     * the last reset, i.e. up to the high-water mark.
+     */
     private void reset() {
-        for (int i = 0; i < stack.length; i++) {
-            stack[i] = new StackElement();
+        for (int i = 0; (i << segmentBits) <= highWater; i++) {
+            int end = Math.min(highWater - (i << segmentBits), segmentMask) + 1;
+            Arrays.fill(valueSegments[i], 0, end, 0);
+            Arrays.fill(tagSegments[i], 0, end, Tag.I);
         }
+        highWater = -1;
+        Arrays.fill(fired, 0);
+        executed = 0;
+        cancelled = false;
+        if (memo != null) {
+            memo.abandon();
+        }
+        cancelForks();
+        Arrays.fill(forks, 0, pendingForks, null);
+        pendingForks = 0;
         PC = 0;
         PP = 0;
         FP = 0;
         TOP = -1;
+        LEVEL = 0;
+        display[0] = 0;
+        displayHighWater = 0;
+    }
+    
+    /**
+     * Makes sure there are at least n stack cells above TOP.
+     * 
+     * @param n The number of cells about to be pushed.
+     */
+    private void reserve(int n) {
+        if (TOP + n > highWater) {
+            raise(TOP + n);
+        }
     }
     
-    private void execute(Instruction instruction) {
+    /**
+     * Raises the high-water mark to the given cell,
+     * adding segments if necessary.
+     * 
+     * @param cell The stack cell about to be used.
+     */
+    private void raise(int cell) {
+        grow(cell);
+        highWater = cell;
+    }
+    
+    /**
+     * Adds segments until the given cell is available.
+     * 
+     * @param cell The stack cell which has to be available.
+     */
+    private void grow(int cell) {
+        while (cell > limit) {
+            if (limit == maximumStackSize - 1) {
+                throw stackOverflow;
+            }
+            addSegment();
+        }
+    }
+    
+    private void addSegment() {
+        valueSegments[segments] = new int[segmentMask + 1];
+        tagSegments[segments] = new byte[segmentMask + 1];
+        segments++;
+        limit = (int)Math.min((long)segments << segmentBits, maximumStackSize) - 1;
+    }
+    
+    private void execute(int pc) {
+        final int[] code = this.code;
+        final int i = pc * Bytecode.WIDTH;
        
-        switch (instruction.getOpcode())
+        switch (code[i])
         {
             case Instruction.CONST:
-                _const(instruction.getArg1());
+                _const(code[i + 1]);
                 break;
             case Instruction.LOAD:
-                _load(instruction.getArg1(), instruction.getArg2());
+                _load(code[i + 1], code[i + 2]);
                 break;
             case Instruction.STORE:
-                _store(instruction.getArg1(), instruction.getArg2());
+                _store(code[i + 1], code[i + 2]);
                 break;
             case Instruction.ADD:
                 _add();
@@ -100,10 +729,10 @@ public class AbstractMachine {
                 _neq();
                 break;
             case Instruction.IFZERO:
-                _ifzero(instruction.getArg1());
+                _ifzero(code[i + 1]);
                 break;
             case Instruction.GOTO:
-                _goto(instruction.getArg1());
+                _goto(code[i + 1]);
                 break;
             case Instruction.HALT:
                 _halt();
@@ -112,137 +741,651 @@ public class AbstractMachine {
                 _nop();
                 break;
             case Instruction.INVOKE:
-                _invoke(instruction.getArg1(),
-                        instruction.getArg2(),
-                        instruction.getArg3());
+                _invoke(code[i + 1],
+                        code[i + 2],
+                        code[i + 3]);
                 break;
             case Instruction.RETURN:
                 _return();
                 break;
             case Instruction.LAZY:
-                _lazy(instruction.getArg1(), instruction.getArg2());
+                _lazy(code[i + 1], code[i + 2]);
                 break;
             case Instruction.LAZYRETURN:
                 _lazyreturn();
                 break;
+            case Instruction.LOAD_LOAD_MUL:
+                _loadloadmul(code[i + 1], code[i + 2]);
+                break;
+            case Instruction.CONST_ADD:
+                _constadd(code[i + 1]);
+                break;
+            case Instruction.CONST_SUB:
+                _constsub(code[i + 1]);
+                break;
+            case Instruction.LT_IFZERO:
+                _ltifzero(code[i + 1]);
+                break;
+            case Instruction.GT_IFZERO:
+                _gtifzero(code[i + 1]);
+                break;
+            case Instruction.EQ_IFZERO:
+                _eqifzero(code[i + 1]);
+                break;
+            case Instruction.NEQ_IFZERO:
+                _neqifzero(code[i + 1]);
+                break;
+            case Instruction.STORE_LOAD:
+                _storeload(code[i + 1], code[i + 2]);
+                break;
+            case Instruction.TAILINVOKE:
+                _tailinvoke(code[i + 1],
+                            code[i + 2],
+                            code[i + 3]);
+                break;
+            case Instruction.FORCE:
+                _force(code[i + 1], code[i + 2]);
+                break;
+            case Instruction.FORK:
+                _fork(code[i + 1],
+                      code[i + 2],
+                      code[i + 3]);
+                break;
+            case Instruction.JOIN:
+                _join();
+                break;
+            // instructions proven to need no tag checks, cf. @see Verifier.
+            case Instruction.LOAD + Bytecode.UNCHECKED:
+                _loadUnchecked(code[i + 1], code[i + 2]);
+                break;
+            case Instruction.ADD + Bytecode.UNCHECKED:
+                _addUnchecked();
+                break;
+            case Instruction.SUB + Bytecode.UNCHECKED:
+                _subUnchecked();
+                break;
+            case Instruction.MUL + Bytecode.UNCHECKED:
+                _mulUnchecked();
+                break;
+            case Instruction.DIV + Bytecode.UNCHECKED:
+                _divUnchecked();
+                break;
+            case Instruction.LT + Bytecode.UNCHECKED:
+                _ltUnchecked();
+                break;
+            case Instruction.GT + Bytecode.UNCHECKED:
+                _gtUnchecked();
+                break;
+            case Instruction.EQ + Bytecode.UNCHECKED:
+                _eqUnchecked();
+                break;
+            case Instruction.NEQ + Bytecode.UNCHECKED:
+                _neqUnchecked();
+                break;
+            case Instruction.LOAD_LOAD_MUL + Bytecode.UNCHECKED:
+                _loadloadmulUnchecked(code[i + 1], code[i + 2]);
+                break;
+            case Instruction.CONST_ADD + Bytecode.UNCHECKED:
+                _constaddUnchecked(code[i + 1]);
+                break;
+            case Instruction.CONST_SUB + Bytecode.UNCHECKED:
+                _constsubUnchecked(code[i + 1]);
+                break;
+            case Instruction.LT_IFZERO + Bytecode.UNCHECKED:
+                _ltifzeroUnchecked(code[i + 1]);
+                break;
+            case Instruction.GT_IFZERO + Bytecode.UNCHECKED:
+                _gtifzeroUnchecked(code[i + 1]);
+                break;
+            case Instruction.EQ_IFZERO + Bytecode.UNCHECKED:
+                _eqifzeroUnchecked(code[i + 1]);
+                break;
+            case Instruction.NEQ_IFZERO + Bytecode.UNCHECKED:
+                _neqifzeroUnchecked(code[i + 1]);
+                break;
+            case Instruction.STORE_LOAD + Bytecode.UNCHECKED:
+                _storeloadUnchecked(code[i + 1], code[i + 2]);
+                break;
             default:
                 throw new Error(String.format(
                                     "Unknown opcode in instruction %d: %s",
-                                    PC,
-                                    instruction)
+                                    pc,
+                                    text[pc])
                                );
         }
     }
 
+    /**
+     * Decodes a packed program for @see Dispatch.THREADED: each
+     * instruction becomes a handler which calls the instruction's
+     * implementation with its operands already resolved. Handlers
+     * do not depend on a machine, so machines may share them.
+     * 
+     * @param code The program, cf. @see Bytecode.
+     * @return One handler per instruction.
+     */
+    static Handler[] decode(int[] code) {
+        Handler[] handlers = new Handler[code.length / Bytecode.WIDTH];
+        for (int pc = 0; pc < handlers.length; pc++) {
+            final int i = pc * Bytecode.WIDTH;
+            final int arg1 = code[i + 1];
+            final int arg2 = code[i + 2];
+            final int arg3 = code[i + 3];
+            Handler h;
+            switch (code[i])
+            {
+                case Instruction.CONST:
+                    h = m -> m._const(arg1);
+                    break;
+                case Instruction.LOAD:
+                    h = m -> m._load(arg1, arg2);
+                    break;
+                case Instruction.STORE:
+                    h = m -> m._store(arg1, arg2);
+                    break;
+                case Instruction.ADD:
+                    h = m -> m._add();
+                    break;
+                case Instruction.SUB:
+                    h = m -> m._sub();
+                    break;
+                case Instruction.MUL:
+                    h = m -> m._mul();
+                    break;
+                case Instruction.DIV:
+                    h = m -> m._div();
+                    break;
+                case Instruction.LT:
+                    h = m -> m._lt();
+                    break;
+                case Instruction.GT:
+                    h = m -> m._gt();
+                    break;
+                case Instruction.EQ:
+                    h = m -> m._eq();
+                    break;
+                case Instruction.NEQ:
+                    h = m -> m._neq();
+                    break;
+                case Instruction.IFZERO:
+                    h = m -> m._ifzero(arg1);
+                    break;
+                case Instruction.GOTO:
+                    h = m -> m._goto(arg1);
+                    break;
+                case Instruction.HALT:
+                    h = m -> m._halt();
+                    break;
+                case Instruction.NOP:
+                    h = m -> m._nop();
+                    break;
+                case Instruction.INVOKE:
+                    h = m -> m._invoke(arg1, arg2, arg3);
+                    break;
+                case Instruction.RETURN:
+                    h = m -> m._return();
+                    break;
+                case Instruction.LAZY:
+                    h = m -> m._lazy(arg1, arg2);
+                    break;
+                case Instruction.LAZYRETURN:
+                    h = m -> m._lazyreturn();
+                    break;
+                case Instruction.LOAD_LOAD_MUL:
+                    h = m -> m._loadloadmul(arg1, arg2);
+                    break;
+                case Instruction.CONST_ADD:
+                    h = m -> m._constadd(arg1);
+                    break;
+                case Instruction.CONST_SUB:
+                    h = m -> m._constsub(arg1);
+                    break;
+                case Instruction.LT_IFZERO:
+                    h = m -> m._ltifzero(arg1);
+                    break;
+                case Instruction.GT_IFZERO:
+                    h = m -> m._gtifzero(arg1);
+                    break;
+                case Instruction.EQ_IFZERO:
+                    h = m -> m._eqifzero(arg1);
+                    break;
+                case Instruction.NEQ_IFZERO:
+                    h = m -> m._neqifzero(arg1);
+                    break;
+                case Instruction.STORE_LOAD:
+                    h = m -> m._storeload(arg1, arg2);
+                    break;
+                case Instruction.TAILINVOKE:
+                    h = m -> m._tailinvoke(arg1, arg2, arg3);
+                    break;
+                case Instruction.FORCE:
+                    h = m -> m._force(arg1, arg2);
+                    break;
+                case Instruction.FORK:
+                    h = m -> m._fork(arg1, arg2, arg3);
+                    break;
+                case Instruction.JOIN:
+                    h = m -> m._join();
+                    break;
+                case Instruction.LOAD + Bytecode.UNCHECKED:
+                    h = m -> m._loadUnchecked(arg1, arg2);
+                    break;
+                case Instruction.ADD + Bytecode.UNCHECKED:
+                    h = m -> m._addUnchecked();
+                    break;
+                case Instruction.SUB + Bytecode.UNCHECKED:
+                    h = m -> m._subUnchecked();
+                    break;
+                case Instruction.MUL + Bytecode.UNCHECKED:
+                    h = m -> m._mulUnchecked();
+                    break;
+                case Instruction.DIV + Bytecode.UNCHECKED:
+                    h = m -> m._divUnchecked();
+                    break;
+                case Instruction.LT + Bytecode.UNCHECKED:
+                    h = m -> m._ltUnchecked();
+                    break;
+                case Instruction.GT + Bytecode.UNCHECKED:
+                    h = m -> m._gtUnchecked();
+                    break;
+                case Instruction.EQ + Bytecode.UNCHECKED:
+                    h = m -> m._eqUnchecked();
+                    break;
+                case Instruction.NEQ + Bytecode.UNCHECKED:
+                    h = m -> m._neqUnchecked();
+                    break;
+                case Instruction.LOAD_LOAD_MUL + Bytecode.UNCHECKED:
+                    h = m -> m._loadloadmulUnchecked(arg1, arg2);
+                    break;
+                case Instruction.CONST_ADD + Bytecode.UNCHECKED:
+                    h = m -> m._constaddUnchecked(arg1);
+                    break;
+                case Instruction.CONST_SUB + Bytecode.UNCHECKED:
+                    h = m -> m._constsubUnchecked(arg1);
+                    break;
+                case Instruction.LT_IFZERO + Bytecode.UNCHECKED:
+                    h = m -> m._ltifzeroUnchecked(arg1);
+                    break;
+                case Instruction.GT_IFZERO + Bytecode.UNCHECKED:
+                    h = m -> m._gtifzeroUnchecked(arg1);
+                    break;
+                case Instruction.EQ_IFZERO + Bytecode.UNCHECKED:
+                    h = m -> m._eqifzeroUnchecked(arg1);
+                    break;
+                case Instruction.NEQ_IFZERO + Bytecode.UNCHECKED:
+                    h = m -> m._neqifzeroUnchecked(arg1);
+                    break;
+                case Instruction.STORE_LOAD + Bytecode.UNCHECKED:
+                    h = m -> m._storeloadUnchecked(arg1, arg2);
+                    break;
+                default:
+                    // fail only if the instruction is ever executed,
+                    // just like the switch-dispatch does.
+                    h = m -> m.execute(m.PC);
+            }
+            handlers[pc] = h;
+        }
+        return handlers;
+    }
+
     private void _load(int k, int d) {
-        int spp = spp(d, PP, FP);
-        switch (stack[spp + k].tag) {
-        case I:
-            stack[TOP + 1].assign(stack[spp + k]);
-            TOP = TOP + 1;
-            PC = PC + 1;
-            break;
-        case C:
-            stack[TOP + 1].assign(PC + 1, StackElement.Tag.P);
-            stack[TOP + 2].assign(spp + k, StackElement.Tag.I);
-            stack[TOP + 3].assign(FP, StackElement.Tag.P);
-            stack[TOP + 4].assign(PP, StackElement.Tag.P);
-            TOP = TOP + 4;
-            PC = stack[stack[spp + k].value].value;
-            FP = stack[stack[spp + k].value + 1].value;
-            PP = stack[stack[spp + k].value + 2].value;
-            break;
-        default:
-            throw new Error(String.format(
-                                "Unexpected tag for stack element %d: %s",
-                                spp + k,
-                                stack[spp + k])
-                           );    
+        if (tag(spp(d) + k) == Tag.C) {
+            _force(k, d);
+            return;
         }
+        _loadUnchecked(k, d);
+    }
+
+    /** LOAD of a cell which is never a lazy variable. */
+    private void _loadUnchecked(int k, int d) {
+        reserve(1);
+        assign(TOP + 1, value(spp(d) + k), Tag.I);
+        TOP = TOP + 1;
+        PC = PC + 1;
     }
 
     private void _store(int k, int d) {
-        stack[spp(d, PP, FP) + k].assign(stack[TOP]);
+        copy(TOP, spp(d) + k);
         TOP = TOP - 1;
         PC = PC + 1;
     }
     
     private void _lazy(int k, int p) {
-        stack[PP + k].assign(TOP + 1, StackElement.Tag.C);
-        stack[TOP + 1].assign(p,  StackElement.Tag.P); 
-        stack[TOP + 2].assign(FP, StackElement.Tag.I); 
-        stack[TOP + 3].assign(PP, StackElement.Tag.I);
-        TOP = TOP + 3;
+        // the variable's cell holds the address of its code; the
+        // frame to run it in is found again when it is forced.
+        assign(PP + k, p, Tag.C);
         PC = PC + 1;
     }
 
+    private void _force(int k, int d) {
+        int a = spp(d) + k;
+        switch (tag(a)) {
+        case Tag.I:
+            _loadUnchecked(k, d);
+            break;
+        case Tag.C:
+            // link cells: [variable's cell, saved LEVEL, return address].
+            // PP is display[LEVEL] at all times, so it is not saved,
+            // and the code neither returns nor replaces a frame, so
+            // it keeps FP as it is.
+            reserve(3);
+            assign(TOP + 1, a, Tag.I);
+            assign(TOP + 2, LEVEL, Tag.I);
+            assign(TOP + 3, PC + 1, Tag.P);
+            TOP = TOP + 3;
+            // the code runs in the frame declaring the variable,
+            // whose static chain is still the display's prefix up
+            // to that frame's level.
+            LEVEL = LEVEL - d;
+            PP = display[LEVEL];
+            PC = value(a);
+            break;
+        default:
+            throw new Error(String.format(
+                                "Unexpected tag for stack element %d: %s",
+                                a,
+                                Tag.toString(value(a), tag(a)))
+                           );
+        }
+    }
+
     private void _lazyreturn() {
-        PC = stack[TOP - 4].value;
-        stack[stack[TOP - 3].value].assign(stack[TOP]);
-        FP = stack[TOP - 2].value;
-        PP = stack[TOP - 1].value;
-        stack[TOP - 4].assign(stack[TOP]);
-        TOP = TOP - 4;
+        int result = value(TOP);
+        assign(value(TOP - 3), result, Tag.I);
+        LEVEL = value(TOP - 2);
+        PC = value(TOP - 1);
+        PP = display[LEVEL];
+        TOP = TOP - 3;
+        assign(TOP, result, Tag.I);
     }
 
 
     private void _return() {
-        StackElement result = stack[TOP];
+        int result = value(TOP);
+        byte resultTag = tag(TOP);
+        if (memo != null) {
+            memo.returned(PP, result);
+        }
         TOP = PP;
-        PP = stack[FP].value;
-        PC = stack[FP + 4].value;
-        FP = stack[FP + 1].value;
-        stack[TOP].assign(result);
+        display[LEVEL] = value(FP + 2);
+        LEVEL = value(FP + 3);
+        PP = value(FP);
+        PC = value(FP + 4);
+        FP = value(FP + 1);
+        assign(TOP, result, resultTag);
     }
 
     private void _invoke(int n, int p, int d) {
         // built-in functions are identified by
         // invoke-instructions with negative labels.
         if (p < 0) {
-            int[] parameters = new int[n];
-            for (int i = 1; i <= n; i++) {
-                parameters[i-1] = stack[TOP - n + i].value;
+            // up to three parameters are passed without an array.
+            int result;
+            switch (n) {
+            case 0:
+                reserve(1);
+                result = BuiltInFunction.execute(p);
+                break;
+            case 1:
+                result = BuiltInFunction.execute(p, value(TOP));
+                break;
+            case 2:
+                result = BuiltInFunction.execute(p, value(TOP - 1), value(TOP));
+                break;
+            case 3:
+                result = BuiltInFunction.execute(p, value(TOP - 2), value(TOP - 1), value(TOP));
+                break;
+            default:
+                int[] parameters = new int[n];
+                for (int i = 1; i <= n; i++) {
+                    parameters[i-1] = value(TOP - n + i);
+                }
+                result = BuiltInFunction.execute(p, parameters);
             }
-            int result = BuiltInFunction.execute(p, parameters);
             TOP = TOP - n + 1;
-            stack[TOP].value = result; 
+            assign(TOP, result, Tag.I);
             PC = PC + 1;
         }
         else {
-            stack[TOP + 1].assign(PP, StackElement.Tag.I);
-            stack[TOP + 2].assign(FP, StackElement.Tag.I);
-            stack[TOP + 3].assign(spp(d, PP, FP), StackElement.Tag.I);
-            stack[TOP + 4].assign(sfp(d, PP, FP), StackElement.Tag.I);
-            stack[TOP + 5].assign(PC + 1, StackElement.Tag.P);
+            if (memo != null && memo.isCached(p, n) && memoized(n, p, TOP - n + 1)) {
+                PC = PC + 1;
+                return;
+            }
+            // the callee is nested in the frame at static distance
+            // d, so its level is one below that frame's level.
+            int level = LEVEL - d + 1;
+            if (level < 0) {
+                throw new Error(String.format(
+                        "Invalid static distance %d at level %d.", d, LEVEL));
+            }
+            if (level == display.length) {
+                display = Arrays.copyOf(display, 2 * display.length);
+            }
+            reserve(5);
+            assign(TOP + 1, PP, Tag.I);
+            assign(TOP + 2, FP, Tag.I);
+            assign(TOP + 3, display[level], Tag.I);
+            assign(TOP + 4, LEVEL, Tag.I);
+            assign(TOP + 5, PC + 1, Tag.P);
             PP = TOP - n + 1;
             FP = TOP + 1;
             TOP = TOP + 5;
             PC = p;
+            LEVEL = level;
+            display[level] = PP;
+            if (level > displayHighWater) {
+                displayHighWater = level;
+            }
         }
     }
     
+    private void _fork(int n, int p, int d) {
+        // the pending forks are the ones whose right operand
+        // this call is part of.
+        int depth = forkDepth + pendingForks;
+        if (forkJoinPool == null || depth >= forkThreshold || p < 0 || memo != null
+                || fuel != UNLIMITED || tracer != TraceListener.NONE) {
+            _invoke(n, p, d);
+            return;
+        }
+        int level = LEVEL - d + 1;
+        if (level < 0) {
+            throw new Error(String.format(
+                    "Invalid static distance %d at level %d.", d, LEVEL));
+        }
+        int[] arguments = new int[n];
+        for (int i = 0; i < n; i++) {
+            arguments[i] = value(TOP - n + 1 + i);
+        }
+        Fork fork = new Fork(new AbstractMachine(this, depth + 1), p, level, arguments);
+        if (ForkJoinTask.getPool() == forkJoinPool) {
+            fork.fork();
+        }
+        else {
+            forkJoinPool.execute(fork);
+        }
+        if (n == 0) {
+            reserve(1);
+        }
+        // the arguments are replaced by the result once joined.
+        TOP = TOP - n + 1;
+        assign(TOP, 0, Tag.I);
+        if (pendingForks == forks.length) {
+            forks = Arrays.copyOf(forks, 2 * forks.length);
+            forkCells = Arrays.copyOf(forkCells, 2 * forkCells.length);
+        }
+        forks[pendingForks] = fork;
+        forkCells[pendingForks] = TOP;
+        pendingForks++;
+        PC = PC + 1;
+    }
     
-    /** Determine the d-th previous static parameter pointer.
+    private void _join() {
+        // the left operand is a forked call's result unless
+        // FORK ran as INVOKE.
+        if (pendingForks > 0 && forkCells[pendingForks - 1] == TOP - 1) {
+            Fork fork = forks[pendingForks - 1];
+            Integer result = fork.join();
+            if (result == null && !isCancelled()) {
+                // cancelled before, the run is resumed now. The
+                // cancellation may have reached the call only
+                // after it stopped, so it is dropped.
+                fork.machine.cancelled = false;
+                result = fork.machine.resume();
+            }
+            if (result == null) {
+                // stays pending; JOIN is executed again on resuming.
+                executed--;
+                throw cancellation;
+            }
+            pendingForks--;
+            forks[pendingForks] = null;
+            assign(TOP - 1, result, Tag.I);
+        }
+        PC = PC + 1;
+    }
+    
+    /**
+     * Runs a call forked by another machine on this new machine,
+     * in a frame returning to PC -1, i.e. halting. The caller's frame
+     * is not there; pure functions never access it.
+     * 
+     * @param p The callee's address.
+     * @param level The callee's nesting level.
+     * @param arguments The arguments.
+     * @return The result, or null if the call was cancelled.
      */
-    private int spp(int d, int PP, int FP) {
-        if (d == 0) {
-            return PP;
-        } else {
-            return spp(d - 1, stack[FP + 2].value, stack[FP + 3].value);
+    private Integer call(int p, int level, int[] arguments) {
+        int n = arguments.length;
+        reserve(n + 5);
+        for (int i = 0; i < n; i++) {
+            assign(i, arguments[i], Tag.I);
+        }
+        assign(n, 0, Tag.I);
+        assign(n + 1, 0, Tag.I);
+        assign(n + 2, 0, Tag.I);
+        assign(n + 3, 0, Tag.I);
+        assign(n + 4, -1, Tag.P);
+        while (level >= display.length) {
+            display = Arrays.copyOf(display, 2 * display.length);
         }
+        PP = 0;
+        FP = n;
+        TOP = n + 4;
+        LEVEL = level;
+        display[level] = PP;
+        if (level > displayHighWater) {
+            displayHighWater = level;
+        }
+        PC = p;
+        return resume();
     }
-    /** Determine the d-th previous static frame pointer.
+    
+    /**
+     * Runs or resumes a call forked by another machine, cf.
+     * @see call(int, int, int[]).
+     * 
+     * @return The result, or null if the call was cancelled.
      */
-    private int sfp(int d, int PP, int FP) {
-        if (d == 0) {
-            return FP;
-        } else {
-            return sfp(d - 1, stack[FP + 2].value, stack[FP + 3].value);
+    private Integer resume() {
+        Result.Status status = proceed();
+        if (status == Result.Status.STACK_OVERFLOW) {
+            throw stackOverflow;
+        }
+        if (status == Result.Status.CANCELLED) {
+            return null;
         }
+        return value(TOP);
+    }
+    
+    /**
+     * Looks a call of a pure function up in the memo table. On a hit,
+     * replaces the arguments by the result. On a miss, the table
+     * remembers the call and stores its result when the callee's
+     * frame returns.
+     * 
+     * @param pp The parameter pointer of the callee's frame.
+     * @return Whether the result was cached.
+     */
+    private boolean memoized(int n, int p, int pp) {
+        for (int i = TOP - n + 1; i <= TOP; i++) {
+            if (tag(i) != Tag.I) {
+                return false;
+            }
+        }
+        int a = n > 0 ? value(TOP - n + 1) : 0;
+        int b = n > 1 ? value(TOP - n + 2) : 0;
+        int c = n > 2 ? value(TOP - n + 3) : 0;
+        int entry = memo.lookup(pp, p, n, a, b, c);
+        if (entry < 0) {
+            return false;
+        }
+        if (n == 0) {
+            reserve(1);
+        }
+        TOP = TOP - n + 1;
+        assign(TOP, memo.value(entry), Tag.I);
+        return true;
+    }
+    
+    /**
+     * Invokes a function like INVOKE followed by RETURN would, but
+     * reuses the current frame: its link cells and the arguments
+     * replace it, so tail-recursive functions run in constant stack
+     * space. The callee returns directly to the current caller.
+     */
+    private void _tailinvoke(int n, int p, int d) {
+        // built-ins do not push a frame, and a callee nested in
+        // the current frame (d == 0) needs it as static parent.
+        if (p < 0 || d == 0) {
+            _invoke(n, p, d);
+            return;
+        }
+        // the callee's frame replaces the current one,
+        // i.e. gets the current parameter pointer.
+        if (memo != null && memo.isCached(p, n) && memoized(n, p, PP)) {
+            PC = PC + 1;
+            return;
+        }
+        int level = LEVEL - d + 1;
+        if (level < 0) {
+            throw new Error(String.format(
+                    "Invalid static distance %d at level %d.", d, LEVEL));
+        }
+        int callerPP = value(FP);
+        int callerFP = value(FP + 1);
+        int returnAddress = value(FP + 4);
+        // undo the current frame's display entry. The entries below
+        // its level, which include the callee's static chain, are
+        // the caller's anyway.
+        display[LEVEL] = value(FP + 2);
+        LEVEL = value(FP + 3);
+        for (int i = 0; i < n; i++) {
+            copy(TOP - n + 1 + i, PP + i);
+        }
+        FP = PP + n;
+        TOP = FP + 4;
+        assign(FP, callerPP, Tag.I);
+        assign(FP + 1, callerFP, Tag.I);
+        assign(FP + 2, display[level], Tag.I);
+        assign(FP + 3, LEVEL, Tag.I);
+        assign(FP + 4, returnAddress, Tag.P);
+        PC = p;
+        LEVEL = level;
+        display[level] = PP;
+        if (level > displayHighWater) {
+            displayHighWater = level;
+        }
+    }
+    
+    /** Determine the d-th previous static parameter pointer.
+     */
+    private int spp(int d) {
+        return display[LEVEL - d];
     }
 
     private void _ifzero(int p) {
-        if (stack[TOP].value == 0) {
+        if (value(TOP) == 0) {
             PC = p;
         } else {
             PC = PC + 1;            
@@ -260,10 +1403,14 @@ public class AbstractMachine {
 
     private void _neq() {
         checkInteger();
-        if (stack[TOP - 1].value != stack[TOP].value) {
-            stack[TOP - 1].value = 1;
+        _neqUnchecked();
+    }
+
+    private void _neqUnchecked() {
+        if (value(TOP - 1) != value(TOP)) {
+            setValue(TOP - 1, 1);
         } else {
-            stack[TOP - 1].value = 0;
+            setValue(TOP - 1, 0);
         }
         TOP = TOP - 1;
         PC = PC + 1;
@@ -271,10 +1418,14 @@ public class AbstractMachine {
 
     private void _eq() {
         checkInteger();
-        if (stack[TOP - 1].value == stack[TOP].value) {
-            stack[TOP - 1].value = 1;
+        _eqUnchecked();
+    }
+
+    private void _eqUnchecked() {
+        if (value(TOP - 1) == value(TOP)) {
+            setValue(TOP - 1, 1);
         } else {
-            stack[TOP - 1].value = 0;
+            setValue(TOP - 1, 0);
         }
         TOP = TOP - 1;
         PC = PC + 1;
@@ -282,10 +1433,14 @@ public class AbstractMachine {
 
     private void _gt() {
         checkInteger();
-        if (stack[TOP - 1].value > stack[TOP].value) {
-            stack[TOP - 1].value = 1;
+        _gtUnchecked();
+    }
+
+    private void _gtUnchecked() {
+        if (value(TOP - 1) > value(TOP)) {
+            setValue(TOP - 1, 1);
         } else {
-            stack[TOP - 1].value = 0;
+            setValue(TOP - 1, 0);
         }
         TOP = TOP - 1;
         PC = PC + 1;
@@ -293,10 +1448,14 @@ public class AbstractMachine {
     
     private void _lt() {
         checkInteger();
-        if (stack[TOP - 1].value < stack[TOP].value) {
-            stack[TOP - 1].value = 1;
+        _ltUnchecked();
+    }
+
+    private void _ltUnchecked() {
+        if (value(TOP - 1) < value(TOP)) {
+            setValue(TOP - 1, 1);
         } else {
-            stack[TOP - 1].value = 0;
+            setValue(TOP - 1, 0);
         }
         TOP = TOP - 1;
         PC = PC + 1;
@@ -304,39 +1463,190 @@ public class AbstractMachine {
     
     private void _div() {
         checkInteger();
-        stack[TOP - 1].value = stack[TOP - 1].value / stack[TOP].value;
+        _divUnchecked();
+    }
+
+    private void _divUnchecked() {
+        setValue(TOP - 1, value(TOP - 1) / value(TOP));
         TOP = TOP - 1;
         PC = PC + 1;
     }
 
     private void _mul() {
         checkInteger();
-        stack[TOP - 1].value = stack[TOP - 1].value * stack[TOP].value;
+        _mulUnchecked();
+    }
+
+    private void _mulUnchecked() {
+        setValue(TOP - 1, value(TOP - 1) * value(TOP));
         TOP = TOP - 1;
         PC = PC + 1;
     }
 
     private void _sub() {
         checkInteger();
-        stack[TOP - 1].value = stack[TOP - 1].value - stack[TOP].value;
+        _subUnchecked();
+    }
+
+    private void _subUnchecked() {
+        setValue(TOP - 1, value(TOP - 1) - value(TOP));
         TOP = TOP - 1;
         PC = PC + 1;
     }
 
     private void _add() {
         checkInteger();
-        stack[TOP - 1].value = stack[TOP - 1].value + stack[TOP].value;
+        _addUnchecked();
+    }
+
+    private void _addUnchecked() {
+        setValue(TOP - 1, value(TOP - 1) + value(TOP));
         TOP = TOP - 1;
         PC = PC + 1;
     }
 
+    // Superinstructions, cf. @see Superinstructions. Each one either
+    // executes its whole sequence of instructions, or, if the operands
+    // are not as expected, just the first one.
+    
+    private void _loadloadmul(int k, int d) {
+        if (tag(spp(d) + k) != Tag.I) {
+            _load(k, d);
+            return;
+        }
+        _loadloadmulUnchecked(k, d);
+    }
+    
+    private void _loadloadmulUnchecked(int k, int d) {
+        int a = spp(d) + k;
+        reserve(1);
+        assign(TOP + 1, value(a) * value(a), Tag.I);
+        TOP = TOP + 1;
+        PC = PC + 3;
+        fired[Instruction.LOAD_LOAD_MUL]++;
+    }
+    
+    private void _constadd(int c) {
+        if (tag(TOP) != Tag.I) {
+            _const(c);
+            return;
+        }
+        _constaddUnchecked(c);
+    }
+    
+    private void _constaddUnchecked(int c) {
+        setValue(TOP, value(TOP) + c);
+        PC = PC + 2;
+        fired[Instruction.CONST_ADD]++;
+    }
+    
+    private void _constsub(int c) {
+        if (tag(TOP) != Tag.I) {
+            _const(c);
+            return;
+        }
+        _constsubUnchecked(c);
+    }
+    
+    private void _constsubUnchecked(int c) {
+        setValue(TOP, value(TOP) - c);
+        PC = PC + 2;
+        fired[Instruction.CONST_SUB]++;
+    }
+    
+    private void _ltifzero(int p) {
+        if (!areIntegers()) {
+            _lt();
+            return;
+        }
+        _ltifzeroUnchecked(p);
+    }
+    
+    private void _ltifzeroUnchecked(int p) {
+        branch(value(TOP - 1) < value(TOP), p);
+        fired[Instruction.LT_IFZERO]++;
+    }
+    
+    private void _gtifzero(int p) {
+        if (!areIntegers()) {
+            _gt();
+            return;
+        }
+        _gtifzeroUnchecked(p);
+    }
+    
+    private void _gtifzeroUnchecked(int p) {
+        branch(value(TOP - 1) > value(TOP), p);
+        fired[Instruction.GT_IFZERO]++;
+    }
+    
+    private void _eqifzero(int p) {
+        if (!areIntegers()) {
+            _eq();
+            return;
+        }
+        _eqifzeroUnchecked(p);
+    }
+    
+    private void _eqifzeroUnchecked(int p) {
+        branch(value(TOP - 1) == value(TOP), p);
+        fired[Instruction.EQ_IFZERO]++;
+    }
+    
+    private void _neqifzero(int p) {
+        if (!areIntegers()) {
+            _neq();
+            return;
+        }
+        _neqifzeroUnchecked(p);
+    }
+    
+    private void _neqifzeroUnchecked(int p) {
+        branch(value(TOP - 1) != value(TOP), p);
+        fired[Instruction.NEQ_IFZERO]++;
+    }
+    
+    /**
+     * Pops the two operands of a comparison and continues after the
+     * following IFZERO if the comparison holds, or jumps to p otherwise.
+     */
+    private void branch(boolean comparison, int p) {
+        TOP = TOP - 2;
+        if (comparison) {
+            PC = PC + 2;
+        } else {
+            PC = p;
+        }
+    }
+    
+    private void _storeload(int k, int d) {
+        if (tag(TOP) != Tag.I) {
+            _store(k, d);
+            return;
+        }
+        _storeloadUnchecked(k, d);
+    }
+    
+    private void _storeloadUnchecked(int k, int d) {
+        // the stored value stays on the stack as if loaded again.
+        copy(TOP, spp(d) + k);
+        PC = PC + 2;
+        fired[Instruction.STORE_LOAD]++;
+    }
+
+    /**
+     * @return Whether the two topmost stack elements are tagged "Integer".
+     */
+    private boolean areIntegers() {
+        return tag(TOP - 1) == Tag.I && tag(TOP) == Tag.I;
+    }
+
     /**
      * Throws an error if the two topmost stack elements are not tagged
      * "Integer".
      */
     private void checkInteger() {
-        if (stack[TOP - 1].tag != StackElement.Tag.I
-         || stack[TOP].tag != StackElement.Tag.I) {
+        if (!areIntegers()) {
             throw new Error("The two topmost stack elements are not tagged as integer (I).");
         }
     }
@@ -346,35 +1656,275 @@ public class AbstractMachine {
     }
 
     private void _const(int k) {
-        stack[TOP + 1].assign(k, StackElement.Tag.I);
+        reserve(1);
+        assign(TOP + 1, k, Tag.I);
         TOP = TOP + 1;
         PC = PC + 1;
     }
     
+    /** Returns the value of a stack cell. */
+    private int value(int cell) {
+        return valueSegments[cell >>> segmentBits][cell & segmentMask];
+    }
     
-    private void debug() {
-        if (!debug) {
-            return;
+    /** Returns the tag of a stack cell. */
+    private byte tag(int cell) {
+        return tagSegments[cell >>> segmentBits][cell & segmentMask];
+    }
+    
+    /** Sets the value of a stack cell, keeping its tag. */
+    private void setValue(int cell, int value) {
+        valueSegments[cell >>> segmentBits][cell & segmentMask] = value;
+    }
+    
+    /** Assigns value and tag to a stack cell. */
+    private void assign(int cell, int value, byte tag) {
+        valueSegments[cell >>> segmentBits][cell & segmentMask] = value;
+        tagSegments[cell >>> segmentBits][cell & segmentMask] = tag;
+    }
+    
+    /** Copies value and tag from one stack cell to another. */
+    private void copy(int from, int to) {
+        assign(to, value(from), tag(from));
+    }
+    
+    
+    // Snapshots of the machine's state.
+    // Layout: magic, version, fingerprint of the program, executed
+    // instructions, PC, PP, FP, TOP, LEVEL, the display's high-water
+    // mark, display[0..high-water mark], the values of the cells
+    // 0..TOP, and their tags.
+    
+    /**
+     * Writes the machine's state to a file, through a memory-mapped
+     * buffer, so the run can be resumed via @see restore(Path), e.g.
+     * after a restart. Only the used stack cells are written.
+     * 
+     * The machine must not be running, e.g. call it whenever
+     * @see evaluate() stopped with @see Result.Status.OUT_OF_FUEL.
+     * Calls forked on other machines are not part of the state, so
+     * none may be pending, cf. @see setForkJoinPool(ForkJoinPool, int).
+     * 
+     * @param file The snapshot, created or replaced.
+     */
+    public void checkpoint(Path file) {
+        if (pendingForks > 0) {
+            throw new Error(String.format(
+                    "Cannot checkpoint with %d forked calls pending.", pendingForks));
+        }
+        long size = 4L * (2 + 2 + 2 + 6 + displayHighWater + 1 + TOP + 1) + (TOP + 1);
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putInt(SNAPSHOT_VERSION);
+            buffer.putLong(Bytecode.fingerprint(text));
+            buffer.putLong(executed);
+            buffer.putInt(PC);
+            buffer.putInt(PP);
+            buffer.putInt(FP);
+            buffer.putInt(TOP);
+            buffer.putInt(LEVEL);
+            // deeper frames may still need the entries above LEVEL.
+            buffer.putInt(displayHighWater);
+            for (int level = 0; level <= displayHighWater; level++) {
+                buffer.putInt(display[level]);
+            }
+            IntBuffer values = buffer.asIntBuffer();
+            for (int cell = 0; cell <= TOP; cell += segmentMask + 1) {
+                values.put(valueSegments[cell >>> segmentBits], 0, segmentLength(cell));
+            }
+            buffer.position(buffer.position() + 4 * (TOP + 1));
+            for (int cell = 0; cell <= TOP; cell += segmentMask + 1) {
+                buffer.put(tagSegments[cell >>> segmentBits], 0, segmentLength(cell));
+            }
+            buffer.force();
+        } catch (IOException e) {
+            throw new Error(String.format("Cannot write the snapshot %s.", file), e);
+        }
+    }
+    
+    /**
+     * Resumes the run saved by @see checkpoint(Path). The program
+     * the snapshot was taken of has to be loaded already; a run
+     * continues via @see evaluate().
+     * 
+     * @param file The snapshot.
+     */
+    public void restore(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                throw new Error(String.format("%s is no snapshot.", file));
+            }
+            if (text == null || buffer.getLong() != Bytecode.fingerprint(text)) {
+                throw new Error(String.format(
+                        "The snapshot %s was taken of another program.", file));
+            }
+            reset();
+            executed = buffer.getLong();
+            PC = buffer.getInt();
+            PP = buffer.getInt();
+            FP = buffer.getInt();
+            int top = buffer.getInt();
+            LEVEL = buffer.getInt();
+            int displayTop = buffer.getInt();
+            if (LEVEL < 0 || displayTop < LEVEL) {
+                throw new Error(String.format("%s is no snapshot.", file));
+            }
+            if (top >= maximumStackSize) {
+                throw new Error(String.format(
+                        "The snapshot %s exceeds the maximum stack size.", file));
+            }
+            if (top >= 0) {
+                raise(top);
+            }
+            TOP = top;
+            if (displayTop >= display.length) {
+                display = Arrays.copyOf(display, Integer.highestOneBit(displayTop) * 2);
+            }
+            for (int level = 0; level <= displayTop; level++) {
+                display[level] = buffer.getInt();
+            }
+            displayHighWater = displayTop;
+            IntBuffer values = buffer.asIntBuffer();
+            for (int cell = 0; cell <= TOP; cell += segmentMask + 1) {
+                values.get(valueSegments[cell >>> segmentBits], 0, segmentLength(cell));
+            }
+            buffer.position(buffer.position() + 4 * (TOP + 1));
+            for (int cell = 0; cell <= TOP; cell += segmentMask + 1) {
+                buffer.get(tagSegments[cell >>> segmentBits], 0, segmentLength(cell));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new Error(String.format("The snapshot %s is truncated.", file), e);
+        } catch (IOException e) {
+            throw new Error(String.format("Cannot read the snapshot %s.", file), e);
         }
-        System.out.print(
-          String.format("PC: %d | PP: %d | FP: %d | TOP: %d | Stack: ", PC, PP, FP, TOP)
-        );
-        for (int i = 0; i <= TOP; i++) {
-            System.out.print(stack[i] + " ");
+    }
+    
+    /**
+     * @return The number of used cells in the segment starting
+     *         at the given cell.
+     */
+    private int segmentLength(int cell) {
+        return Math.min(TOP - cell, segmentMask) + 1;
+    }
+    
+    
+    // The machine's state, e.g. for a @see TraceListener.
+    
+    /** @return The Program Counter, negative after HALT. */
+    public int getPC() {
+        return PC;
+    }
+    
+    /** @return The Parameter Pointer. */
+    public int getPP() {
+        return PP;
+    }
+    
+    /** @return The Frame Pointer. */
+    public int getFP() {
+        return FP;
+    }
+    
+    /** @return The upmost used stack cell. */
+    public int getTop() {
+        return TOP;
+    }
+    
+    /** @return The static nesting level of the code executed. */
+    public int getLevel() {
+        return LEVEL;
+    }
+    
+    /**
+     * @return The upmost stack cell used since the program was
+     *         loaded, cf. @see load(Instruction[]).
+     */
+    public int getStackHighWater() {
+        return highWater;
+    }
+    
+    /**
+     * @return The loaded program, a copy if it was loaded
+     *         as @see CompiledProgram.
+     */
+    public Instruction[] getProgram() {
+        return program != null ? program.getInstructions() : text;
+    }
+    
+    /**
+     * @param pc An address within the loaded program.
+     * @return The instruction at that address, a copy if the
+     *         program was loaded as @see CompiledProgram.
+     */
+    public Instruction getInstruction(int pc) {
+        return program != null ? program.getInstruction(pc) : text[pc];
+    }
+    
+    /**
+     * Returns a stack cell with its tag, e.g. "I42" for an integer.
+     * 
+     * @param position The cell.
+     * @return The cell's representation.
+     */
+    public String getTaggedStackAt(int position) {
+        if (position <= TOP) {
+            return Tag.toString(value(position), tag(position));
+        } else {
+            throw new Error("Accessing unused stack cells.");
         }
-        System.out.println();
-        if (PC >= 0) {
-            System.out.println(String.format("%s", text[PC]));
+    }
+    
+    /**
+     * @return The number of instructions dispatched since the
+     *         program was loaded.
+     */
+    public long getExecutedInstructions() {
+        return executed;
+    }
+    
+    /**
+     * Returns how often each superinstruction executed its whole
+     * sequence of instructions since the program was loaded,
+     * cf. @see Superinstructions.
+     * 
+     * @return Superinstructions' mnemonics and counts.
+     */
+    public Map<String, Long> getSuperinstructionStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+        for (int opcode = 0; opcode < fired.length; opcode++) {
+            if (fired[opcode] > 0) {
+                statistics.put(Instruction.getName(opcode), fired[opcode]);
+            }
         }
+        return statistics;
     }
     
     public void setTop(int top) {
+        if (top >= maximumStackSize) {
+            throw new Error("Stack size exceeded.");
+        }
+        if (verified && top != TOP) {
+            // the verifier assumed the program to start
+            // with an empty stack.
+            verified = false;
+            code = Bytecode.pack(text);
+            handlers = null;
+        }
+        if (top > highWater) {
+            raise(top);
+        }
         this.TOP = top;
     }
     
     public int getStackAt(int position) {
         if (position <= TOP) {
-            return stack[position].value; // may throw an index-out-of-bounce error
+            return value(position); // may throw an index-out-of-bounce error
         } else {
             throw new Error("Accessing unused stack cells.");
         }
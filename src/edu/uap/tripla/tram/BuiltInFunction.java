@@ -11,7 +11,10 @@ package edu.uap.tripla.tram;
  * defined.
  * 
  * Each Subclass extending this class implements one concrete
- * built-in function.
+ * built-in function. A function with up to three parameters should
+ * also implement the interface for its arity, e.g. @see Unary, so
+ * it is invoked with its parameters taken straight from the stack,
+ * without allocating an array.
  * 
  * @author Richard Kiefer, s4rikief@uni-trier.de
  *
@@ -35,9 +38,27 @@ public abstract class BuiltInFunction {
         // compute the functions' labels and assign it to them.
         for (int i = 0; i < functions.length; i++) {
             functions[i].setLabel(getLabel(i));
+            functions[i].checkArity();
         }
     }
     
+    /** A built-in function without parameters. */
+    public interface Nullary {
+        int apply();
+    }
+    /** A built-in function with one parameter. */
+    public interface Unary {
+        int apply(int a);
+    }
+    /** A built-in function with two parameters. */
+    public interface Binary {
+        int apply(int a, int b);
+    }
+    /** A built-in function with three parameters. */
+    public interface Ternary {
+        int apply(int a, int b, int c);
+    }
+    
     /**
      * Sets the function's name and the number of parameters. 
      * @param name The name.
@@ -49,6 +70,67 @@ public abstract class BuiltInFunction {
     }
     
     
+    /**
+     * Makes sure a function implements no interface of another arity,
+     * so implementing one proves the arity when invoked.
+     */
+    private void checkArity() {
+        Class<?>[] arities = { Nullary.class, Unary.class, Binary.class, Ternary.class };
+        for (int n = 0; n < arities.length; n++) {
+            if (n != parameters && arities[n].isInstance(this)) {
+                throw new Error(String.format(
+                        "Built-in function %s/%d implements %s.",
+                        name,
+                        parameters,
+                        arities[n].getSimpleName()));
+            }
+        }
+    }
+    
+    
+    /**
+     * Executes a built-in function without parameters.
+     * Like @see execute(int, int[]), but does not allocate
+     * if the function implements @see Nullary.
+     * 
+     * @param label The built-in function's label.
+     * @return The result.
+     */
+    public static int execute(int label) {
+        BuiltInFunction function = get(label);
+        if (function instanceof Nullary) {
+            return ((Nullary) function).apply();
+        }
+        return execute(label, new int[0]);
+    }
+    
+    /** @see execute(int), for @see Unary functions. */
+    public static int execute(int label, int a) {
+        BuiltInFunction function = get(label);
+        if (function instanceof Unary) {
+            return ((Unary) function).apply(a);
+        }
+        return execute(label, new int[] { a });
+    }
+    
+    /** @see execute(int), for @see Binary functions. */
+    public static int execute(int label, int a, int b) {
+        BuiltInFunction function = get(label);
+        if (function instanceof Binary) {
+            return ((Binary) function).apply(a, b);
+        }
+        return execute(label, new int[] { a, b });
+    }
+    
+    /** @see execute(int), for @see Ternary functions. */
+    public static int execute(int label, int a, int b, int c) {
+        BuiltInFunction function = get(label);
+        if (function instanceof Ternary) {
+            return ((Ternary) function).apply(a, b, c);
+        }
+        return execute(label, new int[] { a, b, c });
+    }
+    
     /**
      * Executes a built-in function identified by its label
      * and returns the result.
@@ -78,6 +160,37 @@ public abstract class BuiltInFunction {
     }
 
 
+    /**
+     * @param label A built-in function's label.
+     * @return The built-in function.
+     */
+    private static BuiltInFunction get(int label) {
+        int index = getIndex(label);
+        if (index < 0 || index >= functions.length) {
+            throw new Error(String.format(
+                "Undefined built-in function with label %d.",
+                label
+            ));
+        }
+        return functions[index];
+    }
+
+    /**
+     * Returns the built-in function declared with the given name,
+     * whatever its number of parameters.
+     * 
+     * @param name The name.
+     * @return The function, or null if there is none.
+     */
+    public static BuiltInFunction get(String name) {
+        for (BuiltInFunction function: functions) {
+            if (function.name.equals(name)) {
+                return function;
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns the array of available built-in functions.
      * 
@@ -115,6 +228,14 @@ public abstract class BuiltInFunction {
         return -(label + 1);
     }
 
+    /**
+     * @param label A function's label, resolved or not.
+     * @return Whether the label is a built-in function's.
+     */
+    public static boolean isBuiltIn(int label) {
+        return label < 0 && getIndex(label) < functions.length;
+    }
+
     /**
      * Considering all labels used by built-in functions, returns
      * the next free label which can be used by a @see LabelProvider.
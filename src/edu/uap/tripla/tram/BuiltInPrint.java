@@ -6,14 +6,18 @@ package edu.uap.tripla.tram;
  * 
  * @author Richard Kiefer, s4rikief@uni-trier.de
  */
-public class BuiltInPrint extends BuiltInFunction {
+public class BuiltInPrint extends BuiltInFunction implements BuiltInFunction.Unary {
 
     public BuiltInPrint() {
         super("print", 1);
     }
     
     protected int execute(int[] parameters) {
-        System.out.println(parameters[0]);
-        return parameters[0];
+        return apply(parameters[0]);
+    }
+    
+    public int apply(int a) {
+        System.out.println(a);
+        return a;
     }
 }
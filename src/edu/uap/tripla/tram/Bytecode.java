@@ -0,0 +1,67 @@
+package edu.uap.tripla.tram;
+
+/**
+ * Compact representation of a program for the abstract machine.
+ * 
+ * The whole program is a single int[], holding each instruction's
+ * opcode and operands inline in WIDTH consecutive ints. Thus, the
+ * instruction at address PC starts at index PC * WIDTH and jump
+ * targets keep their meaning. Missing operands are stored as zero.
+ * 
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public final class Bytecode {
+
+    /** Number of ints per instruction. */
+    public static final int WIDTH = 4;
+    /** Offsets of opcode and operands within an instruction. */
+    public static final int OPCODE = 0;
+    public static final int ARG1 = 1;
+    public static final int ARG2 = 2;
+    public static final int ARG3 = 3;
+    /** Added to the opcode of an instruction which the @see Verifier
+     *  proved not to need the abstract machine's runtime tag checks. */
+    public static final int UNCHECKED = 64;
+
+    private Bytecode() {
+    }
+
+    /**
+     * Converts machine instructions to their compact representation.
+     * 
+     * @param text The machine instructions.
+     * @return The program as bytecode.
+     */
+    public static int[] pack(Instruction[] text) {
+        int[] code = new int[text.length * WIDTH];
+        for (int pc = 0; pc < text.length; pc++) {
+            Instruction instruction = text[pc];
+            int i = pc * WIDTH;
+            code[i + OPCODE] = instruction.getOpcode();
+            code[i + ARG1] = instruction.getOperand(1);
+            code[i + ARG2] = instruction.getOperand(2);
+            code[i + ARG3] = instruction.getOperand(3);
+        }
+        return code;
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the instructions' opcodes and
+     * operands, which identifies a program, e.g. in a snapshot of
+     * the abstract machine.
+     * 
+     * @param text The machine instructions.
+     * @return The fingerprint.
+     */
+    public static long fingerprint(Instruction[] text) {
+        long hash = 0xcbf29ce484222325L;
+        for (Instruction instruction: text) {
+            for (int n = 0; n <= 3; n++) {
+                int operand = n == 0 ? instruction.getOpcode()
+                                     : instruction.getOperand(n);
+                hash = (hash ^ operand) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+}
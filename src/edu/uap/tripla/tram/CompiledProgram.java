@@ -0,0 +1,98 @@
+package edu.uap.tripla.tram;
+
+/**
+ * An immutable program for the abstract machine, which any number of
+ * machines may run at the same time, cf.
+ * @see AbstractMachine.load(CompiledProgram).
+ *
+ * Machine instructions are mutable, e.g. the compiler resolves labels
+ * by modifying them, so a program given as Instruction[] must not be
+ * shared. A compiled program instead copies the instructions once,
+ * verifies and packs them, cf. @see Verifier and @see Bytecode, and
+ * never hands out its own copies. The handlers for
+ * @see AbstractMachine.Dispatch.THREADED are decoded once, too, by
+ * the first machine needing them.
+ *
+ * The copy of the instructions is kept next to the packed form, for
+ * @see getInstruction(int) and the machines' error messages, so a
+ * compiled program takes more memory than the instructions given,
+ * not less. It pays off once several machines share it.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public final class CompiledProgram {
+
+    private final Instruction[] text;
+    private final int[] code;
+    private final boolean verified;
+    /** Decoded on demand; decoding twice yields equal handlers. */
+    private volatile AbstractMachine.Handler[] handlers;
+
+    /**
+     * @param text The machine instructions, which may be modified
+     *             afterwards without affecting the compiled program.
+     */
+    public CompiledProgram(Instruction[] text) {
+        Instruction[] copy = new Instruction[text.length];
+        for (int pc = 0; pc < text.length; pc++) {
+            copy[pc] = text[pc].withOpcode(text[pc].getOpcode());
+        }
+        int[] code = Verifier.pack(copy);
+        this.text = copy;
+        this.verified = code != null;
+        this.code = verified ? code : Bytecode.pack(copy);
+    }
+
+    /**
+     * @return The number of instructions.
+     */
+    public int size() {
+        return text.length;
+    }
+
+    /**
+     * @param pc An address within the program.
+     * @return A copy of the instruction at that address.
+     */
+    public Instruction getInstruction(int pc) {
+        return text[pc].withOpcode(text[pc].getOpcode());
+    }
+
+    /**
+     * @return A copy of the machine instructions.
+     */
+    public Instruction[] getInstructions() {
+        Instruction[] copy = new Instruction[text.length];
+        for (int pc = 0; pc < text.length; pc++) {
+            copy[pc] = getInstruction(pc);
+        }
+        return copy;
+    }
+
+    /**
+     * @return Whether the program passed the @see Verifier.
+     */
+    public boolean isVerified() {
+        return verified;
+    }
+
+    /** @return The instructions, which must not be modified. */
+    Instruction[] text() {
+        return text;
+    }
+
+    /** @return The packed program, which must not be modified. */
+    int[] code() {
+        return code;
+    }
+
+    /** @return The handlers for threaded dispatch of @see code(). */
+    AbstractMachine.Handler[] handlers() {
+        AbstractMachine.Handler[] handlers = this.handlers;
+        if (handlers == null) {
+            handlers = AbstractMachine.decode(code);
+            this.handlers = handlers;
+        }
+        return handlers;
+    }
+}
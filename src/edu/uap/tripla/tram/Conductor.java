@@ -12,7 +12,7 @@ public class Conductor {
      */
     public static void main(String[] args) {
         AbstractMachine tram = new AbstractMachine();
-        tram.debug = true;
+        tram.setTraceListener(new PrintTracer(System.out));
         tram.load(ExamplePrograms.factorial(4));
         int result = tram.run();
         System.out.println("factorial(4): " + result);
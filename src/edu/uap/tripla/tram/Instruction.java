@@ -31,6 +31,51 @@ public class Instruction
     public final static int LAZY = 18;
     public final static int LAZYRETURN = 19;
 
+	// Superinstructions, cf. @see Superinstructions. Each one replaces
+	// the first instruction of a common sequence and executes the
+	// whole sequence at once; the rest of the sequence stays in place.
+	/** LOAD k d; LOAD k d; MUL */
+	public final static int LOAD_LOAD_MUL = 20;
+	/** CONST c; ADD */
+	public final static int CONST_ADD = 21;
+	/** CONST c; SUB */
+	public final static int CONST_SUB = 22;
+	/** LT; IFZERO p */
+	public final static int LT_IFZERO = 23;
+	/** GT; IFZERO p */
+	public final static int GT_IFZERO = 24;
+	/** EQ; IFZERO p */
+	public final static int EQ_IFZERO = 25;
+	/** NEQ; IFZERO p */
+	public final static int NEQ_IFZERO = 26;
+	/** STORE k d; LOAD k d */
+	public final static int STORE_LOAD = 27;
+
+	/** INVOKE n p d, followed by RETURN: the callee replaces the
+	 *  current frame and returns directly to the current caller.
+	 *  Requires d &gt; 0, i.e. the callee is not nested in the
+	 *  current frame. */
+	public final static int TAILINVOKE = 28;
+
+	/** FORCE k d: LOAD k d of a lazy variable. If the cell still holds
+	 *  the code of the variable's expression, the code is run in the
+	 *  frame declaring the variable and LAZYRETURN replaces the cell
+	 *  by the value, so later loads find an integer. */
+	public final static int FORCE = 29;
+
+	/** FORK n p d: INVOKE n p d of a pure function, whose result is
+	 *  needed by the matching JOIN only. A machine with a fork/join
+	 *  pool may run the call on another machine meanwhile, cf.
+	 *  @see AbstractMachine.setForkJoinPool(
+	 *  java.util.concurrent.ForkJoinPool, int). */
+	public final static int FORK = 30;
+	/** JOIN: waits for the call forked right below the topmost
+	 *  stack cell, if any, and puts its result in place. */
+	public final static int JOIN = 31;
+
+	/** Upper bound of all opcodes. */
+	public final static int OPCODES = 32;
+
 
 
 	public Instruction(int opcode, Integer arg1, Integer arg2, Integer arg3)
@@ -102,79 +147,119 @@ public class Instruction
 	}
 
 
+	/**
+	 * Returns a copy of this instruction with the same operands
+	 * but another opcode.
+	 */
+	Instruction withOpcode(int opcode)
+	{
+		Instruction copy = new Instruction(opcode);
+		copy.arg1 = arg1;
+		copy.arg2 = arg2;
+		copy.arg3 = arg3;
+		return copy;
+	}
+
+
+	/**
+	 * Returns the n-th operand (1 to 3), or zero if the
+	 * instruction has no such operand. Cf. @see Bytecode.
+	 */
+	int getOperand(int n)
+	{
+		Integer arg = n == 1 ? arg1 : n == 2 ? arg2 : arg3;
+		return arg == null ? 0 : arg;
+	}
+
+
 	public void setOpcode(int opcode)
 	{
 		this.opcode = opcode;
 	}
 
 
-	@Override
-	public String toString()
+	/**
+	 * Returns the mnemonic of an opcode, e.g. "LOAD".
+	 *
+	 * @param opcode The opcode.
+	 * @return The mnemonic, or "ERROR" for unknown opcodes.
+	 */
+	public static String getName(int opcode)
 	{
-		String retStr = "";
-
 		switch (opcode)
 		{
 			case Instruction.CONST:
-				retStr += "CONST";
-				break;
+				return "CONST";
 			case Instruction.LOAD:
-				retStr += "LOAD";
-				break;
+				return "LOAD";
 			case Instruction.STORE:
-				retStr += "STORE";
-				break;
+				return "STORE";
 			case Instruction.ADD:
-				retStr += "ADD";
-				break;
+				return "ADD";
 			case Instruction.SUB:
-				retStr += "SUB";
-				break;
+				return "SUB";
 			case Instruction.MUL:
-				retStr += "MUL";
-				break;
+				return "MUL";
 			case Instruction.DIV:
-				retStr += "DIV";
-				break;
+				return "DIV";
 			case Instruction.LT:
-				retStr += "LT";
-				break;
+				return "LT";
 			case Instruction.GT:
-				retStr += "GT";
-				break;
+				return "GT";
 			case Instruction.EQ:
-				retStr += "EQ";
-				break;
+				return "EQ";
 			case Instruction.NEQ:
-				retStr += "NEQ";
-				break;
+				return "NEQ";
 			case Instruction.IFZERO:
-				retStr += "IFZERO";
-				break;
+				return "IFZERO";
 			case Instruction.GOTO:
-				retStr += "GOTO";
-				break;
+				return "GOTO";
 			case Instruction.HALT:
-				retStr += "HALT";
-				break;
+				return "HALT";
 			case Instruction.NOP:
-				retStr += "NOP";
-				break;
+				return "NOP";
 			case Instruction.INVOKE:
-				retStr += "INVOKE";
-				break;
-            case Instruction.RETURN:
-                retStr += "RETURN";
-                break;
-            case Instruction.LAZY:
-                retStr += "LAZY";
-                break;
-            case Instruction.LAZYRETURN:
-                retStr += "LAZYRETURN";
-                break;
+				return "INVOKE";
+			case Instruction.RETURN:
+				return "RETURN";
+			case Instruction.LAZY:
+				return "LAZY";
+			case Instruction.LAZYRETURN:
+				return "LAZYRETURN";
+			case Instruction.LOAD_LOAD_MUL:
+				return "LOAD_LOAD_MUL";
+			case Instruction.CONST_ADD:
+				return "CONST_ADD";
+			case Instruction.CONST_SUB:
+				return "CONST_SUB";
+			case Instruction.LT_IFZERO:
+				return "LT_IFZERO";
+			case Instruction.GT_IFZERO:
+				return "GT_IFZERO";
+			case Instruction.EQ_IFZERO:
+				return "EQ_IFZERO";
+			case Instruction.NEQ_IFZERO:
+				return "NEQ_IFZERO";
+			case Instruction.STORE_LOAD:
+				return "STORE_LOAD";
+			case Instruction.TAILINVOKE:
+				return "TAILINVOKE";
+			case Instruction.FORCE:
+				return "FORCE";
+			case Instruction.FORK:
+				return "FORK";
+			case Instruction.JOIN:
+				return "JOIN";
 			default:
-				retStr += "ERROR";
+				return "ERROR";
 		}
+	}
+
+
+	@Override
+	public String toString()
+	{
+		String retStr = getName(opcode);
 
 		if (arg1 != null)
 		{
@@ -0,0 +1,198 @@
+package edu.uap.tripla.tram;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Caches the results of calls of pure functions for the abstract
+ * machine, cf. @see AbstractMachine.setMemoTable(MemoTable). Pure
+ * functions are found by the compiler, cf.
+ * @see edu.uap.tripla.compiler.TriplaCompiler.compile(
+ * edu.uap.tripla.parser.AbstractSyntaxTree, java.util.Map, Set).
+ *
+ * Calls with up to three arguments are cached, keyed by the
+ * function's address and the arguments. The table has a fixed
+ * number of entries held in primitive arrays; each key has
+ * exactly one entry it may be stored in, so a new result evicts
+ * the one stored there before.
+ *
+ * A table belongs to one program and one machine at a time.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class MemoTable {
+
+    /** Most arguments a cached call may have. */
+    public static final int MAXIMUM_ARGUMENTS = 3;
+    /** Ints per key: address + 1 (0 for empty entries), number
+     *  of arguments, and the arguments. */
+    private static final int KEY = 2 + MAXIMUM_ARGUMENTS;
+
+    /** Whether the function at an address is pure. */
+    private final boolean[] pure;
+    private final int mask;
+    private final int[] keys;
+    private final int[] values;
+
+    // the calls which missed and have not returned yet.
+    // per call: the callee's parameter pointer and its key.
+    private int[] pending = new int[16 * (1 + KEY)];
+    private int depth;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param pureFunctions The addresses of the pure functions.
+     * @param capacity The number of entries, rounded up to
+     *                 a power of two.
+     */
+    public MemoTable(Set<Integer> pureFunctions, int capacity) {
+        if (capacity < 1 || capacity > 1 << 26) {
+            throw new Error(String.format("Illegal capacity %d.", capacity));
+        }
+        int max = -1;
+        for (int address: pureFunctions) {
+            max = Math.max(max, address);
+        }
+        pure = new boolean[max + 1];
+        for (int address: pureFunctions) {
+            pure[address] = true;
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        keys = new int[size * KEY];
+        values = new int[size];
+    }
+
+    /**
+     * @param address A function's address.
+     * @param n The number of arguments.
+     * @return Whether calls of the function are cached.
+     */
+    boolean isCached(int address, int n) {
+        return address < pure.length && pure[address] && n <= MAXIMUM_ARGUMENTS;
+    }
+
+    private int entry(int address, int n, int a, int b, int c) {
+        int hash = address * 0x9E3779B1 + n;
+        hash = (hash ^ a) * 0x9E3779B1;
+        hash = (hash ^ b) * 0x9E3779B1;
+        hash = (hash ^ c) * 0x9E3779B1;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private boolean matches(int entry, int address, int n, int a, int b, int c) {
+        int i = entry * KEY;
+        return keys[i] == address + 1 && keys[i + 1] == n
+               && keys[i + 2] == a && keys[i + 3] == b && keys[i + 4] == c;
+    }
+
+    /**
+     * Looks a call up. On a miss, the call is remembered until
+     * @see returned(int, int) tells its result.
+     *
+     * @param pp The callee's parameter pointer.
+     * @param address The callee's address, cf. @see isCached(int, int).
+     * @param n The number of arguments; unused ones are 0.
+     * @return The entry holding the result, or -1 on a miss.
+     */
+    int lookup(int pp, int address, int n, int a, int b, int c) {
+        int entry = entry(address, n, a, b, c);
+        if (matches(entry, address, n, a, b, c)) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        if ((depth + 1) * (1 + KEY) > pending.length) {
+            pending = Arrays.copyOf(pending, 2 * pending.length);
+        }
+        int i = depth * (1 + KEY);
+        pending[i] = pp;
+        pending[i + 1] = address + 1;
+        pending[i + 2] = n;
+        pending[i + 3] = a;
+        pending[i + 4] = b;
+        pending[i + 5] = c;
+        depth++;
+        return -1;
+    }
+
+    /** @return The result held by an entry. */
+    int value(int entry) {
+        return values[entry];
+    }
+
+    /**
+     * Stores the result of the calls returning from the
+     * frame with the given parameter pointer.
+     *
+     * @param pp The returning frame's parameter pointer.
+     * @param result The result.
+     */
+    void returned(int pp, int result) {
+        // a tail call reuses the frame, so several calls
+        // may return with the same result at once.
+        while (depth > 0 && pending[(depth - 1) * (1 + KEY)] == pp) {
+            depth--;
+            int i = depth * (1 + KEY);
+            int address = pending[i + 1] - 1;
+            int n = pending[i + 2];
+            int a = pending[i + 3];
+            int b = pending[i + 4];
+            int c = pending[i + 5];
+            int entry = entry(address, n, a, b, c);
+            int k = entry * KEY;
+            if (keys[k] != 0) {
+                evictions++;
+            }
+            keys[k] = address + 1;
+            keys[k + 1] = n;
+            keys[k + 2] = a;
+            keys[k + 3] = b;
+            keys[k + 4] = c;
+            values[entry] = result;
+        }
+    }
+
+    /**
+     * Forgets the calls which have not returned yet,
+     * e.g. when the machine is reset.
+     */
+    void abandon() {
+        depth = 0;
+    }
+
+    /**
+     * Empties the table and resets its statistics.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        depth = 0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /** @return The number of calls whose result was cached. */
+    public long getHits() {
+        return hits;
+    }
+
+    /** @return The number of calls whose result was not cached. */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** @return The number of results replaced by another one. */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits: %d | misses: %d | evictions: %d",
+                             hits, misses, evictions);
+    }
+}
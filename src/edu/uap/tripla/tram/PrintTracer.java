@@ -0,0 +1,63 @@
+package edu.uap.tripla.tram;
+
+import java.io.IOException;
+
+/**
+ * Writes the abstract machine's registers and whole stack before
+ * each instruction, followed by the instruction, e.g.
+ * <pre>
+ * PC: 3 | PP: 0 | FP: 1 | LEVEL: 1 | TOP: 5 | Stack: I4 I0 I0 I0 I0 P2
+ * LOAD 0 0
+ * </pre>
+ * The trace goes to any Appendable, e.g. System.out, a buffered
+ * writer or a StringBuilder.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class PrintTracer implements TraceListener {
+
+    private final Appendable out;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * @param out Where the trace goes to.
+     */
+    public PrintTracer(Appendable out) {
+        this.out = out;
+    }
+
+    @Override
+    public void step(AbstractMachine machine) {
+        state(machine);
+        line.append(machine.getInstruction(machine.getPC())).append('\n');
+        flush();
+    }
+
+    @Override
+    public void stopped(AbstractMachine machine) {
+        state(machine);
+        flush();
+    }
+
+    private void state(AbstractMachine machine) {
+        line.append(String.format("PC: %d | PP: %d | FP: %d | LEVEL: %d | TOP: %d | Stack: ",
+                                  machine.getPC(),
+                                  machine.getPP(),
+                                  machine.getFP(),
+                                  machine.getLevel(),
+                                  machine.getTop()));
+        for (int i = 0; i <= machine.getTop(); i++) {
+            line.append(machine.getTaggedStackAt(i)).append(' ');
+        }
+        line.append('\n');
+    }
+
+    private void flush() {
+        try {
+            out.append(line);
+        } catch (IOException e) {
+            throw new Error("Cannot write the trace.", e);
+        }
+        line.setLength(0);
+    }
+}
@@ -0,0 +1,303 @@
+package edu.uap.tripla.tram;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Profiles a program run by the abstract machine: counts the
+ * instructions executed per opcode and per address, and per function
+ * the calls, the instructions executed by the function itself (self)
+ * and those executed until it returned, including its callees (total).
+ * Install it via @see AbstractMachine.setTraceListener(TraceListener).
+ *
+ * Functions are identified by the address of their first instruction.
+ * The code outside of all functions is reported as "main". Thunks of
+ * lazy variables count for the function evaluating them.
+ *
+ * A profile covers all runs since it was created or reset, e.g.
+ * <pre>
+ * Map&lt;Integer, String&gt; names = new HashMap&lt;&gt;();
+ * AbstractMachine am = new AbstractMachine(TriplaCompiler.compile(ast, names));
+ * Profiler profiler = new Profiler(am);
+ * am.setTraceListener(profiler);
+ * am.run();
+ * System.out.print(profiler.report(names));
+ * </pre>
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class Profiler implements TraceListener {
+
+    /** Number of addresses listed by the report. */
+    private static final int HOT_ADDRESSES = 10;
+
+    private final Instruction[] text;
+    /** Slot of the code outside of all functions. */
+    private final int main;
+
+    /** Executed instructions per address. */
+    private final long[] counts;
+    /** Calls per function's address, or main. */
+    private final long[] calls;
+    /** Instructions executed by a function itself. */
+    private final long[] self;
+    /** Instructions executed until a function returned. */
+    private final long[] total;
+    /** Number of activations of a function not yet returned. */
+    private final int[] active;
+    /** Calls per built-in function, by its index. */
+    private final long[] builtInCalls;
+
+    /** The functions not yet returned, main at the bottom. */
+    private int[] frames = new int[64];
+    /** The instructions executed when each of them was called. */
+    private long[] starts = new long[64];
+    private int depth = -1;
+    /** Number of instructions executed in all runs. */
+    private long steps;
+
+    /**
+     * @param machine The machine with the program to be profiled.
+     */
+    public Profiler(AbstractMachine machine) {
+        this(machine.getProgram());
+    }
+
+    /**
+     * @param text The program to be profiled.
+     */
+    public Profiler(Instruction[] text) {
+        this.text = text;
+        this.main = text.length;
+        counts = new long[text.length];
+        calls = new long[text.length + 1];
+        self = new long[text.length + 1];
+        total = new long[text.length + 1];
+        active = new int[text.length + 1];
+        builtInCalls = new long[BuiltInFunction.getFunctionDefinitions().length];
+    }
+
+    /**
+     * Discards the profile.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(calls, 0);
+        Arrays.fill(self, 0);
+        Arrays.fill(total, 0);
+        Arrays.fill(active, 0);
+        Arrays.fill(builtInCalls, 0);
+        depth = -1;
+        steps = 0;
+    }
+
+    @Override
+    public void step(AbstractMachine machine) {
+        int pc = machine.getPC();
+        if (depth < 0) {
+            enter(main);
+        }
+        counts[pc]++;
+        self[frames[depth]]++;
+        steps++;
+
+        Instruction instruction = text[pc];
+        switch (instruction.getOpcode()) {
+        case Instruction.INVOKE:
+        case Instruction.FORK:
+            // traced machines run FORK as INVOKE.
+            invoke(instruction.getArg2());
+            break;
+        case Instruction.TAILINVOKE:
+            // cf. AbstractMachine._tailinvoke(int, int, int)
+            if (instruction.getArg2() >= 0 && instruction.getArg3() > 0) {
+                leave();
+            }
+            invoke(instruction.getArg2());
+            break;
+        case Instruction.RETURN:
+            leave();
+            break;
+        }
+    }
+
+    @Override
+    public void stopped(AbstractMachine machine) {
+        while (depth >= 0) {
+            leave();
+        }
+    }
+
+    private void invoke(int p) {
+        if (p < 0) {
+            builtInCalls[-(p + 1)]++;
+        } else {
+            enter(p);
+        }
+    }
+
+    private void enter(int function) {
+        depth++;
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, 2 * depth);
+            starts = Arrays.copyOf(starts, 2 * depth);
+        }
+        frames[depth] = function;
+        starts[depth] = steps;
+        calls[function]++;
+        active[function]++;
+    }
+
+    private void leave() {
+        int function = frames[depth];
+        // recursive activations are contained in the outermost one.
+        if (--active[function] == 0) {
+            total[function] += steps - starts[depth];
+        }
+        depth--;
+    }
+
+
+    /**
+     * @return The number of instructions executed in all runs.
+     */
+    public long getExecutedInstructions() {
+        return steps;
+    }
+
+    /**
+     * @param pc An address within the program.
+     * @return How often the instruction at that address was executed.
+     */
+    public long getCount(int pc) {
+        return counts[pc];
+    }
+
+    /**
+     * @return The number of executed instructions by mnemonic,
+     *         e.g. "LOAD", sorted by mnemonic.
+     */
+    public Map<String, Long> getOpcodeCounts() {
+        long[] byOpcode = new long[Instruction.OPCODES];
+        for (int pc = 0; pc < text.length; pc++) {
+            byOpcode[text[pc].getOpcode()] += counts[pc];
+        }
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (int opcode = 0; opcode < byOpcode.length; opcode++) {
+            if (byOpcode[opcode] > 0) {
+                result.put(Instruction.getName(opcode), byOpcode[opcode]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param function The address of a function's first instruction.
+     * @return How often the function was called.
+     */
+    public long getCalls(int function) {
+        return calls[function];
+    }
+
+    /**
+     * @param function The address of a function's first instruction.
+     * @return The instructions executed by the function, excluding
+     *         those of the functions it called.
+     */
+    public long getSelfInstructions(int function) {
+        return self[function];
+    }
+
+    /**
+     * @param function The address of a function's first instruction.
+     * @return The instructions executed by the function, including
+     *         those of the functions it called.
+     */
+    public long getTotalInstructions(int function) {
+        return total[function];
+    }
+
+    /**
+     * @param label A built-in function's label.
+     * @return How often the built-in function was called.
+     */
+    public long getBuiltInCalls(int label) {
+        return builtInCalls[-(label + 1)];
+    }
+
+
+    /**
+     * Returns a report of the functions, hottest first, the opcodes
+     * and the most executed instructions.
+     *
+     * @param names The functions' names by address, cf.
+     *              @see edu.uap.tripla.compiler.TriplaCompiler.compile(
+     *              edu.uap.tripla.parser.AbstractSyntaxTree, Map),
+     *              or null. Functions without a name are reported
+     *              by their address, e.g. "@12".
+     * @return The report.
+     */
+    public String report(Map<Integer, String> names) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-20s %12s %14s %14s%n",
+                                    "function", "calls", "self", "total"));
+        Integer[] functions = hottest(self, self.length);
+        for (int function: functions) {
+            if (calls[function] == 0) {
+                break;
+            }
+            report.append(String.format("%-20s %12d %14d %14d%n",
+                                        name(function, names),
+                                        calls[function],
+                                        self[function],
+                                        total[function]));
+        }
+        BuiltInFunction[] builtIns = BuiltInFunction.getFunctionDefinitions();
+        for (int i = 0; i < builtIns.length; i++) {
+            if (builtInCalls[i] > 0) {
+                report.append(String.format("%-20s %12d%n",
+                                            builtIns[i].getName() + "/"
+                                            + builtIns[i].getParameters(),
+                                            builtInCalls[i]));
+            }
+        }
+
+        report.append(String.format("%n%-20s %12s%n", "opcode", "executed"));
+        for (Map.Entry<String, Long> entry: getOpcodeCounts().entrySet()) {
+            report.append(String.format("%-20s %12d%n",
+                                        entry.getKey(), entry.getValue()));
+        }
+
+        report.append(String.format("%n%-6s %-20s %12s%n",
+                                    "pc", "instruction", "executed"));
+        for (int pc: hottest(counts, HOT_ADDRESSES)) {
+            if (counts[pc] == 0) {
+                break;
+            }
+            report.append(String.format("%-6d %-20s %12d%n",
+                                        pc, text[pc], counts[pc]));
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return The indices of the greatest counts, greatest first.
+     */
+    private static Integer[] hottest(long[] counts, int n) {
+        Integer[] indices = new Integer[counts.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, (a, b) -> Long.compare(counts[b], counts[a]));
+        return Arrays.copyOf(indices, Math.min(n, indices.length));
+    }
+
+    private String name(int function, Map<Integer, String> names) {
+        if (function == main) {
+            return "main";
+        }
+        String name = names == null ? null : names.get(function);
+        return name == null ? "@" + function : name;
+    }
+}
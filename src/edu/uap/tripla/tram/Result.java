@@ -0,0 +1,103 @@
+package edu.uap.tripla.tram;
+
+/**
+ * The outcome of running a program on the abstract machine,
+ * cf. @see AbstractMachine.evaluate().
+ *
+ * A run either halts regularly, yielding the value of the topmost
+ * stack cell, or it is stopped by the machine, e.g. because the
+ * stack would exceed its maximum size or the run was cancelled.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public final class Result {
+
+    /** The ways a run can end. */
+    public enum Status {
+        /** The program executed HALT. */
+        HALTED,
+        /** The stack would have grown beyond its maximum size. */
+        STACK_OVERFLOW,
+        /** The run executed as many instructions as its fuel allowed. */
+        OUT_OF_FUEL,
+        /** The run was cancelled from outside. */
+        CANCELLED
+    }
+
+    private static final Result stackOverflow =
+            new Result(Status.STACK_OVERFLOW, 0);
+    private static final Result outOfFuel =
+            new Result(Status.OUT_OF_FUEL, 0);
+    private static final Result cancelled =
+            new Result(Status.CANCELLED, 0);
+
+    private final Status status;
+    private final int value;
+
+    private Result(Status status, int value) {
+        this.status = status;
+        this.value = value;
+    }
+
+    /**
+     * @param value The value of the topmost stack cell.
+     * @return The result of a run which halted regularly.
+     */
+    static Result halted(int value) {
+        return new Result(Status.HALTED, value);
+    }
+
+    /**
+     * @param status How the run was stopped, other than HALTED.
+     * @return The result of a run which the machine stopped.
+     */
+    static Result stopped(Status status) {
+        switch (status) {
+        case STACK_OVERFLOW:
+            return stackOverflow;
+        case OUT_OF_FUEL:
+            return outOfFuel;
+        case CANCELLED:
+            return cancelled;
+        default:
+            throw new Error(String.format(
+                    "The run was not stopped: %s.", status));
+        }
+    }
+
+    /**
+     * @return How the run ended.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Whether the program executed HALT.
+     */
+    public boolean isHalted() {
+        return status == Status.HALTED;
+    }
+
+    /**
+     * Returns the program's result. Throws an error if the
+     * run did not halt regularly.
+     *
+     * @return The value of the topmost stack cell.
+     */
+    public int getValue() {
+        if (!isHalted()) {
+            throw new Error(String.format(
+                    "The run did not halt regularly: %s.", status));
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        if (isHalted()) {
+            return String.format("%s (%d)", status, value);
+        }
+        return status.toString();
+    }
+}
@@ -0,0 +1,205 @@
+package edu.uap.tripla.tram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Post-compilation pass which fuses common sequences of machine
+ * instructions into superinstructions, e.g. "CONST 1; SUB" into
+ * "CONST_SUB 1". Thereby, the abstract machine dispatches fewer
+ * instructions per source-level operation.
+ *
+ * A superinstruction replaces only the first instruction of its
+ * sequence, the remaining instructions stay in place. Hence, no
+ * address changes and jumps into the middle of a sequence remain
+ * valid. When executed, a superinstruction performs the whole
+ * sequence and skips the remaining instructions. If it cannot do so,
+ * e.g. because a loaded variable is still an unevaluated lazy
+ * variable, it behaves just like the instruction it replaced.
+ *
+ * Patterns can be added via @see addPattern(Pattern); for new
+ * superinstructions, the abstract machine needs to know the fused
+ * opcode, too.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class Superinstructions {
+
+    /**
+     * A sequence of opcodes to be replaced by a superinstruction.
+     */
+    public static class Pattern {
+        private final int fusedOpcode;
+        private final int operandSource;
+        private final int[] opcodes;
+        private final String name;
+
+        /**
+         * @param fusedOpcode The superinstruction's opcode.
+         * @param operandSource The index within the sequence of the
+         *                      instruction whose operands the
+         *                      superinstruction takes over.
+         * @param opcodes The sequence of opcodes.
+         */
+        public Pattern(int fusedOpcode, int operandSource, int... opcodes) {
+            this.fusedOpcode = fusedOpcode;
+            this.operandSource = operandSource;
+            this.opcodes = opcodes;
+            String name = "";
+            for (int opcode: opcodes) {
+                name += (name.isEmpty() ? "" : " ") + Instruction.getName(opcode);
+            }
+            this.name = name;
+        }
+
+        /**
+         * Checks whether the pattern matches the program at the
+         * given address. Subclasses may add conditions on the
+         * operands by overriding @see accepts(Instruction[], int).
+         */
+        boolean matches(Instruction[] text, int pc) {
+            if (pc + opcodes.length > text.length) {
+                return false;
+            }
+            for (int i = 0; i < opcodes.length; i++) {
+                if (text[pc + i].getOpcode() != opcodes[i]) {
+                    return false;
+                }
+            }
+            return accepts(text, pc);
+        }
+
+        /**
+         * Additional condition on the matched instructions,
+         * whose opcodes are already known to match.
+         *
+         * @param text The program.
+         * @param pc Address of the sequence's first instruction.
+         * @return Whether the sequence can be fused.
+         */
+        protected boolean accepts(Instruction[] text, int pc) {
+            return true;
+        }
+
+        /**
+         * @return The superinstruction replacing text[pc].
+         */
+        Instruction fuse(Instruction[] text, int pc) {
+            return text[pc + operandSource].withOpcode(fusedOpcode);
+        }
+
+        /**
+         * @return The pattern's name, i.e. its sequence of mnemonics.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The superinstruction's opcode.
+         */
+        public int getFusedOpcode() {
+            return fusedOpcode;
+        }
+    }
+
+    /**
+     * A pattern of two loads of the same cell, followed by some
+     * instruction.
+     */
+    private static class DoubleLoad extends Pattern {
+        DoubleLoad(int fusedOpcode, int opcode) {
+            super(fusedOpcode, 0, Instruction.LOAD, Instruction.LOAD, opcode);
+        }
+
+        protected boolean accepts(Instruction[] text, int pc) {
+            return text[pc].getArg1() == text[pc + 1].getArg1()
+                && text[pc].getArg2() == text[pc + 1].getArg2();
+        }
+    }
+
+    /**
+     * A store to a cell immediately followed by a load of the same cell,
+     * as generated for assignments.
+     */
+    private static class StoreLoad extends Pattern {
+        StoreLoad() {
+            super(Instruction.STORE_LOAD, 0, Instruction.STORE, Instruction.LOAD);
+        }
+
+        protected boolean accepts(Instruction[] text, int pc) {
+            return text[pc].getArg1() == text[pc + 1].getArg1()
+                && text[pc].getArg2() == text[pc + 1].getArg2();
+        }
+    }
+
+    /** The patterns, tried in order. */
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+    /** Number of superinstructions generated so far, per pattern. */
+    private final Map<String, Integer> statistics = new LinkedHashMap<String, Integer>();
+
+    /**
+     * Creates the pass with the patterns known to the abstract machine.
+     */
+    public Superinstructions() {
+        addPattern(new DoubleLoad(Instruction.LOAD_LOAD_MUL, Instruction.MUL));
+        addPattern(new Pattern(Instruction.CONST_ADD, 0, Instruction.CONST, Instruction.ADD));
+        addPattern(new Pattern(Instruction.CONST_SUB, 0, Instruction.CONST, Instruction.SUB));
+        addPattern(new Pattern(Instruction.LT_IFZERO, 1, Instruction.LT, Instruction.IFZERO));
+        addPattern(new Pattern(Instruction.GT_IFZERO, 1, Instruction.GT, Instruction.IFZERO));
+        addPattern(new Pattern(Instruction.EQ_IFZERO, 1, Instruction.EQ, Instruction.IFZERO));
+        addPattern(new Pattern(Instruction.NEQ_IFZERO, 1, Instruction.NEQ, Instruction.IFZERO));
+        addPattern(new StoreLoad());
+    }
+
+    /**
+     * Adds a pattern. Patterns are tried in the order they were added.
+     *
+     * @param pattern The pattern.
+     */
+    public void addPattern(Pattern pattern) {
+        patterns.add(pattern);
+        if (!statistics.containsKey(pattern.getName())) {
+            statistics.put(pattern.getName(), 0);
+        }
+    }
+
+    /**
+     * Returns a copy of the given program where each instruction
+     * starting a known sequence is replaced by the corresponding
+     * superinstruction. The given program remains unchanged.
+     *
+     * @param text The program.
+     * @return The program with superinstructions.
+     */
+    public Instruction[] apply(Instruction[] text) {
+        Instruction[] fused = text.clone();
+        for (int pc = 0; pc < text.length; pc++) {
+            for (Pattern pattern: patterns) {
+                // match against the original program, sequences
+                // may overlap as they do not change addresses.
+                if (pattern.matches(text, pc)) {
+                    fused[pc] = pattern.fuse(text, pc);
+                    statistics.put(pattern.getName(),
+                                   statistics.get(pattern.getName()) + 1);
+                    break;
+                }
+            }
+        }
+        return fused;
+    }
+
+    /**
+     * Returns how many superinstructions were generated per pattern,
+     * summed up over all calls of @see apply(Instruction[]).
+     * How often they actually fire at run time is counted by the
+     * abstract machine, cf. @see AbstractMachine.getSuperinstructionStatistics().
+     *
+     * @return Pattern names and counts.
+     */
+    public Map<String, Integer> getStatistics() {
+        return statistics;
+    }
+}
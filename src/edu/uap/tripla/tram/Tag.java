@@ -0,0 +1,52 @@
+package edu.uap.tripla.tram;
+
+/**
+ * The tags of the abstract machine's stack cells.
+ * Each stack cell is a value-tag pair. Within the
+ * abstract machine, the kind of tag defines how to interpret
+ * the value.
+ *
+ * The abstract machine stores values and tags in two parallel
+ * primitive arrays, so a tag is just a byte constant defined here.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+final class Tag {
+
+    /** The value is an integer. */
+    static final byte I = 0;
+    /** The value is the address of a program instruction. */
+    static final byte P = 1;
+    /** The value is an unevaluated constant,
+     *  i.e. an unevaluated lazy variable,
+     *  given by the address of its code.
+     */
+    static final byte C = 2;
+
+    private Tag() {
+    }
+
+    /**
+     * Returns the printable representation of a stack cell,
+     * e.g. "I42".
+     *
+     * @param value The cell's value.
+     * @param tag The cell's tag.
+     * @return The representation.
+     */
+    static String toString(int value, byte tag) {
+        String t = "";
+        switch (tag) {
+        case I:
+            t = "I";
+            break;
+        case P:
+            t = "P";
+            break;
+        case C:
+            t = "C";
+            break;
+        }
+        return t + value;
+    }
+}
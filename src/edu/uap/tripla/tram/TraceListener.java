@@ -0,0 +1,42 @@
+package edu.uap.tripla.tram;
+
+/**
+ * Observes the abstract machine while it runs a program, cf.
+ * @see AbstractMachine.setTraceListener(TraceListener). The
+ * machine's state can be inspected via its getters, e.g.
+ * @see AbstractMachine.getPC().
+ *
+ * Without a listener, i.e. with @see NONE, the machine runs a loop
+ * which does not trace at all, so tracing costs nothing when off.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public interface TraceListener {
+
+    /** Traces nothing; the machine's default. */
+    TraceListener NONE = new TraceListener() {
+        @Override
+        public void step(AbstractMachine machine) {
+        }
+    };
+
+    /**
+     * Called before each instruction is executed.
+     *
+     * @param machine The machine, about to execute the
+     *                instruction at its PC.
+     */
+    void step(AbstractMachine machine);
+
+    /**
+     * Called once the machine stopped, i.e. halted or
+     * had to stop the program because its stack overflowed.
+     * Not called when a run pauses, i.e. runs out of fuel or is
+     * cancelled, as it may be resumed via
+     * @see AbstractMachine.evaluate().
+     *
+     * @param machine The machine.
+     */
+    default void stopped(AbstractMachine machine) {
+    }
+}
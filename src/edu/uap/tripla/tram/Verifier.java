@@ -0,0 +1,504 @@
+package edu.uap.tripla.tram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Load-time verifier for programs of the abstract machine.
+ *
+ * The program is split into regions like the JIT compiler does,
+ * cf. @see edu.uap.tripla.jit.JitCompiler: the main program, one
+ * region per function (i.e. per INVOKE-target) and one per lazy
+ * variable (i.e. per LAZY-target). For each region, the verifier
+ * determines the tags of the stack cells above the region's frame
+ * before each reachable instruction, and proves that
+ * <ul>
+ * <li>every jump target and successor is an instruction,</li>
+ * <li>each instruction is reached with the same tags on all paths,</li>
+ * <li>operands of arithmetic, comparisons, jumps, calls and
+ *     returns are integers, i.e. no instruction consumes
+ *     a return address,</li>
+ * <li>variables are parameters of the frame at the given static
+ *     distance, which is an enclosing function,</li>
+ * <li>RETURN only occurs in functions, LAZYRETURN only in lazy
+ *     variables, with exactly the lazy variable's value on top.</li>
+ * </ul>
+ * Verified programs run without the abstract machine's runtime tag
+ * checks: arithmetic and comparisons skip them, and so does loading
+ * a variable which is never a lazy variable. These instructions are
+ * marked unchecked in the bytecode, cf. @see Bytecode.UNCHECKED.
+ *
+ * The verifier is conservative; code generated by the TRIPLA compiler
+ * always verifies, hand-written programs may be rejected although
+ * they run fine with the checks.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public final class Verifier {
+
+    /** The kinds of regions. */
+    private enum Kind { MAIN, FUNCTION, THUNK }
+
+    /**
+     * A part of the program running in one frame.
+     */
+    private static class Region {
+        final Kind kind;
+        /** Address of the first instruction. */
+        final int entry;
+        /** Number of parameters (functions only). */
+        final int arity;
+        /** The statically enclosing region (functions only),
+         *  or null if it is not unique. */
+        Region parent;
+        /** The region whose frame the code runs in,
+         *  i.e. the declaring region for thunks, else itself. */
+        final Region owner;
+        /** Tags of the cells above the frame before each
+         *  reachable instruction. */
+        final Map<Integer, byte[]> states = new HashMap<Integer, byte[]>();
+        /** Parameters which may hold a lazy variable. */
+        final Set<Integer> lazyCells = new TreeSet<Integer>();
+
+        Region(Kind kind, int entry, int arity, Region parent, Region owner) {
+            this.kind = kind;
+            this.entry = entry;
+            this.arity = arity;
+            this.parent = parent;
+            this.owner = owner == null ? this : owner;
+        }
+
+        String name() {
+            switch (kind) {
+            case MAIN:
+                return "the main program";
+            case FUNCTION:
+                return "function " + entry;
+            default:
+                return "lazy variable " + entry;
+            }
+        }
+    }
+
+    /**
+     * Thrown when the program cannot be verified. Caught by
+     * @see verify(Instruction[]) and @see pack(Instruction[]).
+     */
+    @SuppressWarnings("serial")
+    private static class Rejected extends RuntimeException {
+        Rejected(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Instruction[] text;
+    private final Map<Integer, Region> functions = new LinkedHashMap<Integer, Region>();
+    private final Map<Integer, Region> thunks = new LinkedHashMap<Integer, Region>();
+    private final Deque<Region> worklist = new ArrayDeque<Region>();
+    private final Region main;
+
+    private Verifier(Instruction[] text) {
+        this.text = text;
+        this.main = new Region(Kind.MAIN, 0, 0, null, null);
+    }
+
+    /**
+     * Verifies a program.
+     *
+     * @param text The program.
+     * @throws Error If the program cannot be verified, telling why.
+     */
+    public static void verify(Instruction[] text) {
+        try {
+            new Verifier(text).analyze();
+        } catch (Rejected e) {
+            throw new Error(e.getMessage());
+        }
+    }
+
+    /**
+     * @param text The program.
+     * @return Whether the program can be verified.
+     */
+    public static boolean isVerifiable(Instruction[] text) {
+        try {
+            new Verifier(text).analyze();
+            return true;
+        } catch (Rejected e) {
+            return false;
+        }
+    }
+
+    /**
+     * Verifies a program and converts it to bytecode, where the
+     * instructions proven not to need the runtime tag checks are
+     * unchecked, cf. @see Bytecode.pack(Instruction[]).
+     *
+     * @param text The program.
+     * @return The bytecode, or null if the program cannot be verified.
+     */
+    static int[] pack(Instruction[] text) {
+        Verifier verifier = new Verifier(text);
+        try {
+            verifier.analyze();
+        } catch (Rejected e) {
+            return null;
+        }
+        int[] code = Bytecode.pack(text);
+        boolean[] unchecked = verifier.unchecked();
+        for (int pc = 0; pc < text.length; pc++) {
+            if (unchecked[pc]) {
+                code[pc * Bytecode.WIDTH + Bytecode.OPCODE] += Bytecode.UNCHECKED;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Returns the opcode an instruction is verified as, i.e. the
+     * first instruction of a superinstruction's sequence. The rest
+     * of the sequence is verified on its own.
+     */
+    private static int opcode(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+        case Instruction.LOAD_LOAD_MUL:
+            return Instruction.LOAD;
+        case Instruction.CONST_ADD:
+        case Instruction.CONST_SUB:
+            return Instruction.CONST;
+        case Instruction.LT_IFZERO:
+            return Instruction.LT;
+        case Instruction.GT_IFZERO:
+            return Instruction.GT;
+        case Instruction.EQ_IFZERO:
+            return Instruction.EQ;
+        case Instruction.NEQ_IFZERO:
+            return Instruction.NEQ;
+        case Instruction.STORE_LOAD:
+            return Instruction.STORE;
+        default:
+            return instruction.getOpcode();
+        }
+    }
+
+    private void analyze() {
+        worklist.add(main);
+        while (!worklist.isEmpty()) {
+            analyze(worklist.poll());
+        }
+    }
+
+    /**
+     * Determines the tags before each reachable instruction of a
+     * region; registers called functions and lazy variables' code
+     * as further regions.
+     */
+    private void analyze(Region region) {
+        region.states.clear();
+        Deque<Integer> pending = new ArrayDeque<Integer>();
+        reach(region, region.entry, EMPTY, pending);
+        while (!pending.isEmpty()) {
+            int pc = pending.poll();
+            byte[] s = region.states.get(pc);
+            int h = s.length;
+            Instruction instruction = text[pc];
+            switch (opcode(instruction)) {
+            case Instruction.CONST:
+                next(region, pc, push(s, 0, Tag.I), pending);
+                break;
+            case Instruction.LOAD:
+            case Instruction.FORCE:
+                cell(region, pc, s, instruction.getArg1(), instruction.getArg2());
+                next(region, pc, push(s, 0, Tag.I), pending);
+                break;
+            case Instruction.STORE: {
+                integers(region, pc, s, 1);
+                byte[] t = push(s, 1);
+                int k = instruction.getArg1();
+                cell(region, pc, t, k, instruction.getArg2());
+                if (instruction.getArg2() == 0 && region.owner == main) {
+                    t[k] = Tag.I;
+                }
+                next(region, pc, t, pending);
+                break;
+            }
+            case Instruction.ADD:
+            case Instruction.SUB:
+            case Instruction.MUL:
+            case Instruction.DIV:
+            case Instruction.LT:
+            case Instruction.GT:
+            case Instruction.EQ:
+            case Instruction.NEQ:
+                integers(region, pc, s, 2);
+                next(region, pc, push(s, 2, Tag.I), pending);
+                break;
+            case Instruction.IFZERO:
+                integers(region, pc, s, 1);
+                reach(region, instruction.getArg1(), push(s, 1), pending);
+                next(region, pc, push(s, 1), pending);
+                break;
+            case Instruction.GOTO:
+                reach(region, instruction.getArg1(), s, pending);
+                break;
+            case Instruction.NOP:
+            case Instruction.JOIN:
+                next(region, pc, s, pending);
+                break;
+            case Instruction.HALT:
+                integers(region, pc, s, 1);
+                break;
+            case Instruction.INVOKE:
+            case Instruction.FORK:
+                invoke(region, pc, s, instruction);
+                next(region, pc, push(s, instruction.getArg1(), Tag.I), pending);
+                break;
+            case Instruction.TAILINVOKE:
+                invoke(region, pc, s, instruction);
+                if (BuiltInFunction.isBuiltIn(instruction.getArg2())
+                        || instruction.getArg3() == 0) {
+                    // executed as INVOKE.
+                    next(region, pc, push(s, instruction.getArg1(), Tag.I), pending);
+                }
+                else if (region.kind != Kind.FUNCTION) {
+                    reject(region, pc, "replaces a frame outside of a function");
+                }
+                break;
+            case Instruction.RETURN:
+                if (region.kind != Kind.FUNCTION) {
+                    reject(region, pc, "returns outside of a function");
+                }
+                integers(region, pc, s, 1);
+                break;
+            case Instruction.LAZYRETURN:
+                if (region.kind != Kind.THUNK) {
+                    reject(region, pc, "returns outside of a lazy variable");
+                }
+                if (h != 1) {
+                    reject(region, pc, "does not return exactly one value");
+                }
+                integers(region, pc, s, 1);
+                break;
+            case Instruction.LAZY: {
+                int k = instruction.getArg1();
+                int p = instruction.getArg2();
+                if (region.kind != Kind.FUNCTION) {
+                    reject(region, pc, "declares a lazy variable outside of a function");
+                }
+                if (k < 0 || k >= region.arity) {
+                    reject(region, pc, "declares a lazy variable which is no parameter");
+                }
+                region.lazyCells.add(k);
+                Region thunk = thunks.get(p);
+                if (thunk == null) {
+                    thunk = new Region(Kind.THUNK, p, 0, null, region);
+                    thunks.put(p, thunk);
+                    worklist.add(thunk);
+                }
+                else if (thunk.owner != region) {
+                    reject(region, pc, "shares a lazy variable's code with another frame");
+                }
+                next(region, pc, s, pending);
+                break;
+            }
+            default:
+                reject(region, pc, "has an unknown opcode");
+            }
+        }
+    }
+
+    /**
+     * Checks an INVOKE, TAILINVOKE or FORK, and registers the callee.
+     */
+    private void invoke(Region region, int pc, byte[] s, Instruction instruction) {
+        int n = instruction.getArg1();
+        int p = instruction.getArg2();
+        int d = instruction.getArg3();
+        if (n < 0) {
+            reject(region, pc, "has a negative number of arguments");
+        }
+        integers(region, pc, s, n);
+        if (BuiltInFunction.isBuiltIn(p)) {
+            return;
+        }
+        if (p < 0 || p >= text.length) {
+            reject(region, pc, "invokes a function outside of the program");
+        }
+        Region parent = ancestor(region, pc, d);
+        Region function = functions.get(p);
+        if (function == null) {
+            function = new Region(Kind.FUNCTION, p, n, parent, null);
+            functions.put(p, function);
+            worklist.add(function);
+        }
+        else if (function.arity != n) {
+            reject(region, pc, "invokes a function with varying numbers of arguments");
+        }
+        else if (function.parent != parent && function.parent != null) {
+            // e.g. a function invoking itself at distance 0. Fine as
+            // long as it does not access its static parent; analyze
+            // it again, without one.
+            function.parent = null;
+            if (!worklist.contains(function)) {
+                worklist.add(function);
+            }
+        }
+    }
+
+    /**
+     * Checks that cell k at static distance d may be accessed.
+     */
+    private void cell(Region region, int pc, byte[] s, int k, int d) {
+        Region target = ancestor(region, pc, d);
+        if (target == main) {
+            // the main program's cells are just its stack.
+            if (region.owner != main || k < 0 || k >= s.length) {
+                reject(region, pc, "accesses an unused cell of the main program");
+            }
+            if (s[k] != Tag.I) {
+                reject(region, pc, "accesses a cell which is no variable");
+            }
+        }
+        else if (k < 0 || k >= target.arity) {
+            reject(region, pc, "accesses a cell which is no parameter");
+        }
+    }
+
+    /**
+     * @return The region whose frame is at static distance d.
+     */
+    private Region ancestor(Region region, int pc, int d) {
+        if (d < 0) {
+            reject(region, pc, "has a negative static distance");
+        }
+        Region r = region.owner;
+        for (int i = 0; i < d && r != null; i++) {
+            r = r.parent;
+        }
+        if (r == null) {
+            reject(region, pc, "has a static distance exceeding the nesting");
+        }
+        return r;
+    }
+
+    /**
+     * Checks that the n topmost cells are integers.
+     */
+    private void integers(Region region, int pc, byte[] s, int n) {
+        if (s.length < n) {
+            reject(region, pc, "takes operands from below its frame");
+        }
+        for (int i = s.length - n; i < s.length; i++) {
+            if (s[i] != Tag.I) {
+                reject(region, pc, "takes an operand which is no integer");
+            }
+        }
+    }
+
+    /**
+     * @return The tags after popping n cells and pushing the given ones.
+     */
+    private static byte[] push(byte[] s, int n, byte... tags) {
+        byte[] t = Arrays.copyOf(s, s.length - n + tags.length);
+        System.arraycopy(tags, 0, t, s.length - n, tags.length);
+        return t;
+    }
+
+    private void next(Region region, int pc, byte[] s, Deque<Integer> pending) {
+        reach(region, pc + 1, s, pending);
+    }
+
+    private void reach(Region region, int pc, byte[] s, Deque<Integer> pending) {
+        if (pc < 0 || pc >= text.length) {
+            throw new Rejected(String.format(
+                    "Cannot verify %s: it runs out of the program at %d.",
+                    region.name(), pc));
+        }
+        byte[] known = region.states.get(pc);
+        if (known == null) {
+            region.states.put(pc, s);
+            pending.add(pc);
+        }
+        else if (!Arrays.equals(known, s)) {
+            reject(region, pc, "is reached with different stack contents");
+        }
+    }
+
+    private static void reject(Region region, int pc, String reason) {
+        throw new Rejected(String.format(
+                "Cannot verify instruction %d of %s: it %s.", pc, region.name(), reason));
+    }
+
+    /**
+     * Determines the instructions which need no runtime tag checks.
+     * Those are all reachable ones having operands, except for loads
+     * of cells which may hold a lazy variable.
+     *
+     * @return Per instruction, whether it is unchecked.
+     */
+    private boolean[] unchecked() {
+        boolean[] unchecked = new boolean[text.length];
+        boolean[] checked = new boolean[text.length];
+        List<Region> regions = new ArrayList<Region>();
+        regions.add(main);
+        regions.addAll(functions.values());
+        regions.addAll(thunks.values());
+        for (Region region: regions) {
+            for (Map.Entry<Integer, byte[]> reachable: region.states.entrySet()) {
+                int pc = reachable.getKey();
+                Instruction instruction = text[pc];
+                switch (instruction.getOpcode()) {
+                case Instruction.LOAD:
+                case Instruction.LOAD_LOAD_MUL: {
+                    int k = instruction.getArg1();
+                    int d = instruction.getArg2();
+                    Region target = ancestor(region, pc, d);
+                    boolean lazy = target == main
+                            ? reachable.getValue()[k] != Tag.I
+                            : target.lazyCells.contains(k);
+                    if (lazy) {
+                        checked[pc] = true;
+                    }
+                    else {
+                        unchecked[pc] = true;
+                    }
+                    break;
+                }
+                case Instruction.ADD:
+                case Instruction.SUB:
+                case Instruction.MUL:
+                case Instruction.DIV:
+                case Instruction.LT:
+                case Instruction.GT:
+                case Instruction.EQ:
+                case Instruction.NEQ:
+                case Instruction.CONST_ADD:
+                case Instruction.CONST_SUB:
+                case Instruction.LT_IFZERO:
+                case Instruction.GT_IFZERO:
+                case Instruction.EQ_IFZERO:
+                case Instruction.NEQ_IFZERO:
+                case Instruction.STORE_LOAD:
+                    unchecked[pc] = true;
+                    break;
+                }
+            }
+        }
+        // an instruction shared by several regions needs the
+        // checks if one of them needs them.
+        for (int pc = 0; pc < text.length; pc++) {
+            unchecked[pc] &= !checked[pc];
+        }
+        return unchecked;
+    }
+}
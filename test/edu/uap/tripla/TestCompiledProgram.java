@@ -0,0 +1,100 @@
+package edu.uap.tripla;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.CompiledProgram;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Result;
+
+public class TestCompiledProgram {
+
+    private static final String[] sources = {
+        "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(12)",
+        "let sum(n) { if (n == 0) then 0 else n + sum(n - 1) } in sum(500)",
+        "let f(a) { let lazy x = a * a in x + x } in f(9)",
+        "let count(n) { if (n == 0) then 7 else count(n - 1) } in count(3000)",
+    };
+    private static final int[] expected = { 144, 125250, 162, 7 };
+
+    @Test
+    public void testInstructionsAreCopied() {
+        Instruction[] text = new Instruction[] {
+                new Instruction(Instruction.CONST, 42),
+                new Instruction(Instruction.HALT)
+        };
+        CompiledProgram program = new CompiledProgram(text);
+        text[0].setArg1(23);
+        program.getInstruction(0).setArg1(23);
+        program.getInstructions()[0].setArg1(23);
+        assertEquals(42, program.getInstruction(0).getArg1());
+
+        AbstractMachine am = new AbstractMachine();
+        am.load(program);
+        am.getProgram()[0].setArg1(23);
+        assertEquals(42, am.run());
+        assertTrue(program.isVerified());
+        assertEquals(2, program.size());
+    }
+
+    @Test
+    public void testRunConcurrently() {
+        List<CompiledProgram> programs = new ArrayList<CompiledProgram>();
+        for (String source: sources) {
+            programs.add(Tripla.prepare(source));
+        }
+        List<CompiledProgram> runs = new ArrayList<CompiledProgram>();
+        for (int i = 0; i < 2000; i++) {
+            runs.add(programs.get(i % programs.size()));
+        }
+        List<Result> results = Tripla.runConcurrently(runs, 16);
+        assertEquals(runs.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(expected[i % expected.length], results.get(i).getValue());
+        }
+    }
+
+    @Test
+    public void testMachinesShareOneProgram() throws Exception {
+        final CompiledProgram[] programs = new CompiledProgram[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            programs[i] = Tripla.prepare(sources[i]);
+        }
+        final int threads = 32;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final AbstractMachine am = new AbstractMachine();
+            am.setDispatch(AbstractMachine.Dispatch.values()[t % 2]);
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 200; i++) {
+                        int p = i % programs.length;
+                        am.load(programs[p]);
+                        if (am.run() != expected[p]) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.incrementAndGet();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker: workers) {
+            worker.join();
+        }
+        assertEquals(0, failures.get());
+    }
+}
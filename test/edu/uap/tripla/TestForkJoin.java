@@ -0,0 +1,161 @@
+package edu.uap.tripla;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uap.tripla.compiler.TriplaCompiler;
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Result;
+
+public class TestForkJoin {
+
+    static final String fibonacci =
+            "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(20)";
+
+    ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+    private static int count(Instruction[] program, int opcode) {
+        int n = 0;
+        for (Instruction instruction: program) {
+            if (instruction.getOpcode() == opcode) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private int run(String sourcecode, int threshold, AbstractMachine.Dispatch dispatch) {
+        AbstractMachine am = new AbstractMachine();
+        am.load(Tripla.compile(Tripla.parse(sourcecode, false), false));
+        am.setDispatch(dispatch);
+        am.setForkJoinPool(pool, threshold);
+        return am.run();
+    }
+
+    @Test
+    public void testForksCallsOfPureFunctions() {
+        Instruction[] program = TriplaCompiler.compile(Tripla.parse(fibonacci, false));
+        assertEquals(1, count(program, Instruction.FORK));
+        assertEquals(1, count(program, Instruction.JOIN));
+
+        // print is impure, and so are functions accessing variables outside.
+        program = TriplaCompiler.compile(Tripla.parse(
+                "let f(n) { print(n) } in f(1) + f(2)", false));
+        assertEquals(0, count(program, Instruction.FORK));
+        assertEquals(0, count(program, Instruction.JOIN));
+        program = TriplaCompiler.compile(Tripla.parse(
+                "let var c = 0 f(n) { c = c + n } g(n) { n } in f(1) + g(2)", false));
+        assertEquals(0, count(program, Instruction.FORK));
+        assertEquals(0, count(program, Instruction.JOIN));
+    }
+
+    @Test
+    public void testSameResults() {
+        for (AbstractMachine.Dispatch dispatch: AbstractMachine.Dispatch.values()) {
+            for (int threshold = 0; threshold <= 6; threshold++) {
+                assertEquals(6765, run(fibonacci, threshold, dispatch));
+            }
+        }
+    }
+
+    @Test
+    public void testNestedFunctions() {
+        // the forked calls run without their caller's frame,
+        // but have frames of their own for nested functions.
+        String code =
+            "let tree(n) {" +
+            "  let leaf(x) { x * 2 } in" +
+            "    if (n == 0) then leaf(1) else tree(n - 1) + tree(n - 1)" +
+            "} in tree(10)";
+        assertEquals(2048, run(code, 4, AbstractMachine.Dispatch.SWITCH));
+        assertEquals(2048, Tripla.runParallel(code, 4));
+    }
+
+    @Test
+    public void testStackOverflowInForkedCall() {
+        AbstractMachine am = new AbstractMachine(64, 1024);
+        am.load(Tripla.compile(Tripla.parse(
+                "let deep(n) { if (n == 0) then 0 else 1 + deep(n - 1) } in deep(10000) + deep(1)",
+                false), false));
+        am.setForkJoinPool(pool, 1);
+        assertEquals(Result.Status.STACK_OVERFLOW, am.evaluate().getStatus());
+    }
+
+    @Test
+    public void testRunsSequentiallyWhenTraced() {
+        AbstractMachine am = new AbstractMachine();
+        am.load(Tripla.compile(Tripla.parse(fibonacci, false), false));
+        am.setForkJoinPool(pool, 8);
+        long[] steps = new long[1];
+        am.setTraceListener(m -> steps[0]++);
+        assertEquals(6765, am.run());
+        // all instructions ran on the traced machine.
+        assertEquals(am.getExecutedInstructions(), steps[0]);
+        AbstractMachine plain = new AbstractMachine();
+        plain.load(am.getProgram());
+        plain.run();
+        assertEquals(plain.getExecutedInstructions(), am.getExecutedInstructions());
+    }
+
+    @Test
+    public void testCancelStopsForkedCalls() throws Exception {
+        // both calls never return; the left one runs in the pool.
+        AbstractMachine am = new AbstractMachine();
+        am.load(Tripla.compile(Tripla.parse(
+                "let loop(n) { loop(n) } in loop(1) + loop(2)", false), false));
+        am.setForkJoinPool(pool, 4);
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+            }
+            am.cancel();
+        });
+        canceller.start();
+        assertEquals(Result.Status.CANCELLED, am.evaluate().getStatus());
+        canceller.join();
+        // no task is left running.
+        assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+        assertEquals(0, pool.getActiveThreadCount());
+    }
+
+    @Test
+    public void testResumeCancelledForkedCalls() {
+        for (AbstractMachine.Dispatch dispatch: AbstractMachine.Dispatch.values()) {
+            AbstractMachine am = new AbstractMachine();
+            am.load(Tripla.compile(Tripla.parse(fibonacci, false), false));
+            am.setDispatch(dispatch);
+            am.setForkJoinPool(pool, 3);
+            // stops the run as soon as it checks, with the forked calls.
+            am.cancel();
+            Result result = am.evaluate();
+            assertEquals(Result.Status.CANCELLED, result.getStatus());
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            result = am.evaluate();
+            assertEquals(Result.Status.HALTED, result.getStatus());
+            assertEquals(6765, result.getValue());
+        }
+    }
+
+    @Test(expected = Error.class)
+    public void testNegativeThreshold() {
+        new AbstractMachine().setForkJoinPool(pool, -1);
+    }
+}
@@ -0,0 +1,99 @@
+package edu.uap.tripla;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Result;
+import edu.uap.tripla.tram.TraceListener;
+
+public class TestMachinePool {
+
+    private static Instruction[] compile(String sourcecode) {
+        return Tripla.compile(Tripla.parse(sourcecode, false), false);
+    }
+
+    @Test
+    public void testMachinesAreReused() {
+        MachinePool pool = new MachinePool(2);
+        AbstractMachine first = pool.acquire();
+        pool.release(first);
+        assertEquals(1, pool.getIdleMachines());
+        assertSame(first, pool.acquire());
+        assertEquals(0, pool.getIdleMachines());
+    }
+
+    @Test
+    public void testCapacity() {
+        MachinePool pool = new MachinePool(1);
+        AbstractMachine first = pool.acquire();
+        AbstractMachine second = pool.acquire();
+        assertNotSame(first, second);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.getIdleMachines());
+    }
+
+    @Test
+    public void testSettingsAreReset() {
+        MachinePool pool = new MachinePool(1);
+        AbstractMachine machine = pool.acquire();
+        machine.setFuel(10);
+        machine.setDispatch(AbstractMachine.Dispatch.THREADED);
+        machine.setTraceListener(m -> { });
+        machine.setForkJoinPool(ForkJoinPool.commonPool(), 2);
+        pool.release(machine);
+        machine = pool.acquire();
+        assertEquals(AbstractMachine.UNLIMITED, machine.getFuel());
+        assertEquals(AbstractMachine.Dispatch.SWITCH, machine.getDispatch());
+        assertSame(TraceListener.NONE, machine.getTraceListener());
+        assertNull(machine.getForkJoinPool());
+    }
+
+    @Test
+    public void testRunsDoNotInterfere() {
+        MachinePool pool = new MachinePool(1);
+        Instruction[] deep = compile(
+                "let sum(n) { if (n == 0) then 0 else n + sum(n - 1) } in sum(1000)");
+        Instruction[] shallow = compile("let var x = 0 in x + 1");
+        assertEquals(500500, pool.run(deep));
+        assertEquals(1, pool.run(shallow));
+        assertEquals(500500, pool.run(deep));
+        assertEquals(Result.Status.HALTED, pool.evaluate(shallow).getStatus());
+    }
+
+    @Test
+    public void testConcurrentRuns() throws Exception {
+        final MachinePool pool = new MachinePool(4);
+        final Instruction[] program = compile(
+                "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(15)");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return pool.run(program);
+                    }
+                }));
+            }
+            for (Future<Integer> result: results) {
+                assertEquals(610, (int) result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(pool.getIdleMachines() <= 4);
+    }
+}
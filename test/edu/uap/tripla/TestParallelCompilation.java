@@ -0,0 +1,76 @@
+package edu.uap.tripla;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import edu.uap.tripla.compiler.TriplaCompiler;
+import edu.uap.tripla.parser.AbstractSyntaxTree;
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.Instruction;
+
+public class TestParallelCompilation {
+
+    private static final int programs = 2000;
+
+    /** The i-th of several distinct programs. */
+    private static String source(int i) {
+        if (i % 2 == 0) {
+            return String.format(
+                "let sum%d(n) { if (n == 0) then %d else n + sum%d(n - 1) } in sum%d(%d)",
+                i, i, i, i, i % 50);
+        }
+        return String.format(
+            "let var a = %d lazy b = a * 2 in if (a < %d) then b else a + b",
+            i, programs / 2);
+    }
+
+    /** The i-th program's result. */
+    private static int expected(int i) {
+        if (i % 2 == 0) {
+            int m = i % 50;
+            return i + m * (m + 1) / 2;
+        }
+        return i < programs / 2 ? 2 * i : 3 * i;
+    }
+
+    @Test
+    public void testParallelCompilation() throws Exception {
+        // the programs as compiled one after another.
+        final AbstractSyntaxTree[] trees = new AbstractSyntaxTree[programs];
+        String[] sequential = new String[programs];
+        for (int i = 0; i < programs; i++) {
+            trees[i] = Tripla.parse(source(i), false);
+            sequential[i] = Arrays.toString(TriplaCompiler.compile(trees[i]));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Instruction[]>> results = new ArrayList<Future<Instruction[]>>();
+            for (int i = 0; i < programs; i++) {
+                final AbstractSyntaxTree ast = trees[i];
+                results.add(executor.submit(new Callable<Instruction[]>() {
+                    @Override
+                    public Instruction[] call() {
+                        return TriplaCompiler.compile(ast);
+                    }
+                }));
+            }
+            for (int i = 0; i < programs; i++) {
+                Instruction[] program = results.get(i).get();
+                assertEquals(sequential[i], Arrays.toString(program));
+                assertEquals(expected(i), new AbstractMachine(program).run());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -32,63 +32,106 @@ public class TestTripla {
         System.setOut(originalOut);        
     }
     
+    /**
+     * Runs a piece of TRIPLA-code. Overridden by
+     * tests of other backends.
+     */
+    protected int run(String sourcecode) {
+        return Tripla.run(sourcecode);
+    }
+    
+    @Test
+    public void testDeepNesting() {
+        // the lazy variable is evaluated three levels below its
+        // declaration and calls a function at yet another level.
+        String code =
+            "let f(a) {" +
+            "  let" +
+            "    lazy x = a + h(a)" +
+            "    h(b) { b * 10 }" +
+            "  in" +
+            "    let g(c) {" +
+            "      let k(e) { x + c + e + h(1) } in k(100)" +
+            "    } in g(1000) + x" +
+            "} in f(2)";
+        assertEquals(22 + 1000 + 100 + 10 + 22, run(code));
+    }
+
     @Test
     public void testParameterAsLocalVariable() {
-        int result = Tripla.run("let x(a) { a = 3; a } in x(5)");
+        int result = run("let x(a) { a = 3; a } in x(5)");
         assertEquals(3, result);
     }
 
     @Test
     public void testFunctionMasking() {
-        int result = Tripla.run("let x(a) { 1 } x(b) { 2 } in x(5)");
+        int result = run("let x(a) { 1 } x(b) { 2 } in x(5)");
         assertEquals(2, result);
 
-        result = Tripla.run("let x(a) { 42 } in let x(b) { 23 } in x(5)");
+        result = run("let x(a) { 42 } in let x(b) { 23 } in x(5)");
         assertEquals(23, result);
 
-        result = Tripla.run("let x(a,b) { 42 } in let x(c) { 23 } in x(1,2)");
+        result = run("let x(a,b) { 42 } in let x(c) { 23 } in x(1,2)");
         assertEquals(42, result);
 
-        result = Tripla.run("let x(a) { let y(b) { 13 } in y(a) } in let y(c) { 7 } in x(1)");
+        result = run("let x(a) { let y(b) { 13 } in y(a) } in let y(c) { 7 } in x(1)");
         assertEquals(13, result);
     }
 
     @Test
     public void testNestedFunctions() {
-        int result = Tripla.run("let x(a) { let y(b) { let z(c) { if (c == 0) then a else y(c) } in z(b-1) } in y(a) } in x(3)");
+        int result = run("let x(a) { let y(b) { let z(c) { if (c == 0) then a else y(c) } in z(b-1) } in y(a) } in x(3)");
         assertEquals(3, result);
         
-        result = Tripla.run("let x(a) { let y(b) { a } in y(3*a) } in x(5)");
+        result = run("let x(a) { let y(b) { a } in y(3*a) } in x(5)");
         assertEquals(5, result);
     }
     
+    @Test
+    public void testDeepRecursion() {
+        int result = run("let sum(n) { if (n == 0) then 0 else n + sum(n - 1) } in sum(10000)");
+        assertEquals(50005000, result);
+    }
+    
+    @Test
+    public void testTailRecursion() {
+        // would need far more than the maximum stack size without tail calls.
+        int result = run("let count(n, acc) { if (n == 0) then acc else count(n - 1, acc + 2) } in count(1000000, 0)");
+        assertEquals(2000000, result);
+        result = run("let even(n) { if (n == 0) then 1 else odd(n - 1) } " +
+                     "odd(n) { n; if (n == 0) then 0 else even(n - 1) } in even(1000001)");
+        assertEquals(0, result);
+        result = run("let f(n) { let g(m) { m * 2 } in g(n) } in f(21)");
+        assertEquals(42, result);
+    }
+    
     @Test
     public void testBuiltInFunctions() {
-        int result = Tripla.run("let x(a) { print(a) } in x(23)");
+        int result = run("let x(a) { print(a) } in x(23)");
         assertEquals(23, result);
 
-        result = Tripla.run("let x(a) { print(a) } in print(13)");
+        result = run("let x(a) { print(a) } in print(13)");
         assertEquals(13, result);
 
-        result = Tripla.run("let print(a) { 42 } in print(23)");
+        result = run("let print(a) { 42 } in print(23)");
         assertEquals(42, result);
     }
     
     @Test
     public void testVariables() {
-        int result = Tripla.run("let var pi = 3 in pi");
+        int result = run("let var pi = 3 in pi");
         assertEquals(3, result);
         
-        result = Tripla.run("let var pi = 3 x(a) { a*pi } in x(2)");
+        result = run("let var pi = 3 x(a) { a*pi } in x(2)");
         assertEquals(6, result);
         
-        result = Tripla.run("let var pi = 3 x(pi) { pi } in x(4)");
+        result = run("let var pi = 3 x(pi) { pi } in x(4)");
         assertEquals(4, result);
         
-        result = Tripla.run("let var pi = 42 x(pi) { pi = 5 } y(b) { pi } in x(1); y(23)");
+        result = run("let var pi = 42 x(pi) { pi = 5 } y(b) { pi } in x(1); y(23)");
         assertEquals(42, result);
         
-        result = Tripla.run("let var pi = 3 x(a) { pi = a } y(b) { pi } in x(23); y(42)");
+        result = run("let var pi = 3 x(a) { pi = a } y(b) { pi } in x(23); y(42)");
         assertEquals(23, result);
     }
 
@@ -106,7 +149,7 @@ public class TestTripla {
                 "  }" +
                 "in" +
                 "  x";
-        result = Tripla.run(code);
+        result = run(code);
         assertEquals("", outContent.toString());
         outContent.reset();
         
@@ -118,7 +161,7 @@ public class TestTripla {
                 "  }" +
                 "in" +
                 "  x";
-        result = Tripla.run(code);
+        result = run(code);
         assertEquals("23\n", outContent.toString());
         outContent.reset();
         
@@ -129,7 +172,7 @@ public class TestTripla {
                 "  }" +
                 "in" +
                 "  x = 42; x";
-        result = Tripla.run(code);
+        result = run(code);
         assertEquals(42, result);
         assertEquals("", outContent.toString());
         outContent.reset();
@@ -159,7 +202,7 @@ public class TestTripla {
                 "in" +
                 "  count(0) " +
                 ""; 
-        result = Tripla.run(code);
+        result = run(code);
         assertEquals(20, result);
             
         code =
@@ -179,8 +222,43 @@ public class TestTripla {
             "  }" +
             "in" +
             "  one; two; three"; 
-        result = Tripla.run(code);
+        result = run(code);
         assertEquals("2\n1\n3\n", outContent.toString());
         assertEquals(3, result);
     }
+    
+    @Test
+    public void testSameNames() {
+        // functions are told apart by their number of parameters,
+        // and from variables of the same name.
+        int result = run("let f(n) { n + 1 } f(a, b) { a * b } in " +
+                         "let var f = 3 in f(f) + f(f, 2)");
+        assertEquals(10, result);
+        
+        result = run("let var x = 1 f(x) { let g(y) { x * y } in g(5) } in f(x + 1) + x");
+        assertEquals(11, result);
+    }
+    
+    @Test
+    public void testLazyAndVariableOfSameName() {
+        // both are stored in the same cell, the later one wins.
+        assertEquals(7, run("let lazy v = 2 * 3 var v = v + 1 in v"));
+        assertEquals(5, run("let lazy v = 2 var v = 5 in v"));
+        assertEquals(8, run("let var v = 5 lazy v = 2 * 4 in v"));
+    }
+    
+    @Test
+    public void testGeneratedProgram() {
+        // as generated by machine: many functions, each one
+        // calling the one before in a conditional.
+        StringBuilder code = new StringBuilder("let f0(n) { n } ");
+        for (int i = 1; i < 1000; i++) {
+            code.append(String.format(
+                "f%d(n) { if (n < %d) then f%d(n + 1) else f%d(n) } ", i, i, i - 1, i - 1));
+        }
+        code.append("in f999(0)");
+        // n grows until it meets the function's number, at 500.
+        int result = run(code.toString());
+        assertEquals(500, result);
+    }
 }
@@ -0,0 +1,15 @@
+package edu.uap.tripla;
+
+/**
+ * Runs all of @see TestTripla with TRIPLA-code
+ * compiled to JVM bytecode, cf. @see JitCompiler.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class TestTriplaJit extends TestTripla {
+
+    @Override
+    protected int run(String sourcecode) {
+        return Tripla.runJit(sourcecode);
+    }
+}
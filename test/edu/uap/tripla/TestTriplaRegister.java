@@ -0,0 +1,24 @@
+package edu.uap.tripla;
+
+import org.junit.Test;
+
+/**
+ * Runs all of @see TestTripla on the register machine,
+ * cf. @see RegisterMachine.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class TestTriplaRegister extends TestTripla {
+
+    @Override
+    protected int run(String sourcecode) {
+        return Tripla.runRegister(sourcecode);
+    }
+
+    @Test(expected = Error.class)
+    public void testForcesMaskedLazyVariable() {
+        // the variable's initial value forces the lazy variable stored
+        // in its register, which needs itself, as on the abstract machine.
+        run("let f(d) { if (d < 1) then 5 else v + 1 } lazy v = f(3) var v = f(2) in v");
+    }
+}
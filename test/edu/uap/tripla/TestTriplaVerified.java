@@ -0,0 +1,22 @@
+package edu.uap.tripla;
+
+import edu.uap.tripla.compiler.TriplaCompiler;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Verifier;
+
+/**
+ * Runs all of @see TestTripla, checking that the compiled code,
+ * with and without superinstructions, passes the @see Verifier.
+ *
+ * @author Richard Kiefer, s4rikief@uni-trier.de
+ */
+public class TestTriplaVerified extends TestTripla {
+
+    @Override
+    protected int run(String sourcecode) {
+        Verifier.verify(TriplaCompiler.compile(Tripla.parse(sourcecode, false)));
+        Instruction[] program = Tripla.compile(Tripla.parse(sourcecode, false), false);
+        Verifier.verify(program);
+        return Tripla.run(program, false);
+    }
+}
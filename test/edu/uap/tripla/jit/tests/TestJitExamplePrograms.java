@@ -0,0 +1,71 @@
+package edu.uap.tripla.jit.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.uap.tripla.jit.JitCompiler;
+import edu.uap.tripla.tram.ExamplePrograms;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Superinstructions;
+
+public class TestJitExamplePrograms {
+
+    @Test
+    public void testProgram1() {
+        int[] cells = new int[2]; // as specified in program description
+        JitCompiler.compile(ExamplePrograms.program1).run(cells);
+        assertEquals(6, cells[0]);
+        assertEquals(28, cells[1]);
+    }
+
+    @Test
+    public void testProgram2() {
+        int[] cells = new int[1]; // as specified in program description
+        assertEquals(3, JitCompiler.compile(ExamplePrograms.program2).run(cells));
+        assertEquals(10, cells[0]);
+    }
+
+    @Test
+    public void testProgram3() {
+        assertEquals(100, JitCompiler.compile(ExamplePrograms.program3).run());
+    }
+
+    @Test
+    public void testProgram4() {
+        assertEquals(4, JitCompiler.compile(ExamplePrograms.program4).run());
+    }
+
+    @Test
+    public void testFactorial() {
+        assertEquals(24, JitCompiler.compile(ExamplePrograms.factorial(4)).run());
+        assertEquals(1, JitCompiler.compile(ExamplePrograms.factorial(0)).run());
+    }
+
+    @Test
+    public void testSuperinstructions() {
+        Instruction[] program = new Superinstructions().apply(ExamplePrograms.factorial(5));
+        assertEquals(120, JitCompiler.compile(program).run());
+    }
+
+    @Test
+    public void testHaltWithinFunction() {
+        assertEquals(23, JitCompiler.compile(new Instruction[]{
+                new Instruction(Instruction.CONST, 42),
+                new Instruction(Instruction.INVOKE, 1, 3, 0),
+                new Instruction(Instruction.HALT),
+                new Instruction(Instruction.CONST, 23),
+                new Instruction(Instruction.HALT)
+        }).run());
+    }
+
+    @Test(expected = Error.class)
+    public void testInconsistentStackHeight() {
+        JitCompiler.compile(new Instruction[]{
+                new Instruction(Instruction.CONST, 0),
+                new Instruction(Instruction.IFZERO, 3),
+                new Instruction(Instruction.CONST, 1),
+                new Instruction(Instruction.HALT)
+        });
+    }
+}
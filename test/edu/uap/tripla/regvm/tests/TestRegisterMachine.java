@@ -0,0 +1,78 @@
+package edu.uap.tripla.regvm.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uap.tripla.compiler.RegisterCompiler;
+import edu.uap.tripla.parser.TriplaParser;
+import edu.uap.tripla.regvm.RegisterInstruction;
+import edu.uap.tripla.regvm.RegisterMachine;
+
+public class TestRegisterMachine {
+
+    RegisterMachine machine;
+
+    @Before
+    public void setUp() throws Exception {
+        machine = new RegisterMachine();
+    }
+
+    @Test
+    public void testSquare() {
+        // let square(x) { x*x } in square(10)
+        machine.load(new RegisterInstruction[] {
+                new RegisterInstruction(RegisterInstruction.ENTER, 1),
+                new RegisterInstruction(RegisterInstruction.LOADK, 0, 10),
+                new RegisterInstruction(RegisterInstruction.CALL, 0, 4, 0),
+                new RegisterInstruction(RegisterInstruction.HALT, 0),
+                new RegisterInstruction(RegisterInstruction.ENTER, 2),
+                new RegisterInstruction(RegisterInstruction.MUL, 1, 0, 0),
+                new RegisterInstruction(RegisterInstruction.RET, 1),
+        });
+        assertEquals(100, machine.run());
+        assertEquals(7, machine.getExecutedInstructions());
+    }
+
+    @Test
+    public void testLazyVariableIsEvaluatedOnce() {
+        // let lazy x = 6 * 7 in x + x
+        machine.load(new RegisterInstruction[] {
+                new RegisterInstruction(RegisterInstruction.ENTER, 4),
+                new RegisterInstruction(RegisterInstruction.LAZY, 1, 6),
+                new RegisterInstruction(RegisterInstruction.FORCE, 2, 1, 0),
+                new RegisterInstruction(RegisterInstruction.FORCE, 3, 1, 0),
+                new RegisterInstruction(RegisterInstruction.ADD, 0, 2, 3),
+                new RegisterInstruction(RegisterInstruction.HALT, 0),
+                new RegisterInstruction(RegisterInstruction.ENTER, 2),
+                new RegisterInstruction(RegisterInstruction.LOADK, 1, 7),
+                new RegisterInstruction(RegisterInstruction.LOADK, 0, 6),
+                new RegisterInstruction(RegisterInstruction.MUL, 0, 0, 1),
+                new RegisterInstruction(RegisterInstruction.SETUP, 0, 1, 1),
+                new RegisterInstruction(RegisterInstruction.RET, 0),
+        });
+        assertEquals(84, machine.run());
+        // the first FORCE is executed twice, the code of x once.
+        assertEquals(13, machine.getExecutedInstructions());
+    }
+
+    @Test
+    public void testFewerInstructionsThanStackMachine() throws Exception {
+        RegisterInstruction[] program = RegisterCompiler.compile(TriplaParser.parse(
+                "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(10)"));
+        machine.load(program);
+        assertEquals(55, machine.run());
+        // per call: ENTER, LOADK, JUMPGE, and either MOVE, JUMP and RET,
+        // or SUBK, CALL, SUBK, CALL, ADD and RET; fib is called 177 times.
+        assertEquals(4 + 89 * 6 + 88 * 9, machine.getExecutedInstructions());
+    }
+
+    @Test(expected = Error.class)
+    public void testStackOverflow() throws Exception {
+        machine = new RegisterMachine(1024);
+        machine.load(RegisterCompiler.compile(TriplaParser.parse(
+                "let f(n) { 1 + f(n + 1) } in f(0)")));
+        machine.run();
+    }
+}
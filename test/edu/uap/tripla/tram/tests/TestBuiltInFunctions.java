@@ -9,7 +9,10 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import edu.uap.tripla.compiler.TriplaCompiler;
+import edu.uap.tripla.parser.TriplaParser;
 import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.BuiltInFunction;
 import edu.uap.tripla.tram.Instruction;
 
 public class TestBuiltInFunctions {
@@ -19,7 +22,6 @@ public class TestBuiltInFunctions {
     @Before
     public void setUp() throws Exception {
         tram = new AbstractMachine();
-        tram.debug = false;
     }
     
 
@@ -55,4 +57,34 @@ public class TestBuiltInFunctions {
         assertEquals(23, result);
     }
 
+    @Test
+    public void testPrintWithoutArray() {
+        BuiltInFunction print = BuiltInFunction.get("print");
+        assertTrue(print instanceof BuiltInFunction.Unary);
+        assertEquals(7, BuiltInFunction.execute(print.getLabel(), 7));
+        assertEquals(8, BuiltInFunction.execute(print.getLabel(), new int[] { 8 }));
+        assertEquals("7\n8\n", outContent.toString());
+    }
+
+    @Test(expected = Error.class)
+    public void testWrongNumberOfParametersAtRunTime() {
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 42),
+                new Instruction(Instruction.CONST, 23),
+                new Instruction(Instruction.INVOKE, 2, -1, 0),
+                new Instruction(Instruction.HALT)
+        });
+        tram.run();
+    }
+
+    @Test
+    public void testWrongNumberOfParametersAtCompileTime() throws Exception {
+        try {
+            TriplaCompiler.compile(TriplaParser.parse("print(1, 2)"));
+            fail();
+        } catch (Error e) {
+            assertEquals("Built-in function print/1 called as print/2.", e.getMessage());
+        }
+    }
+
 }
@@ -0,0 +1,136 @@
+package edu.uap.tripla.tram.tests;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uap.tripla.compiler.TriplaCompiler;
+import edu.uap.tripla.parser.TriplaParser;
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.ExamplePrograms;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Result;
+
+public class TestCheckpoint {
+
+    Path snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        snapshot = Files.createTempFile("tram", ".snapshot");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(snapshot);
+    }
+
+    private static Instruction[] compile(String sourcecode) throws Exception {
+        return TriplaCompiler.compile(TriplaParser.parse(sourcecode));
+    }
+
+    @Test
+    public void testResumeInAnotherMachine() throws Exception {
+        Instruction[] program = compile(
+                "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(15)");
+        AbstractMachine first = new AbstractMachine(program);
+        first.setFuel(1000);
+        int checkpoints = 0;
+        Result result = first.evaluate();
+        while (result.getStatus() == Result.Status.OUT_OF_FUEL) {
+            first.checkpoint(snapshot);
+            checkpoints++;
+            // each part of the run continues in a new machine,
+            // with a stack too small for the whole run at first.
+            first = new AbstractMachine(4, AbstractMachine.DEFAULT_MAXIMUM_STACK_SIZE);
+            first.load(program);
+            first.setFuel(1000);
+            first.restore(snapshot);
+            result = first.evaluate();
+        }
+        assertTrue(checkpoints > 10);
+        assertEquals(610, result.getValue());
+
+        AbstractMachine whole = new AbstractMachine(program);
+        whole.run();
+        assertEquals(whole.getExecutedInstructions(), first.getExecutedInstructions());
+    }
+
+    /** Runs a program one instruction at a time, each in a new machine. */
+    private int resumeEachStep(String sourcecode) throws Exception {
+        Instruction[] program = compile(sourcecode);
+        AbstractMachine am = new AbstractMachine(program);
+        am.setFuel(1);
+        Result result = am.evaluate();
+        while (result.getStatus() == Result.Status.OUT_OF_FUEL) {
+            am.checkpoint(snapshot);
+            am = new AbstractMachine(program);
+            am.setFuel(1);
+            am.restore(snapshot);
+            result = am.evaluate();
+        }
+        assertEquals(Result.Status.HALTED, result.getStatus());
+        return result.getValue();
+    }
+
+    @Test
+    public void testResumeNestedFunctionsInAnotherMachine() throws Exception {
+        // g calls h, which is declared further out, so the display
+        // entry of g's level is needed again after h returns.
+        assertEquals(26, resumeEachStep(
+                "let h(x) { x + 1 } f(a) { let g(b) { h(b) + b + a } in g(10) } in f(5)"));
+        // forcing a lazy variable declared further out, likewise.
+        assertEquals(16, resumeEachStep(
+                "let lazy v = 3 * 2 f(a) { let g(b) { v + b + a } in g(5) } in f(5)"));
+    }
+
+    @Test
+    public void testRestoreReplacesState() throws Exception {
+        Instruction[] program = compile(
+                "let sum(n) { if (n == 0) then 0 else n + sum(n - 1) } in sum(100)");
+        AbstractMachine am = new AbstractMachine(program);
+        am.setFuel(500);
+        am.evaluate();
+        am.checkpoint(snapshot);
+        int pc = am.getPC();
+        int top = am.getTop();
+        String cell = am.getTaggedStackAt(top);
+        am.setFuel(AbstractMachine.UNLIMITED);
+        assertEquals(5050, am.run());
+
+        am.restore(snapshot);
+        assertEquals(pc, am.getPC());
+        assertEquals(top, am.getTop());
+        assertEquals(cell, am.getTaggedStackAt(top));
+        assertEquals(5050, am.run());
+        // the snapshot's size is proportional to the used stack.
+        assertTrue(Files.size(snapshot) < 64 + 5 * (top + 1) + 4 * (am.getLevel() + 1) + 64);
+    }
+
+    @Test(expected = Error.class)
+    public void testAnotherProgramIsRejected() throws Exception {
+        AbstractMachine am = new AbstractMachine(ExamplePrograms.factorial(5));
+        am.setFuel(10);
+        am.evaluate();
+        am.checkpoint(snapshot);
+        am.load(ExamplePrograms.factorial(6));
+        am.restore(snapshot);
+    }
+
+    @Test(expected = Error.class)
+    public void testTruncatedSnapshotIsRejected() throws Exception {
+        AbstractMachine am = new AbstractMachine(ExamplePrograms.factorial(5));
+        am.setFuel(10);
+        am.evaluate();
+        am.checkpoint(snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 3));
+        am.restore(snapshot);
+    }
+}
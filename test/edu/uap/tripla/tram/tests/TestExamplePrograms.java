@@ -15,7 +15,6 @@ public class TestExamplePrograms {
     @Before
     public void setUp() throws Exception {
         tram = new AbstractMachine();
-        tram.debug = false;
     }
     
     @Test
@@ -57,5 +56,16 @@ public class TestExamplePrograms {
         assertEquals(1, tram.run());
     }
 
+    @Test
+    public void testThreadedDispatch() {
+        tram.setDispatch(AbstractMachine.Dispatch.THREADED);
+        tram.load(ExamplePrograms.program3);
+        assertEquals(100, tram.run());
+        tram.load(ExamplePrograms.program4);
+        assertEquals(4, tram.run());
+        tram.load(ExamplePrograms.factorial(4));
+        assertEquals(24, tram.run());
+    }
+
 
 }
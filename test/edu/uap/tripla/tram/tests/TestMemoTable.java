@@ -0,0 +1,125 @@
+package edu.uap.tripla.tram.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uap.tripla.compiler.TriplaCompiler;
+import edu.uap.tripla.parser.TriplaParser;
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.MemoTable;
+
+public class TestMemoTable {
+
+    AbstractMachine tram;
+    Map<Integer, String> names;
+    Set<Integer> pure;
+
+    @Before
+    public void setUp() throws Exception {
+        tram = new AbstractMachine();
+        names = new HashMap<Integer, String>();
+        pure = new HashSet<Integer>();
+    }
+
+    private Instruction[] compile(String sourcecode) throws Exception {
+        return TriplaCompiler.compile(TriplaParser.parse(sourcecode), names, pure);
+    }
+
+    /** @return The signatures of the pure functions. */
+    private Set<String> pureNames() {
+        Set<String> result = new HashSet<String>();
+        for (int address: pure) {
+            result.add(names.get(address));
+        }
+        return result;
+    }
+
+    private static Set<String> set(String... names) {
+        Set<String> result = new HashSet<String>();
+        for (String name: names) {
+            result.add(name);
+        }
+        return result;
+    }
+
+    @Test
+    public void testPurity() throws Exception {
+        compile("let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } "
+                + "noisy(n) { print(n) } "
+                + "caller(n) { noisy(n) + 1 } "
+                + "even(n) { if (n == 0) then 1 else odd(n - 1) } "
+                + "odd(n) { if (n == 0) then 0 else even(n - 1) } "
+                + "in fib(3) + caller(1) + even(2)");
+        assertEquals(set("fib/1", "even/1", "odd/1"), pureNames());
+    }
+
+    @Test
+    public void testNonLocalVariablesAreImpure() throws Exception {
+        compile("let var x = 1 "
+                + "reads(n) { n + x } "
+                + "writes(n) { x = n } "
+                + "outer(a) { let inner(b) { a + b } local(b) { let var y = b in y = y + 1 } "
+                + "in inner(1) + local(a) } "
+                + "in reads(1) + writes(2) + outer(3)");
+        assertEquals(set("outer/1", "local/1"), pureNames());
+    }
+
+    @Test
+    public void testMemoizedFibonacci() throws Exception {
+        Instruction[] program = compile(
+                "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(30)");
+        tram.load(program);
+        MemoTable memo = new MemoTable(pure, 1024);
+        tram.setMemoTable(memo);
+        assertEquals(832040, tram.run());
+        // each of fib(0) to fib(30) is computed once.
+        assertEquals(31, memo.getMisses());
+        assertEquals(28, memo.getHits());
+        assertTrue(tram.getExecutedInstructions() < 1000);
+
+        // the table is kept across runs of the same program.
+        tram.load(program);
+        assertEquals(832040, tram.run());
+        assertEquals(29, memo.getHits());
+    }
+
+    @Test
+    public void testEvictions() throws Exception {
+        tram.load(compile(
+                "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(18)"));
+        MemoTable memo = new MemoTable(pure, 2);
+        tram.setMemoTable(memo);
+        assertEquals(2584, tram.run());
+        assertTrue(memo.getEvictions() > 0);
+    }
+
+    @Test
+    public void testTailCalls() throws Exception {
+        tram.load(compile(
+                "let count(n, r) { if (n == 0) then r else count(n - 1, r + 2) } "
+                + "in count(100, 0) + count(50, 100)"));
+        MemoTable memo = new MemoTable(pure, 1024);
+        tram.setMemoTable(memo);
+        // count(50, 100) is the tail of count(100, 0).
+        assertEquals(400, tram.run());
+        assertEquals(1, memo.getHits());
+    }
+
+    @Test
+    public void testWithoutTable() throws Exception {
+        tram.load(compile(
+                "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(15)"));
+        tram.setMemoTable(new MemoTable(pure, 16));
+        tram.setMemoTable(null);
+        assertEquals(610, tram.run());
+        assertNull(tram.getMemoTable());
+    }
+}
@@ -0,0 +1,170 @@
+package edu.uap.tripla.tram.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uap.tripla.compiler.TriplaCompiler;
+import edu.uap.tripla.parser.TriplaParser;
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.BuiltInFunction;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Profiler;
+import edu.uap.tripla.tram.Result;
+
+public class TestProfiler {
+
+    AbstractMachine tram;
+    Map<Integer, String> names;
+
+    @Before
+    public void setUp() throws Exception {
+        tram = new AbstractMachine();
+        names = new HashMap<Integer, String>();
+    }
+
+    private Profiler profile(String sourcecode) throws Exception {
+        tram.load(TriplaCompiler.compile(TriplaParser.parse(sourcecode), names));
+        Profiler profiler = new Profiler(tram);
+        tram.setTraceListener(profiler);
+        return profiler;
+    }
+
+    private int address(String name) {
+        for (Map.Entry<Integer, String> entry: names.entrySet()) {
+            if (entry.getValue().equals(name)) {
+                return entry.getKey();
+            }
+        }
+        throw new AssertionError(name);
+    }
+
+    @Test
+    public void testCountsInstructions() throws Exception {
+        Profiler profiler = profile(
+                "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(10)");
+        assertEquals(55, tram.run());
+        assertEquals(tram.getExecutedInstructions(), profiler.getExecutedInstructions());
+
+        long sum = 0;
+        for (long count: profiler.getOpcodeCounts().values()) {
+            sum += count;
+        }
+        assertEquals(profiler.getExecutedInstructions(), sum);
+        assertEquals(1, (long) profiler.getOpcodeCounts().get("HALT"));
+        // the let block is invoked like a function, too.
+        assertEquals(177 + 1, (long) profiler.getOpcodeCounts().get("RETURN"));
+        assertEquals(1, profiler.getCalls(address("let")));
+
+        Instruction[] program = tram.getProgram();
+        int fib = address("fib/1");
+        for (int pc = fib; program[pc].getOpcode() != Instruction.RETURN; pc++) {
+            assertTrue(profiler.getCount(pc) <= 177);
+        }
+        assertEquals(177, profiler.getCount(fib));
+    }
+
+    @Test
+    public void testFunctions() throws Exception {
+        Profiler profiler = profile(
+                "let square(x) { x * x } fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } "
+                + "in square(fib(10))");
+        assertEquals(3025, tram.run());
+        int fib = address("fib/1");
+        int square = address("square/1");
+
+        assertEquals(177, profiler.getCalls(fib));
+        assertEquals(1, profiler.getCalls(square));
+        // recursive calls are not counted twice.
+        assertTrue(profiler.getTotalInstructions(fib) < profiler.getExecutedInstructions());
+        assertEquals(profiler.getSelfInstructions(fib), profiler.getTotalInstructions(fib));
+        assertEquals(profiler.getSelfInstructions(square), profiler.getTotalInstructions(square));
+
+        String report = profiler.report(names);
+        assertTrue(report.indexOf("fib/1") < report.indexOf("square/1"));
+        assertTrue(report.contains("main"));
+    }
+
+    @Test
+    public void testTotalIncludesCallees() throws Exception {
+        Profiler profiler = profile(
+                "let f(n) { g(n) + 1 } g(n) { n * 2 } in f(1) + f(2)");
+        assertEquals(8, tram.run());
+        int f = address("f/1");
+        int g = address("g/1");
+        assertEquals(2, profiler.getCalls(f));
+        assertEquals(2, profiler.getCalls(g));
+        assertEquals(profiler.getSelfInstructions(f) + profiler.getSelfInstructions(g),
+                     profiler.getTotalInstructions(f));
+    }
+
+    @Test
+    public void testTailCalls() throws Exception {
+        Profiler profiler = profile(
+                "let count(n) { if (n == 0) then 0 else count(n - 1) } in count(100)");
+        assertEquals(0, tram.run());
+        int count = address("count/1");
+        assertEquals(101, profiler.getCalls(count));
+        assertEquals(profiler.getSelfInstructions(count), profiler.getTotalInstructions(count));
+    }
+
+    @Test
+    public void testBuiltInFunctions() throws Exception {
+        Profiler profiler = profile("print(1); print(2); 3");
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            assertEquals(3, tram.run());
+        } finally {
+            System.setOut(originalOut);
+        }
+        for (BuiltInFunction function: BuiltInFunction.getFunctionDefinitions()) {
+            if (function.getName().equals("print")) {
+                assertEquals(2, profiler.getBuiltInCalls(function.getLabel()));
+                assertTrue(profiler.report(null).contains("print/1"));
+            }
+        }
+    }
+
+    @Test
+    public void testResumedRuns() throws Exception {
+        String fibonacci =
+                "let fib(n) { if (n < 2) then n else fib(n - 1) + fib(n - 2) } in fib(15)";
+        Profiler whole = profile(fibonacci);
+        tram.run();
+        Profiler paused = profile(fibonacci);
+        tram.setFuel(1000);
+        Result result = tram.evaluate();
+        while (result.getStatus() == Result.Status.OUT_OF_FUEL) {
+            result = tram.evaluate();
+        }
+        assertEquals(610, result.getValue());
+        // running out of fuel does not end the functions running.
+        for (String name: new String[] { "let", "fib/1" }) {
+            int function = address(name);
+            assertEquals(whole.getCalls(function), paused.getCalls(function));
+            assertEquals(whole.getSelfInstructions(function), paused.getSelfInstructions(function));
+            assertEquals(whole.getTotalInstructions(function), paused.getTotalInstructions(function));
+        }
+        assertEquals(whole.report(names), paused.report(names));
+    }
+
+    @Test
+    public void testAccumulatesRuns() throws Exception {
+        Profiler profiler = profile("let f(x) { x + 1 } in f(1)");
+        tram.run();
+        long once = profiler.getExecutedInstructions();
+        tram.load(tram.getProgram());
+        tram.run();
+        assertEquals(2 * once, profiler.getExecutedInstructions());
+        assertEquals(2, profiler.getCalls(address("f/1")));
+        profiler.reset();
+        assertEquals(0, profiler.getExecutedInstructions());
+    }
+}
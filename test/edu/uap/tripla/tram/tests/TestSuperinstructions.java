@@ -0,0 +1,97 @@
+package edu.uap.tripla.tram.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.ExamplePrograms;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Superinstructions;
+
+public class TestSuperinstructions {
+
+    AbstractMachine tram;
+    Superinstructions superinstructions;
+
+    @Before
+    public void setUp() throws Exception {
+        tram = new AbstractMachine();
+        superinstructions = new Superinstructions();
+    }
+
+    @Test
+    public void testAddressesUnchanged() {
+        Instruction[] program = ExamplePrograms.factorial(4);
+        Instruction[] fused = superinstructions.apply(program);
+        assertEquals(program.length, fused.length);
+        assertEquals(Instruction.LOAD, program[3].getOpcode());
+        assertEquals(Instruction.EQ_IFZERO, fused[5].getOpcode());
+        assertEquals(9, fused[5].getArg1());
+        assertEquals(Instruction.CONST_SUB, fused[10].getOpcode());
+        assertEquals(1, fused[10].getArg1());
+        assertEquals(Instruction.IFZERO, fused[6].getOpcode());
+    }
+
+    @Test
+    public void testFactorial() {
+        for (int n = 0; n < 8; n++) {
+            tram.load(ExamplePrograms.factorial(n));
+            int expected = tram.run();
+            tram.load(superinstructions.apply(ExamplePrograms.factorial(n)));
+            assertEquals(expected, tram.run());
+        }
+    }
+
+    @Test
+    public void testStatistics() {
+        tram.load(superinstructions.apply(ExamplePrograms.factorial(4)));
+        assertEquals(24, tram.run());
+        assertEquals(1, (int) superinstructions.getStatistics().get("CONST SUB"));
+        assertEquals(1, (int) superinstructions.getStatistics().get("EQ IFZERO"));
+        assertEquals(0, (int) superinstructions.getStatistics().get("CONST ADD"));
+        // the comparison is executed for 4, 3, 2, 1 and 0.
+        assertEquals(5L, (long) tram.getSuperinstructionStatistics().get("EQ_IFZERO"));
+        assertEquals(4L, (long) tram.getSuperinstructionStatistics().get("CONST_SUB"));
+    }
+
+    @Test
+    public void testSquare() {
+        tram.load(superinstructions.apply(new Instruction[] {
+                new Instruction(Instruction.CONST, 7),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.MUL),
+                new Instruction(Instruction.HALT),
+        }));
+        assertEquals(49, tram.run());
+        assertEquals(1L, (long) tram.getSuperinstructionStatistics().get("LOAD_LOAD_MUL"));
+    }
+
+    @Test
+    public void testSquareOfLazyVariable() {
+        // the first load evaluates the lazy variable,
+        // so the superinstruction has to fall back to a plain LOAD.
+        tram.load(superinstructions.apply(new Instruction[] {
+                new Instruction(Instruction.CONST, 0),
+                new Instruction(Instruction.LAZY, 0, 6),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.MUL),
+                new Instruction(Instruction.HALT),
+                new Instruction(Instruction.CONST, 7),
+                new Instruction(Instruction.LAZYRETURN),
+        }));
+        assertEquals(49, tram.run());
+        assertNull(tram.getSuperinstructionStatistics().get("LOAD_LOAD_MUL"));
+    }
+
+    @Test
+    public void testThreadedDispatch() {
+        tram.setDispatch(AbstractMachine.Dispatch.THREADED);
+        tram.load(superinstructions.apply(ExamplePrograms.factorial(5)));
+        assertEquals(120, tram.run());
+        assertEquals(6L, (long) tram.getSuperinstructionStatistics().get("EQ_IFZERO"));
+    }
+}
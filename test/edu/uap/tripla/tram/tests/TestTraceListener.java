@@ -0,0 +1,79 @@
+package edu.uap.tripla.tram.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.ExamplePrograms;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.PrintTracer;
+import edu.uap.tripla.tram.TraceListener;
+
+public class TestTraceListener {
+
+    AbstractMachine tram;
+
+    @Before
+    public void setUp() throws Exception {
+        tram = new AbstractMachine();
+    }
+
+    @Test
+    public void testNoTracingByDefault() {
+        assertSame(TraceListener.NONE, tram.getTraceListener());
+        tram.setTraceListener(new PrintTracer(new StringBuilder()));
+        tram.setTraceListener(null);
+        assertSame(TraceListener.NONE, tram.getTraceListener());
+    }
+
+    @Test
+    public void testEachStepIsReported() {
+        for (AbstractMachine.Dispatch dispatch: AbstractMachine.Dispatch.values()) {
+            final int[] steps = new int[2];
+            tram.setDispatch(dispatch);
+            tram.setTraceListener(new TraceListener() {
+                @Override
+                public void step(AbstractMachine machine) {
+                    assertTrue(machine.getPC() >= 0);
+                    steps[0]++;
+                }
+
+                @Override
+                public void stopped(AbstractMachine machine) {
+                    assertTrue(machine.getPC() < 0);
+                    steps[1]++;
+                }
+            });
+            tram.load(ExamplePrograms.factorial(4));
+            assertEquals(24, tram.run());
+            assertEquals(tram.getExecutedInstructions(), steps[0]);
+            assertEquals(1, steps[1]);
+        }
+    }
+
+    @Test
+    public void testPrintTracer() {
+        StringBuilder trace = new StringBuilder();
+        tram.setTraceListener(new PrintTracer(trace));
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 23),
+                new Instruction(Instruction.CONST, 42),
+                new Instruction(Instruction.ADD),
+                new Instruction(Instruction.HALT)
+        });
+        assertEquals(65, tram.run());
+        assertEquals(
+                "PC: 0 | PP: 0 | FP: 0 | LEVEL: 0 | TOP: -1 | Stack: \n" +
+                "CONST 23\n" +
+                "PC: 1 | PP: 0 | FP: 0 | LEVEL: 0 | TOP: 0 | Stack: I23 \n" +
+                "CONST 42\n" +
+                "PC: 2 | PP: 0 | FP: 0 | LEVEL: 0 | TOP: 1 | Stack: I23 I42 \n" +
+                "ADD\n" +
+                "PC: 3 | PP: 0 | FP: 0 | LEVEL: 0 | TOP: 0 | Stack: I65 \n" +
+                "HALT\n" +
+                "PC: -1 | PP: 0 | FP: 0 | LEVEL: 0 | TOP: 0 | Stack: I65 \n",
+                trace.toString());
+    }
+}
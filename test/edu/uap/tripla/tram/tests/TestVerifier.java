@@ -0,0 +1,125 @@
+package edu.uap.tripla.tram.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uap.tripla.tram.AbstractMachine;
+import edu.uap.tripla.tram.ExamplePrograms;
+import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Superinstructions;
+import edu.uap.tripla.tram.Verifier;
+
+public class TestVerifier {
+
+    AbstractMachine tram;
+
+    @Before
+    public void setUp() throws Exception {
+        tram = new AbstractMachine();
+    }
+
+    @Test
+    public void testExampleProgramsVerify() {
+        Instruction[] program = ExamplePrograms.factorial(5);
+        Verifier.verify(program);
+        tram.load(program);
+        assertTrue(tram.isVerified());
+        assertEquals(120, tram.run());
+        tram.load(new Superinstructions().apply(ExamplePrograms.factorial(5)));
+        assertTrue(tram.isVerified());
+        assertEquals(120, tram.run());
+    }
+
+    @Test
+    public void testLazyVariable() {
+        // let square(x) { let lazy y = x * x in y + y } in square(3)
+        Instruction[] program = new Instruction[] {
+                new Instruction(Instruction.CONST, 3),
+                new Instruction(Instruction.INVOKE, 1, 3, 0),
+                new Instruction(Instruction.HALT),
+                new Instruction(Instruction.CONST, 0),
+                new Instruction(Instruction.INVOKE, 1, 6, 0),
+                new Instruction(Instruction.RETURN),
+                new Instruction(Instruction.GOTO, 12),
+                new Instruction(Instruction.LOAD, 0, 1),
+                new Instruction(Instruction.LOAD, 0, 1),
+                new Instruction(Instruction.MUL),
+                new Instruction(Instruction.LAZYRETURN),
+                new Instruction(Instruction.HALT),
+                new Instruction(Instruction.LAZY, 0, 7),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.ADD),
+                new Instruction(Instruction.RETURN)
+        };
+        Verifier.verify(program);
+        tram.load(program);
+        assertTrue(tram.isVerified());
+        assertEquals(18, tram.run());
+    }
+
+    @Test
+    public void testRejected() {
+        // takes operands from below its frame.
+        assertFalse(Verifier.isVerifiable(new Instruction[] {
+                new Instruction(Instruction.CONST, 1),
+                new Instruction(Instruction.INVOKE, 1, 3, 0),
+                new Instruction(Instruction.HALT),
+                new Instruction(Instruction.ADD),
+                new Instruction(Instruction.RETURN)
+        }));
+        // jumps out of the program.
+        assertFalse(Verifier.isVerifiable(new Instruction[] {
+                new Instruction(Instruction.GOTO, 5)
+        }));
+        // reaches an instruction with different stack heights.
+        assertFalse(Verifier.isVerifiable(new Instruction[] {
+                new Instruction(Instruction.CONST, 1),
+                new Instruction(Instruction.IFZERO, 3),
+                new Instruction(Instruction.CONST, 2),
+                new Instruction(Instruction.CONST, 3),
+                new Instruction(Instruction.HALT)
+        }));
+        // forces a cell which is no parameter.
+        assertFalse(Verifier.isVerifiable(new Instruction[] {
+                new Instruction(Instruction.CONST, 0),
+                new Instruction(Instruction.INVOKE, 1, 3, 0),
+                new Instruction(Instruction.HALT),
+                new Instruction(Instruction.LAZY, 0, 6),
+                new Instruction(Instruction.FORCE, 1, 0),
+                new Instruction(Instruction.RETURN),
+                new Instruction(Instruction.CONST, 1),
+                new Instruction(Instruction.LAZYRETURN)
+        }));
+        // loads a cell which is no parameter.
+        assertFalse(Verifier.isVerifiable(new Instruction[] {
+                new Instruction(Instruction.CONST, 1),
+                new Instruction(Instruction.INVOKE, 1, 3, 0),
+                new Instruction(Instruction.HALT),
+                new Instruction(Instruction.LOAD, 1, 0),
+                new Instruction(Instruction.RETURN)
+        }));
+    }
+
+    @Test(expected = Error.class)
+    public void testVerifyTellsWhy() {
+        Verifier.verify(new Instruction[] {
+                new Instruction(Instruction.RETURN)
+        });
+    }
+
+    @Test
+    public void testRejectedProgramsRunChecked() {
+        // uses cells above TOP, as the example programs may do.
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 42),
+                new Instruction(Instruction.STORE, 0, 0),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.HALT)
+        });
+        assertFalse(tram.isVerified());
+        assertEquals(42, tram.run());
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import edu.uap.tripla.tram.AbstractMachine;
 import edu.uap.tripla.tram.Instruction;
+import edu.uap.tripla.tram.Result;
 
 /**
  * This class tests the basic instructions of the TRAM.
@@ -21,7 +22,6 @@ public class TramMooseTest {
     @Before
     public void setUp() throws Exception {
         tram = new AbstractMachine();
-        tram.debug = false;
     }
     
     @Test
@@ -66,10 +66,12 @@ public class TramMooseTest {
                 new Instruction(Instruction.CONST, 2342),
                 new Instruction(Instruction.INVOKE, 1, 9, 1),
                 new Instruction(Instruction.HALT),
+                // the third callee is nested in the first one,
+                // so it sees the first callee's parameter.
+                new Instruction(Instruction.LOAD, 0, 1),
                 new Instruction(Instruction.HALT)
         });
-        tram.run();
-        assertEquals(1, tram.getStackAt(16));    
+        assertEquals(23, tram.run());
     }
     
     @Test
@@ -98,6 +100,27 @@ public class TramMooseTest {
         assertEquals(23, tram.run());
     }
 
+    @Test
+    public void testTailInvoke() {
+        // far less cells than 1000 nested frames would need.
+        tram = new AbstractMachine(16, 64);
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 1000),
+                new Instruction(Instruction.INVOKE, 1, 3, 0),
+                new Instruction(Instruction.HALT),
+                // f(n) { if (n == 0) then 99 else f(n - 1) }
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.IFZERO, 9),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.CONST, 1),
+                new Instruction(Instruction.SUB),
+                new Instruction(Instruction.TAILINVOKE, 1, 3, 1),
+                new Instruction(Instruction.CONST, 99),
+                new Instruction(Instruction.RETURN)
+        });
+        assertEquals(99, tram.run());
+    }
+
     @Test
     public void testIfzero() {
         tram.load(new Instruction[]{
@@ -211,6 +234,159 @@ public class TramMooseTest {
         assertEquals(42, tram.run());
     }
 
+    @Test
+    public void testStackGrowsBeyondInitialSize() {
+        tram = new AbstractMachine(4, 64);
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 23),
+                new Instruction(Instruction.CONST, 42),
+                new Instruction(Instruction.INVOKE, 2, 3, 0),
+                new Instruction(Instruction.LOAD, 0, 0), 
+                new Instruction(Instruction.LOAD, 1, 0),
+                new Instruction(Instruction.ADD), 
+                new Instruction(Instruction.HALT)
+        });
+        assertEquals(65, tram.run());
+    }
+
+    @Test
+    public void testStackOverflow() {
+        tram = new AbstractMachine(4, 64);
+        // endless recursion
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 42),
+                new Instruction(Instruction.INVOKE, 1, 0, 0),
+                new Instruction(Instruction.HALT)
+        });
+        Result result = tram.evaluate();
+        assertEquals(Result.Status.STACK_OVERFLOW, result.getStatus());
+        assertFalse(result.isHalted());
+    }
+
+    @Test
+    public void testOutOfFuel() {
+        for (AbstractMachine.Dispatch dispatch: AbstractMachine.Dispatch.values()) {
+            tram.setDispatch(dispatch);
+            tram.setFuel(10000);
+            // endless loop
+            tram.load(new Instruction[]{
+                    new Instruction(Instruction.NOP),
+                    new Instruction(Instruction.GOTO, 0),
+                    new Instruction(Instruction.HALT)
+            });
+            Result result = tram.evaluate();
+            assertEquals(Result.Status.OUT_OF_FUEL, result.getStatus());
+            assertEquals(10000, tram.getExecutedInstructions());
+            // each run gets the whole fuel again.
+            assertEquals(Result.Status.OUT_OF_FUEL, tram.evaluate().getStatus());
+            assertEquals(20000, tram.getExecutedInstructions());
+        }
+    }
+
+    @Test
+    public void testResumeAfterOutOfFuel() {
+        tram.setFuel(3);
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 1),
+                new Instruction(Instruction.CONST, 2),
+                new Instruction(Instruction.ADD),
+                new Instruction(Instruction.CONST, 3),
+                new Instruction(Instruction.MUL),
+                new Instruction(Instruction.HALT)
+        });
+        assertEquals(Result.Status.OUT_OF_FUEL, tram.evaluate().getStatus());
+        Result result = tram.evaluate();
+        assertTrue(result.isHalted());
+        assertEquals(9, result.getValue());
+        tram.setFuel(AbstractMachine.UNLIMITED);
+        tram.load(tram.getProgram());
+        assertEquals(9, tram.run());
+    }
+
+    @Test(timeout = 10000)
+    public void testCancel() throws Exception {
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.NOP),
+                new Instruction(Instruction.GOTO, 0),
+                new Instruction(Instruction.HALT)
+        });
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+            }
+            tram.cancel();
+        });
+        canceller.start();
+        assertEquals(Result.Status.CANCELLED, tram.evaluate().getStatus());
+        canceller.join();
+        // the cancellation is consumed.
+        tram.setFuel(100);
+        assertEquals(Result.Status.OUT_OF_FUEL, tram.evaluate().getStatus());
+    }
+
+    @Test
+    public void testReloadClearsUsedCells() {
+        tram = new AbstractMachine(4, 64);
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 1),
+                new Instruction(Instruction.CONST, 2),
+                new Instruction(Instruction.CONST, 3),
+                new Instruction(Instruction.CONST, 4),
+                new Instruction(Instruction.CONST, 5),
+                new Instruction(Instruction.CONST, 6),
+                new Instruction(Instruction.HALT)
+        });
+        assertEquals(6, tram.run());
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.HALT)
+        });
+        tram.setTop(7);
+        for (int i = 0; i <= 7; i++) {
+            assertEquals(0, tram.getStackAt(i));
+        }
+        // the same program again reuses its packed form.
+        Instruction[] program = tram.getProgram();
+        tram.load(program);
+        assertSame(program, tram.getProgram());
+        assertFalse(tram.isVerified());
+    }
+
+    @Test
+    public void testForce() {
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 0),
+                new Instruction(Instruction.LAZY, 0, 6),
+                new Instruction(Instruction.FORCE, 0, 0),
+                new Instruction(Instruction.FORCE, 0, 0),
+                new Instruction(Instruction.ADD),
+                new Instruction(Instruction.HALT),
+                new Instruction(Instruction.CONST, 21),
+                new Instruction(Instruction.LAZYRETURN)
+        });
+        assertEquals(42, tram.run());
+        // the code ran once; the second FORCE found the value.
+        assertEquals(8, tram.getExecutedInstructions());
+        assertEquals("I21", tram.getTaggedStackAt(0));
+        // the variable, three link cells and the value.
+        assertEquals(4, tram.getStackHighWater());
+    }
+
+    @Test
+    public void testLoadForcesLazyVariable() {
+        tram.load(new Instruction[]{
+                new Instruction(Instruction.CONST, 0),
+                new Instruction(Instruction.LAZY, 0, 6),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.LOAD, 0, 0),
+                new Instruction(Instruction.SUB),
+                new Instruction(Instruction.HALT),
+                new Instruction(Instruction.CONST, 7),
+                new Instruction(Instruction.LAZYRETURN)
+        });
+        assertEquals(0, tram.run());
+    }
+
     @Test
     public void testConst() {
         tram.load(new Instruction[]{